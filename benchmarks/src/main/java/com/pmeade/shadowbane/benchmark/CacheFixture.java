@@ -0,0 +1,116 @@
+/*
+ * CacheFixture.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.benchmark;
+
+import com.pmeade.shadowbane.mesh.MeshCache;
+import com.pmeade.shadowbane.sound.SoundCache;
+import com.pmeade.shadowbane.terrain.TerrainAlphaCache;
+import com.pmeade.shadowbane.textures.TexturesCache;
+import java.io.File;
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * CacheFixture writes a set of synthetic cache archives to a temporary
+ * directory and opens them, once per benchmark trial.
+ * @author pmeade
+ */
+@State(Scope.Benchmark)
+public class CacheFixture
+{
+    /** Number of Mesh resources in the fixture. */
+    public static final int NUM_MESHES = 30;
+
+    /** Number of Sound resources in the fixture. */
+    public static final int NUM_SOUNDS = 4;
+
+    /** Number of Textures resources in the fixture. */
+    public static final int NUM_TEXTURES = 30;
+
+    /** Number of TerrainAlpha resources in the fixture; one terrain map. */
+    public static final int NUM_TERRAIN_ALPHA = 14 * 14;
+
+    /**
+     * Write and open the synthetic cache archives.
+     * @throws IOException if the cache archives could not be written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cacheDir = SyntheticCache.createDirectory();
+        outputDir = SyntheticCache.createDirectory();
+        SyntheticCache.writeMeshCache(cacheDir, NUM_MESHES);
+        SyntheticCache.writeSoundCache(cacheDir, NUM_SOUNDS);
+        SyntheticCache.writeTexturesCache(cacheDir, NUM_TEXTURES);
+        SyntheticCache.writeTerrainAlphaCache(cacheDir, NUM_TERRAIN_ALPHA);
+        new File(outputDir, "TerrainAlpha").mkdir();
+
+        meshCache = new MeshCache(cacheDir);
+        soundCache = new SoundCache(cacheDir);
+        texturesCache = new TexturesCache(cacheDir);
+        terrainAlphaCache = new TerrainAlphaCache(cacheDir);
+    }
+
+    /**
+     * Close the synthetic cache archives, and delete them along with any
+     * exported files.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        meshCache.close();
+        soundCache.close();
+        texturesCache.close();
+        terrainAlphaCache.close();
+        SyntheticCache.delete(cacheDir);
+        SyntheticCache.delete(outputDir);
+    }
+
+    /**
+     * Directory containing the synthetic cache archives.
+     */
+    public File cacheDir;
+
+    /**
+     * Directory to which the encode benchmarks write their output.
+     */
+    public File outputDir;
+
+    /**
+     * The synthetic "Mesh.cache", opened.
+     */
+    public MeshCache meshCache;
+
+    /**
+     * The synthetic "Sound.cache", opened.
+     */
+    public SoundCache soundCache;
+
+    /**
+     * The synthetic "Textures.cache", opened.
+     */
+    public TexturesCache texturesCache;
+
+    /**
+     * The synthetic "TerrainAlpha.cache", opened.
+     */
+    public TerrainAlphaCache terrainAlphaCache;
+}
@@ -0,0 +1,99 @@
+/*
+ * DirectoryBenchmark.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.benchmark;
+
+import com.pmeade.shadowbane.mesh.MeshCache;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DirectoryBenchmark measures opening a cache archive: reading its header
+ * and directory, indexing the resource IDs, and mapping the file.
+ * @author pmeade
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirectoryBenchmark
+{
+    /**
+     * Number of resources in the directory. The real archives hold from
+     * a few hundred to a few tens of thousands.
+     */
+    @Param({ "1000", "25000" })
+    public int numResources;
+
+    /**
+     * Write a cache archive with numResources small resources.
+     * @throws IOException if the cache archive could not be written
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cacheDir = SyntheticCache.createDirectory();
+        Random random = new Random(4);
+        List<byte[]> resources = new ArrayList();
+        for(int i=0; i<numResources; i++) {
+            byte[] data = new byte[64 + random.nextInt(64)];
+            random.nextBytes(data);
+            resources.add(data);
+        }
+        SyntheticCache.write(new File(cacheDir, "Mesh.cache"), resources, false);
+    }
+
+    /**
+     * Delete the cache archive.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticCache.delete(cacheDir);
+    }
+
+    @Benchmark
+    public int openAndClose() {
+        MeshCache cache = new MeshCache(cacheDir);
+        int size = cache.size();
+        cache.close();
+        return size;
+    }
+
+    /**
+     * Directory containing the synthetic cache archive.
+     */
+    private File cacheDir;
+}
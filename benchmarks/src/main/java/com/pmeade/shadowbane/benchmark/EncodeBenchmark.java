@@ -0,0 +1,149 @@
+/*
+ * EncodeBenchmark.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.benchmark;
+
+import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.mesh.MeshResource;
+import com.pmeade.shadowbane.sound.SoundResource;
+import com.pmeade.shadowbane.terrain.TerrainAlphaResource;
+import com.pmeade.shadowbane.textures.TexturesResource;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * EncodeBenchmark measures the export method of each kind of resource,
+ * which converts the resource to its output format and writes the output
+ * file. The resource data is loaded once, before the benchmark, so
+ * inflation is not measured. The exporters parse the resource as they go,
+ * so parsing is included; compare with DecodeBenchmark to separate it.
+ * Output goes to a temporary directory; put java.io.tmpdir on a RAM disk
+ * to leave the disk out of the measurement.
+ * @author pmeade
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EncodeBenchmark
+{
+    /**
+     * Load the resources to be encoded.
+     * @param fixture CacheFixture containing the resources
+     */
+    @Setup(Level.Trial)
+    public void setUp(CacheFixture fixture) {
+        this.fixture = fixture;
+        mesh = fixture.meshCache.acquire(1);
+        sound = fixture.soundCache.acquire(0);
+        grayTexture = fixture.texturesCache.acquire(0);
+        rgbaTexture = fixture.texturesCache.acquire(2);
+        terrainAlpha = fixture.terrainAlphaCache.acquire(0);
+    }
+
+    /**
+     * Release the resources.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mesh.close();
+        sound.close();
+        grayTexture.close();
+        rgbaTexture.close();
+        terrainAlpha.close();
+    }
+
+    @Benchmark
+    public void encodeMeshBlenderPython() {
+        new MeshResource(mesh).exportToBlenderPython(fixture.outputDir);
+    }
+
+    @Benchmark
+    public void encodeSoundWave() {
+        new SoundResource(sound).exportToWave(fixture.outputDir);
+    }
+
+    @Benchmark
+    public void encodeGrayTexturePng() {
+        new TexturesResource(grayTexture).exportToPng(fixture.outputDir);
+    }
+
+    @Benchmark
+    public void encodeRgbaTexturePng() {
+        new TexturesResource(rgbaTexture).exportToPng(fixture.outputDir);
+    }
+
+    @Benchmark
+    public void encodeTerrainAlphaPng() {
+        new TerrainAlphaResource(terrainAlpha).exportToPng(fixture.outputDir);
+    }
+
+    /**
+     * Export a whole 14x14 terrain map (1792x1792 pixels). This one also
+     * loads and inflates the 196 TerrainAlpha resources of the map.
+     */
+    @Benchmark
+    public void encodeTerrainMapPng() {
+        fixture.terrainAlphaCache.exportTerrainMap(0, fixture.outputDir);
+    }
+
+    /**
+     * CacheFixture containing the resources; its outputDir receives the
+     * exported files.
+     */
+    private CacheFixture fixture;
+
+    /**
+     * A Mesh resource with normals, texture coordinates and tangents.
+     */
+    private CacheResource mesh;
+
+    /**
+     * A Sound resource; two seconds of 16-bit mono audio.
+     */
+    private CacheResource sound;
+
+    /**
+     * A 256x256 grayscale Textures resource.
+     */
+    private CacheResource grayTexture;
+
+    /**
+     * A 256x256 RGBA Textures resource.
+     */
+    private CacheResource rgbaTexture;
+
+    /**
+     * A 128x128 TerrainAlpha resource.
+     */
+    private CacheResource terrainAlpha;
+}
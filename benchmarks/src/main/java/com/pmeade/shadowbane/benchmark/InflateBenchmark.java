@@ -0,0 +1,87 @@
+/*
+ * InflateBenchmark.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.benchmark;
+
+import com.pmeade.shadowbane.CacheArchive;
+import com.pmeade.shadowbane.CacheResource;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * InflateBenchmark measures loading resource data from a cache archive
+ * with CacheArchive.acquire(), which inflates compressed resources into
+ * pooled buffers, and returning it with close().
+ * @author pmeade
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InflateBenchmark
+{
+    @Benchmark
+    public long inflateMesh(CacheFixture fixture) {
+        return load(fixture.meshCache, CacheFixture.NUM_MESHES);
+    }
+
+    @Benchmark
+    public long inflateTextures(CacheFixture fixture) {
+        return load(fixture.texturesCache, CacheFixture.NUM_TEXTURES);
+    }
+
+    @Benchmark
+    public long inflateTerrainAlpha(CacheFixture fixture) {
+        return load(fixture.terrainAlphaCache, CacheFixture.NUM_TERRAIN_ALPHA);
+    }
+
+    @Benchmark
+    public long loadStoredSound(CacheFixture fixture) {
+        return load(fixture.soundCache, CacheFixture.NUM_SOUNDS);
+    }
+
+    /**
+     * Load the next resource of the provided archive, cycling through all
+     * of them, so the benchmark is not measuring a single resource.
+     * @param archive CacheArchive to load from
+     * @param count number of resources in the archive
+     * @return the last byte of the resource, so the load is not optimized
+     *         away
+     */
+    private long load(CacheArchive archive, int count) {
+        next = (next + 1) % count;
+        try(CacheResource resource = archive.acquire(next)) {
+            return resource.getBuffer().get((int)resource.size - 1);
+        }
+    }
+
+    /**
+     * Index of the resource last loaded.
+     */
+    private int next;
+}
@@ -0,0 +1,312 @@
+/*
+ * SyntheticCache.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * SyntheticCache writes cache archive files full of made-up resources, so
+ * that the benchmarks can run without the Shadowbane game files. The
+ * resources have the same layout, and roughly the same sizes, as the real
+ * ones; their contents are random, but repeatable.
+ * @author pmeade
+ */
+public class SyntheticCache
+{
+    /**
+     * Create a temporary directory for synthetic cache archive files. Pass
+     * it to delete() when finished.
+     * @return File representing the directory
+     * @throws IOException if the directory could not be created
+     */
+    public static File createDirectory() throws IOException {
+        File dir = File.createTempFile("SyntheticCache", "");
+        if((dir.delete() == false) || (dir.mkdir() == false)) {
+            throw new IOException("Unable to create " + dir.getPath());
+        }
+        return dir;
+    }
+
+    /**
+     * Delete a directory created by createDirectory(), and everything in it.
+     * @param dir File representing the directory
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                delete(file);
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Write a "Mesh.cache" containing the provided number of meshes, each
+     * with 200 to 2000 vertices.
+     * @param dir directory where the cache archive is written
+     * @param count number of Mesh resources
+     * @throws IOException if the cache archive could not be written
+     */
+    public static void writeMeshCache(File dir, int count) throws IOException {
+        Random random = new Random(1);
+        List<byte[]> resources = new ArrayList();
+        for(int i=0; i<count; i++) {
+            int numVertices = 200 + random.nextInt(1800);
+            resources.add(mesh(random, i, numVertices, numVertices * 2));
+        }
+        write(new File(dir, "Mesh.cache"), resources, true);
+    }
+
+    /**
+     * Write a "Sound.cache" containing the provided number of sounds, each
+     * two seconds of 16-bit mono audio at 22050 Hz. Sounds are stored
+     * without compression, like the real ones.
+     * @param dir directory where the cache archive is written
+     * @param count number of Sound resources
+     * @throws IOException if the cache archive could not be written
+     */
+    public static void writeSoundCache(File dir, int count) throws IOException {
+        List<byte[]> resources = new ArrayList();
+        for(int i=0; i<count; i++) {
+            resources.add(sound(22050, 2 * 22050, 110 + 10*i));
+        }
+        write(new File(dir, "Sound.cache"), resources, false);
+    }
+
+    /**
+     * Write a "Textures.cache" containing the provided number of 256x256
+     * textures, cycling through grayscale, RGB and RGBA.
+     * @param dir directory where the cache archive is written
+     * @param count number of Textures resources
+     * @throws IOException if the cache archive could not be written
+     */
+    public static void writeTexturesCache(File dir, int count) throws IOException {
+        Random random = new Random(2);
+        int[] depths = { 1, 3, 4 };
+        List<byte[]> resources = new ArrayList();
+        for(int i=0; i<count; i++) {
+            resources.add(texture(random, 256, 256, depths[i % depths.length]));
+        }
+        write(new File(dir, "Textures.cache"), resources, true);
+    }
+
+    /**
+     * Write a "TerrainAlpha.cache" containing the provided number of
+     * 128x128 terrain resources. At least 196 are needed to export the
+     * first terrain map.
+     * @param dir directory where the cache archive is written
+     * @param count number of TerrainAlpha resources
+     * @throws IOException if the cache archive could not be written
+     */
+    public static void writeTerrainAlphaCache(File dir, int count) throws IOException {
+        Random random = new Random(3);
+        List<byte[]> resources = new ArrayList();
+        for(int i=0; i<count; i++) {
+            resources.add(terrainAlpha(random));
+        }
+        write(new File(dir, "TerrainAlpha.cache"), resources, true);
+    }
+
+    /**
+     * Build a Mesh resource.
+     * @param random Random used to fill in the mesh
+     * @param index index of the resource, used to vary its header
+     * @param numVertices number of vertices
+     * @param numFaces number of triangular faces
+     * @return byte[] containing the Mesh resource
+     */
+    public static byte[] mesh(Random random, int index, int numVertices, int numFaces) {
+        boolean tangents = (index % 2) == 1;
+        int size = 46
+            + 4 + numVertices*12     // vertices
+            + 4 + numVertices*12     // normals
+            + 4 + numVertices*8      // texture coordinates
+            + (tangents ? 4 + numVertices*12 : 0)
+            + 4 + numFaces*6         // face indices
+            + 4;                     // no "after" records
+        ByteBuffer buffer = allocate(size);
+        buffer.putInt(0).putInt(1000000 + index).putInt(3).putInt(900000 + index).putInt(5);
+        buffer.putFloat(-1).putFloat(-1).putFloat(-1);
+        buffer.putFloat(1).putFloat(1).putFloat(1);
+        buffer.put((byte)(index % 2)).put((byte)(tangents ? 1 : 0));
+        putVectors(buffer, random, numVertices, 3);
+        putVectors(buffer, random, numVertices, 3);
+        putVectors(buffer, random, numVertices, 2);
+        if(tangents) {
+            putVectors(buffer, random, numVertices, 3);
+        }
+        buffer.putInt(numFaces * 3);
+        for(int i=0; i<numFaces*3; i++) {
+            buffer.putShort((short)random.nextInt(numVertices));
+        }
+        buffer.putInt(0);
+        return buffer.array();
+    }
+
+    /**
+     * Build a Sound resource containing a sine wave.
+     * @param bitRate samples per second
+     * @param numSamples number of 16-bit samples
+     * @param frequency frequency of the sine wave, in Hz
+     * @return byte[] containing the Sound resource
+     */
+    public static byte[] sound(int bitRate, int numSamples, int frequency) {
+        ByteBuffer buffer = allocate(16 + numSamples*2);
+        buffer.putInt(numSamples * 2).putInt(bitRate).putInt(1).putInt(16);
+        for(int i=0; i<numSamples; i++) {
+            double t = (double)i / bitRate;
+            buffer.putShort((short)(Math.sin(2 * Math.PI * frequency * t) * 12000));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Build a Textures resource containing a noisy gradient, which
+     * compresses about as well as real textures do.
+     * @param random Random used to add noise
+     * @param width width of the texture, in pixels
+     * @param height height of the texture, in pixels
+     * @param depth bytes per pixel (1, 3 or 4)
+     * @return byte[] containing the Textures resource
+     */
+    public static byte[] texture(Random random, int width, int height, int depth) {
+        ByteBuffer buffer = allocate(26 + width*height*depth);
+        buffer.putInt(width).putInt(height).putInt(depth);
+        buffer.position(26);
+        for(int y=0; y<height; y++) {
+            for(int x=0; x<width; x++) {
+                for(int c=0; c<depth; c++) {
+                    buffer.put((byte)(x + y*c + random.nextInt(16)));
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Build a TerrainAlpha resource containing a noisy gradient.
+     * @param random Random used to add noise
+     * @return byte[] containing the TerrainAlpha resource
+     */
+    public static byte[] terrainAlpha(Random random) {
+        ByteBuffer buffer = allocate(26 + 128*128);
+        buffer.putInt(128).putInt(128).putInt(1).putInt(1).putInt(0);
+        buffer.put((byte)1).put((byte)1).putInt(128*128);
+        int base = random.nextInt(256);
+        for(int y=0; y<128; y++) {
+            for(int x=0; x<128; x++) {
+                buffer.put((byte)(base + (x + y)/2 + random.nextInt(4)));
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Write a cache archive file containing the provided resources.
+     * @param file File to which the cache archive is written
+     * @param resources List of the resources to be written
+     * @param compress true, if the resources should be compressed (unless
+     *                 compression makes them bigger); false, if they
+     *                 should be stored as they are
+     * @throws IOException if the cache archive could not be written
+     */
+    public static void write(File file, List<byte[]> resources, boolean compress) throws IOException {
+        int n = resources.size();
+        long dataOffset = 16 + n*20L;
+        List<byte[]> stored = new ArrayList();
+        ByteBuffer directory = allocate(n*20);
+        long offset = dataOffset;
+        for(int i=0; i<n; i++) {
+            byte[] data = resources.get(i);
+            byte[] zipData = compress ? deflate(data) : data;
+            if(zipData.length >= data.length) {
+                zipData = data;
+            }
+            directory.putInt(0).putInt(1000 + i).putInt((int)offset)
+                     .putInt(data.length).putInt(zipData.length);
+            stored.add(zipData);
+            offset += zipData.length;
+        }
+        ByteBuffer header = allocate(16);
+        header.putInt(n).putInt((int)dataOffset).putInt((int)offset).putInt(0);
+
+        try(FileOutputStream out = new FileOutputStream(file)) {
+            out.write(header.array());
+            out.write(directory.array());
+            for(byte[] zipData : stored) {
+                out.write(zipData);
+            }
+        }
+    }
+
+    /**
+     * Compress the provided data with zlib, as the cache archives do.
+     * @param data byte[] to be compressed
+     * @return byte[] containing the compressed data
+     */
+    public static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] zipData = new byte[data.length + data.length/1000 + 64];
+            int length = deflater.deflate(zipData);
+            if(deflater.finished() == false) {
+                return data;
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(zipData, 0, result, 0, length);
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Put random vectors into the provided buffer, preceded by their count.
+     * @param buffer ByteBuffer to receive the vectors
+     * @param random Random used to generate the vectors
+     * @param count number of vectors
+     * @param dimensions number of floats in each vector
+     */
+    private static void putVectors(ByteBuffer buffer, Random random, int count, int dimensions) {
+        buffer.putInt(count);
+        for(int i=0; i<count*dimensions; i++) {
+            buffer.putFloat(random.nextFloat() * 2 - 1);
+        }
+    }
+
+    /**
+     * Allocate a little-endian ByteBuffer backed by an array.
+     * @param size size of the buffer, in bytes
+     * @return ByteBuffer of the provided size
+     */
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
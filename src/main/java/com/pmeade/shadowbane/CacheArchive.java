@@ -18,18 +18,33 @@
 
 package com.pmeade.shadowbane;
 
+import com.pmeade.shadowbane.metrics.Metrics;
+import com.pmeade.shadowbane.util.BufferPool;
+import com.pmeade.shadowbane.util.ByteBufferInputStream;
+import com.pmeade.shadowbane.util.LongIndex;
+import com.pmeade.shadowbane.util.Unmapper;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
+import static com.pmeade.shadowbane.util.Data.UB;
 import static com.pmeade.shadowbane.util.Data.UI;
 
 /**
@@ -38,10 +53,55 @@ import static com.pmeade.shadowbane.util.Data.UI;
  * In other .cache files, the resources are stored uncompressed.
  * This class reads the directory and allows loading of selected
  * resources; decompression is handled, if necessary.
+ *
+ * The cache archive file is memory mapped in segments, so files larger
+ * than 2 GB can be read. Close the CacheArchive when finished with it to
+ * release the mapping and the open file.
  * @author pmeade
  */
-abstract public class CacheArchive
+abstract public class CacheArchive implements Closeable
 {
+    /**
+     * Distance between the start of one mapped segment of the cache
+     * archive file and the next (1 GB). Each segment is mapped a little
+     * longer than this, so that every resource lies entirely within the
+     * segment where it begins.
+     */
+    public static final long SEGMENT_SIZE = 0x40000000L;
+
+    /**
+     * Size of the chunks used when inflating into a ByteBuffer (64 KB).
+     */
+    public static final int INFLATE_CHUNK_SIZE = 0x10000;
+
+    /**
+     * Pool of reusable buffers for compressed and decompressed resource
+     * data, shared by all cache archives. It holds at most 64 MB.
+     */
+    private static final BufferPool BUFFER_POOL = new BufferPool(0x4000000L);
+
+    /**
+     * Each thread keeps its own Inflater, which is reset and reused for
+     * every resource it decompresses.
+     */
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Each thread keeps its own direct buffer, which is reused for every
+     * resource it inflates for exportRaw(); it grows to fit the largest.
+     */
+    private static final ThreadLocal<ByteBuffer[]> RAW_BUFFER = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[] { ByteBuffer.allocateDirect(INFLATE_CHUNK_SIZE) };
+        }
+    };
+
     /**
      * Construct a CacheArchive for the provided file name.
      * @param cacheFileName name of the cache file
@@ -56,7 +116,14 @@ abstract public class CacheArchive
      */
     public CacheArchive(File cacheFile) {
         this.cacheFile = cacheFile;
-        this.resources = new ArrayList();
+        this.ids = new int[0];
+        this.offsets = new int[0];
+        this.sizes = new int[0];
+        this.zipSizes = new int[0];
+        this.idIndex = new LongIndex(new long[0]);
+        this.mappings = new MappedByteBuffer[0];
+        this.segments = new ByteBuffer[0];
+        this.leases = new AtomicInteger();
     }
 
     /**
@@ -65,11 +132,8 @@ abstract public class CacheArchive
      */
     protected void read() {
         try {
-            FileChannel fc = new FileInputStream(cacheFile).getChannel();
-            buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()).asReadOnlyBuffer();
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
-            IntBuffer ib = buffer.asIntBuffer();
-            ib.position(0);
+            channel = new FileInputStream(cacheFile).getChannel();
+            IntBuffer ib = readFully(0, 16).asIntBuffer();
             numResources = UI(ib.get());
             dataOffset = UI(ib.get());
             fileSize = UI(ib.get());
@@ -78,17 +142,44 @@ abstract public class CacheArchive
                 System.err.println("BAD MOJO: fileSize:" + fileSize + " vs. cacheFile.length():" + cacheFile.length());
             }
 
-            for(int i=0; i<numResources; i++) {
-                CacheResource cacheResource = new CacheResource();
-                ib.position(i*5 + 5); // i*5 (5 ints per record)
-                                      // + 4 (start of all records)
+            // read the whole directory with a single bulk get
+            int n = (int)numResources;
+            int[] directory = new int[n*5];
+            readFully(16, n*20).asIntBuffer().get(directory);
+
+            ids = new int[n];
+            offsets = new int[n];
+            sizes = new int[n];
+            zipSizes = new int[n];
+            long[] keys = new long[n];
+            for(int i=0; i<n; i++) {
+                int record = i*5 + 1; // i*5 (5 ints per record)
                                       // + 1 (skip empty field in record)
-                cacheResource.index = i;
-                cacheResource.id = UI(ib.get());
-                cacheResource.dataOffset = UI(ib.get());
-                cacheResource.size = UI(ib.get());
-                cacheResource.zipSize = UI(ib.get());
-                resources.add(cacheResource);
+                ids[i] = directory[record];
+                offsets[i] = directory[record+1];
+                sizes[i] = directory[record+2];
+                zipSizes[i] = directory[record+3];
+                keys[i] = UI(ids[i]);
+            }
+            idIndex = new LongIndex(keys);
+
+            // map the file in segments; each one overlaps the next by the
+            // size of the largest resource
+            long overlap = 0;
+            for(int i=0; i<n; i++) {
+                overlap = Math.max(overlap, UI(zipSizes[i]));
+            }
+            overlap = Math.min(overlap, Integer.MAX_VALUE - SEGMENT_SIZE);
+            long length = channel.size();
+            int count = (int)Math.max(1, (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            mappings = new MappedByteBuffer[count];
+            segments = new ByteBuffer[count];
+            for(int i=0; i<count; i++) {
+                long start = i * SEGMENT_SIZE;
+                long end = Math.min(start + SEGMENT_SIZE + overlap, length);
+                mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                segments[i] = mappings[i].asReadOnlyBuffer();
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
             }
         } catch (IOException e) {
             e.printStackTrace(System.err);
@@ -96,30 +187,610 @@ abstract public class CacheArchive
     }
 
     /**
-     * Load a CacheResource from the CacheArchive.
+     * Read bytes from the cache archive file into a new little-endian
+     * ByteBuffer. This is used to read the header and directory, before
+     * the file is memory mapped.
+     * @param position offset of the first byte, relative to the beginning
+     *                 of the cache archive file
+     * @param length number of bytes to be read
+     * @return ByteBuffer containing the bytes, with position 0
+     * @throws IOException if the bytes could not be read
+     */
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        bytes.order(ByteOrder.LITTLE_ENDIAN);
+        while(bytes.hasRemaining()) {
+            int count = channel.read(bytes, position + bytes.position());
+            if(count < 0) {
+                throw new EOFException(cacheFile.getPath() + ": unexpected end of file");
+            }
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Close the cache archive. The memory mapping of the cache archive
+     * file is released right away, rather than whenever the garbage
+     * collector gets around to it, and the file is closed.
+     *
+     * The mapping can only be released once every resource obtained from
+     * acquire() has been closed. If any are still open, the mapping is
+     * left for the garbage collector, so those resources stay readable.
+     */
+    @Override
+    public void close() {
+        if(leases.get() == 0) {
+            for(MappedByteBuffer mapping : mappings) {
+                Unmapper.unmap(mapping);
+            }
+        }
+        mappings = new MappedByteBuffer[0];
+        segments = new ByteBuffer[0];
+        if(channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Find the index of the first resource with the provided ID.
+     * @param id identity of the resource to find
+     * @return index of the first resource with the ID, or -1 if no
+     *         resource in the cache archive has the ID
+     */
+    public int findIndexById(long id) {
+        return idIndex.first(id);
+    }
+
+    /**
+     * Find the indices of all the resources with the provided ID. Resource
+     * IDs are not unique, so there may be more than one.
+     * @param id identity of the resources to find
+     * @return int[] of the indices of the resources with the ID, in
+     *         ascending order; empty if no resource has the ID
+     */
+    public int[] findAllIndicesById(long id) {
+        return idIndex.all(id);
+    }
+
+    /**
+     * Export the indicated resource to a file. Errors are reported on
+     * System.err, and the resource is then not exported.
+     * @param index index of the resource to be exported
+     * @param outputDir the output directory
+     * @return true, if the resource was exported, or has nothing to
+     *         export; false, if the export failed
+     */
+    abstract public boolean export(int index, File outputDir);
+
+    /**
+     * Encode a resource acquired from the cache archive to the provided
+     * OutputStream, in the same format that export() writes to a file.
+     * The stream is not closed. Cache archives that do not export their
+     * resources one at a time cannot encode them, so by default this
+     * throws UnsupportedOperationException.
+     * @param resource CacheResource obtained from acquire()
+     * @param out OutputStream to which the resource is encoded
+     * @return true, if the resource was encoded; false, if the resource
+     *         has nothing to export
+     * @throws IOException if the resource could not be encoded
+     */
+    public boolean encode(CacheResource resource, OutputStream out) throws IOException {
+        throw new UnsupportedOperationException(
+            getClass().getSimpleName() + " cannot encode resources");
+    }
+
+    /**
+     * Determine the file the indicated resource is exported to. The file
+     * is named by the index and ID of the resource; it may not exist yet.
+     * @param index index of the resource
+     * @param outputDir the output directory
+     * @return File the resource is exported to, or null if the resource
+     *         is not exported to a file
+     */
+    abstract public File getOutputFile(int index, File outputDir);
+
+    /**
+     * Determine the number of resources present in the cache archive.
+     * @return the number of resources present in the cache archive
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Obtain the metadata of the indicated resource. A new CacheResource is
+     * created for each call; the directory itself is kept in primitive
+     * arrays. The data of the resource is not loaded; see acquire().
+     * @param index index of the resource
+     * @return CacheResource containing the metadata of the resource
+     */
+    public CacheResource getResource(int index) {
+        CacheResource resource = new CacheResource();
+        resource.index = index;
+        resource.id = UI(ids[index]);
+        resource.dataOffset = UI(offsets[index]);
+        resource.size = UI(sizes[index]);
+        resource.zipSize = UI(zipSizes[index]);
+        return resource;
+    }
+
+    /**
+     * Update the provided checksum with the bytes of the indicated resource,
+     * as stored in the cache archive file. The bytes are not decompressed,
+     * so this is much cheaper than loading the resource.
+     * @param index index of the resource
+     * @param checksum Checksum to be updated
+     */
+    public void updateChecksum(int index, Checksum checksum) {
+        int zipSize = (int)UI(zipSizes[index]);
+        byte[] input = BUFFER_POOL.acquire(zipSize);
+        try {
+            getBytes(UI(offsets[index]), input, zipSize);
+            checksum.update(input, 0, zipSize);
+        } finally {
+            BUFFER_POOL.release(input);
+        }
+    }
+
+    /**
+     * Describe the content of the indicated resource, for finding
+     * duplicates: its size, stored size and a checksum of its stored
+     * bytes. The checksum is a CRC-32, which is cheap to compute but may
+     * be shared by different resources; sameData() compares the stored
+     * bytes themselves. Archives whose exported files differ even when
+     * the resources are the same should return null.
+     * @param index index of the resource
+     * @return String describing the content of the resource, or null if
+     *         the resource should not be deduplicated
+     */
+    public String getContentKey(int index) {
+        CRC32 crc = new CRC32();
+        updateChecksum(index, crc);
+        return String.format("%d\t%d\t%08x",
+            UI(sizes[index]), UI(zipSizes[index]), crc.getValue());
+    }
+
+    /**
+     * Determine if two resources have exactly the same stored bytes. Many
+     * resources are stored more than once, sometimes under the same
+     * identity; their directory entries may even share the same data.
+     * @param index index of a resource
+     * @param other index of another resource
+     * @return true, if both resources have the same stored bytes
+     */
+    public boolean sameData(int index, int other) {
+        CacheResource resource = getResource(index);
+        CacheResource otherResource = getResource(other);
+        if((resource.size != otherResource.size)
+                || (resource.zipSize != otherResource.zipSize)) {
+            return false;
+        }
+        if(resource.dataOffset == otherResource.dataOffset) {
+            return true;
+        }
+        int zipSize = (int)resource.zipSize;
+        return slice(resource.dataOffset, zipSize).equals(
+            slice(otherResource.dataOffset, zipSize));
+    }
+
+    /**
+     * Export the indicated resource to a file as-is, once decompressed. A
+     * resource stored without compression is transferred from the cache
+     * archive file to the output file by the operating system, without
+     * being copied through the Java heap. A compressed resource is
+     * inflated into a direct buffer that the thread reuses for every
+     * resource, and written from there. The output file is not created
+     * unless the resource inflates successfully.
+     * @param index index of the resource to be exported
+     * @param file File to which the resource is exported
+     * @throws IOException if the resource could not be inflated or written
+     */
+    public void exportRaw(int index, File file) throws IOException {
+        CacheResource resource = getResource(index);
+        if(resource.size == resource.zipSize) {
+            try(FileChannel out = new FileOutputStream(file).getChannel()) {
+                Metrics.countInput(resource.zipSize, resource.size);
+                long start = Metrics.start();
+                long position = 0;
+                while(position < resource.size) {
+                    long count = channel.transferTo(resource.dataOffset + position,
+                        resource.size - position, out);
+                    if(count <= 0) {
+                        throw new EOFException(cacheFile.getPath() + ": unexpected end of file");
+                    }
+                    position += count;
+                }
+                Metrics.stop(Metrics.Stage.WRITE, start, position, position);
+            }
+            return;
+        }
+        ByteBuffer[] holder = RAW_BUFFER.get();
+        if(holder[0].capacity() < resource.size) {
+            long capacity = Long.highestOneBit(resource.size) << 1;
+            holder[0] = ByteBuffer.allocateDirect((int)Math.min(capacity, Integer.MAX_VALUE));
+        }
+        ByteBuffer buffer = holder[0];
+        buffer.clear();
+        if(loadResource(resource, buffer) < 0) {
+            throw new IOException(cacheFile.getPath() + ": unable to inflate resource " + index);
+        }
+        buffer.flip();
+        try(FileChannel out = new FileOutputStream(file).getChannel()) {
+            long start = Metrics.start();
+            int length = buffer.remaining();
+            while(buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            Metrics.stop(Metrics.Stage.WRITE, start, length, length);
+        }
+    }
+
+    /**
+     * Copy the stored bytes of a compressed resource to the provided stream
+     * as raw DEFLATE data, as used by zip files. The zlib header and the
+     * Adler-32 trailer around the DEFLATE data in the cache archive are
+     * left out, so the data need not be compressed again. The resource is
+     * inflated once, a chunk at a time, to check that it is whole and to
+     * compute the CRC-32 of its data; the inflated data is not kept.
+     * @param index index of the resource
+     * @param out OutputStream to which the raw DEFLATE data is written
+     * @return the CRC-32 of the resource data, or -1 if the resource is not
+     *         stored as a zlib stream that inflates to resource.size bytes
+     * @throws IOException if the raw DEFLATE data could not be written
+     */
+    public long copyDeflated(int index, OutputStream out) throws IOException {
+        CacheResource resource = getResource(index);
+        int zipSize = (int)resource.zipSize;
+        if((resource.size == resource.zipSize) || (zipSize < 6)) {
+            return -1;
+        }
+        Metrics.countInput(resource.zipSize, resource.size);
+        long start = Metrics.start();
+        byte[] input = BUFFER_POOL.acquire(zipSize);
+        byte[] chunk = BUFFER_POOL.acquire(INFLATE_CHUNK_SIZE);
+        try {
+            getBytes(resource.dataOffset, input, zipSize);
+            // the zlib header must name DEFLATE, pass its check, and not
+            // need a preset dictionary
+            int cmf = UB(input[0]);
+            int flg = UB(input[1]);
+            if(((cmf & 0x0f) != 8) || ((cmf*256 + flg) % 31 != 0) || ((flg & 0x20) != 0)) {
+                System.err.println("BAD MOJO: zlib header:" + cmf + "," + flg + " of resource:" + index);
+                return -1;
+            }
+            CRC32 crc = new CRC32();
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(input, 0, zipSize);
+            long inflateLength = 0;
+            while(inflater.finished() == false) {
+                int count = inflater.inflate(chunk, 0, chunk.length);
+                if((count == 0) && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                crc.update(chunk, 0, count);
+                inflateLength += count;
+            }
+            Metrics.stop(Metrics.Stage.INFLATE, start, zipSize, inflateLength);
+
+            if((inflater.finished() == false) || (inflateLength != resource.size)) {
+                System.err.println("BAD MOJO: inflateLength:" + inflateLength + " vs. resource.size:" + resource.size);
+                return -1;
+            }
+            // the DEFLATE data follows the 2 byte header, and is followed
+            // by the 4 byte trailer (and anything after the zlib stream)
+            out.write(input, 2, zipSize - inflater.getRemaining() - 6);
+            return crc.getValue();
+        } catch (DataFormatException e) {
+            e.printStackTrace(System.err);
+            return -1;
+        } finally {
+            BUFFER_POOL.release(chunk);
+            BUFFER_POOL.release(input);
+        }
+    }
+
+    /**
+     * Acquire the indicated resource with its data loaded. The returned
+     * CacheResource is a lease on the data: it is a new object that
+     * belongs to the caller alone, and the caller must close() it when
+     * finished, so that the data can be reused. Nothing is retained by
+     * the cache archive, so the heap used by an export does not grow with
+     * the number of resources exported.
+     * @param index index of the resource to be acquired
+     * @return CacheResource with its data loaded
+     */
+    public CacheResource acquire(int index) {
+        CacheResource resource = getResource(index);
+        resource.archive = this;
+        leases.incrementAndGet();
+        loadResource(resource);
+        return resource;
+    }
+
+    /**
+     * Open the data of the indicated resource as an InputStream. Unlike
+     * acquire(), the data is never held in memory all at once; a stored
+     * resource is read straight from the memory mapped cache archive, and
+     * a compressed resource is inflated as it is read, through a buffer of
+     * INFLATE_CHUNK_SIZE bytes. The caller must close() the stream when
+     * finished; until then, the stream holds a lease like acquire() does.
+     * @param index index of the resource to be opened
+     * @return InputStream over the data of the resource
+     */
+    public InputStream openStream(int index) {
+        CacheResource resource = getResource(index);
+        Metrics.countInput(resource.zipSize, resource.size);
+        InputStream stream = new ByteBufferInputStream(
+            slice(resource.dataOffset, (int)resource.zipSize));
+        Inflater inflater = null;
+        if(resource.size != resource.zipSize) {
+            // the stream may be read while this thread loads other
+            // resources, so it can't share the thread's INFLATER
+            inflater = new Inflater();
+            stream = new InflaterInputStream(stream, inflater, INFLATE_CHUNK_SIZE);
+        }
+        leases.incrementAndGet();
+        return new LeasedInputStream(stream, inflater);
+    }
+
+    /**
+     * Load a CacheResource from the CacheArchive. Different resources may
+     * be loaded by many threads at once, without locking.
+     *
+     * A resource stored without compression is not copied at all; its
+     * view is set to a slice of the memory mapped cache archive. A
+     * compressed resource is inflated into a data array obtained from a
+     * pool of reusable buffers, so the array may be longer than the
+     * resource. Either way, read the resource through
+     * CacheResource.getBuffer(). Once the data is no longer needed, pass
+     * the resource to releaseResource() so the array can be reused.
      * @param resource CacheResource whose data is to be loaded
      */
     protected void loadResource(CacheResource resource) {
+        int zipSize = (int)resource.zipSize;
+        Metrics.countInput(resource.zipSize, resource.size);
+        if(resource.size == resource.zipSize) {
+            resource.view = slice(resource.dataOffset, zipSize);
+            return;
+        }
+        long start = Metrics.start();
+        byte[] input = BUFFER_POOL.acquire(zipSize);
+        getBytes(resource.dataOffset, input, zipSize);
+        byte[] data = BUFFER_POOL.acquire((int)resource.size);
         try {
-            resource.data = new byte[(int)resource.zipSize];
-            buffer.position((int)resource.dataOffset);
-            buffer.get(resource.data);
-            if(resource.size != resource.zipSize) {
-                byte[] data = new byte[(int)resource.size];
-                Inflater inflater = new Inflater();
-                inflater.setInput(resource.data);
-                int inflateLength = inflater.inflate(data);
-                inflater.end();
-                resource.data = data;
-
-                if(inflateLength != resource.size) {
-                    System.err.println("BAD MOJO: inflateLength:" + inflateLength + " vs. resource.size:" + resource.size);
-                }
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(input, 0, zipSize);
+            int inflateLength = inflater.inflate(data, 0, (int)resource.size);
+            resource.data = data;
+            Metrics.stop(Metrics.Stage.INFLATE, start, zipSize, inflateLength);
+
+            if(inflateLength != resource.size) {
+                System.err.println("BAD MOJO: inflateLength:" + inflateLength + " vs. resource.size:" + resource.size);
             }
         } catch (DataFormatException e) {
+            BUFFER_POOL.release(data);
             resource.data = null;
             e.printStackTrace(System.err);
+        } finally {
+            BUFFER_POOL.release(input);
+        }
+    }
+
+    /**
+     * Load the data of a CacheResource into the provided ByteBuffer, which
+     * may be a direct (off-heap) buffer. The data is written at the current
+     * position of the target, which must have at least resource.size bytes
+     * remaining. The data field of the resource is not changed.
+     * @param resource CacheResource whose data is to be loaded
+     * @param target ByteBuffer to receive the data of the resource
+     * @return the number of bytes written to the target, or -1 if the
+     *         resource data could not be decompressed
+     */
+    protected int loadResource(CacheResource resource, ByteBuffer target) {
+        int zipSize = (int)resource.zipSize;
+        Metrics.countInput(resource.zipSize, resource.size);
+        if(resource.size == resource.zipSize) {
+            target.put(slice(resource.dataOffset, zipSize));
+            return zipSize;
+        }
+        long start = Metrics.start();
+        byte[] input = BUFFER_POOL.acquire(zipSize);
+        byte[] chunk = BUFFER_POOL.acquire(INFLATE_CHUNK_SIZE);
+        try {
+            getBytes(resource.dataOffset, input, zipSize);
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(input, 0, zipSize);
+            int inflateLength = 0;
+            while(inflateLength < resource.size) {
+                int length = (int)Math.min(chunk.length, resource.size - inflateLength);
+                int count = inflater.inflate(chunk, 0, length);
+                if(count == 0) {
+                    break;
+                }
+                target.put(chunk, 0, count);
+                inflateLength += count;
+            }
+            Metrics.stop(Metrics.Stage.INFLATE, start, zipSize, inflateLength);
+
+            if(inflateLength != resource.size) {
+                System.err.println("BAD MOJO: inflateLength:" + inflateLength + " vs. resource.size:" + resource.size);
+            }
+            return inflateLength;
+        } catch (DataFormatException e) {
+            e.printStackTrace(System.err);
+            return -1;
+        } finally {
+            BUFFER_POOL.release(chunk);
+            BUFFER_POOL.release(input);
+        }
+    }
+
+    /**
+     * Inflate the indicated resource without keeping its data, to find
+     * the number of bytes it inflates to. A resource stored without
+     * compression is not read at all. The resource data must lie within
+     * the cache archive file.
+     * @param index index of the resource
+     * @return the number of bytes the resource inflates to
+     * @throws DataFormatException if the stored data is not valid DEFLATE
+     *                             data, or ends before the DEFLATE data
+     *                             does
+     */
+    public long inflatedSize(int index) throws DataFormatException {
+        CacheResource resource = getResource(index);
+        if(resource.size == resource.zipSize) {
+            return resource.size;
+        }
+        int zipSize = (int)resource.zipSize;
+        byte[] input = BUFFER_POOL.acquire(zipSize);
+        byte[] chunk = BUFFER_POOL.acquire(INFLATE_CHUNK_SIZE);
+        try {
+            getBytes(resource.dataOffset, input, zipSize);
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(input, 0, zipSize);
+            long inflateLength = 0;
+            while(inflater.finished() == false) {
+                int count = inflater.inflate(chunk, 0, chunk.length);
+                if(count == 0) {
+                    if(inflater.finished()) {
+                        break;
+                    }
+                    throw new DataFormatException(inflater.needsDictionary()
+                        ? "preset dictionary required" : "unexpected end of DEFLATE data");
+                }
+                inflateLength += count;
+            }
+            return inflateLength;
+        } finally {
+            BUFFER_POOL.release(chunk);
+            BUFFER_POOL.release(input);
+        }
+    }
+
+    /**
+     * Release the data of a CacheResource loaded by loadResource(). This
+     * is called by CacheResource.close() for resources obtained from
+     * acquire(). The data array is returned to the pool of reusable
+     * buffers, so neither the resource data nor any ByteBuffer obtained
+     * from it may be used after this method is called.
+     * @param resource CacheResource whose data is to be released
+     */
+    protected void releaseResource(CacheResource resource) {
+        BUFFER_POOL.release(resource.data);
+        resource.data = null;
+        resource.view = null;
+    }
+
+    /**
+     * Release a CacheResource obtained from acquire(). This is called once
+     * by CacheResource.close().
+     * @param resource CacheResource whose data is to be released
+     */
+    void releaseLease(CacheResource resource) {
+        releaseResource(resource);
+        leases.decrementAndGet();
+    }
+
+    /**
+     * Obtain a read-only, little-endian view of bytes in the cache archive.
+     * The view shares the memory mapped pages of the cache archive, so no
+     * bytes are copied. Like getBytes(), this method may be called by many
+     * threads at once. The range must lie within a single mapped segment,
+     * which is always true for the data of a resource.
+     * @param offset offset of the first byte, relative to the beginning
+     *               of the cache archive file
+     * @param length number of bytes in the view
+     * @return ByteBuffer whose position is 0 and whose limit is length
+     */
+    public ByteBuffer slice(long offset, int length) {
+        int segment = (int)(offset / SEGMENT_SIZE);
+        int position = (int)(offset - segment * SEGMENT_SIZE);
+        ByteBuffer view = segments[segment].duplicate();
+        view.limit(position + length);
+        view.position(position);
+        view = view.slice();
+        view.order(ByteOrder.LITTLE_ENDIAN);
+        return view;
+    }
+
+    /**
+     * Copy bytes from the cache archive into the provided array. This
+     * method may be called by many threads at once; each call reads through
+     * its own view of the memory mapped segment, so the position of the
+     * shared segment buffer is never changed.
+     * @param offset offset of the first byte, relative to the beginning
+     *               of the cache archive file
+     * @param dst byte[] into which the bytes are copied
+     * @param length number of bytes to be copied
+     */
+    protected void getBytes(long offset, byte[] dst, int length) {
+        int segment = (int)(offset / SEGMENT_SIZE);
+        ByteBuffer view = segments[segment].duplicate();
+        view.position((int)(offset - segment * SEGMENT_SIZE));
+        view.get(dst, 0, length);
+    }
+
+    /**
+     * LeasedInputStream is the InputStream returned by openStream(). The
+     * time spent reading a compressed resource is measured as inflation.
+     * When closed, it frees its Inflater (if any) and gives up its lease.
+     */
+    private class LeasedInputStream extends FilterInputStream
+    {
+        LeasedInputStream(InputStream in, Inflater inflater) {
+            super(in);
+            this.inflater = inflater;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = Metrics.start();
+            int b = in.read();
+            if(inflater != null) {
+                Metrics.stop(Metrics.Stage.INFLATE, start, 0, (b < 0) ? 0 : 1);
+            }
+            return b;
         }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = Metrics.start();
+            int count = in.read(b, off, len);
+            if(inflater != null) {
+                Metrics.stop(Metrics.Stage.INFLATE, start, 0, Math.max(0, count));
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                if(inflater != null) {
+                    Metrics.stop(Metrics.Stage.INFLATE, Metrics.start(), inflater.getBytesRead(), 0);
+                    inflater.end();
+                }
+                leases.decrementAndGet();
+            }
+        }
+
+        private final Inflater inflater;
+        private boolean closed;
     }
 
     /**
@@ -128,10 +799,30 @@ abstract public class CacheArchive
     protected File cacheFile;
 
     /**
-     * ByteBuffer that provides memory mapped access to the bytes
-     * in the cache archive file.
+     * FileChannel of the open cache archive file.
+     */
+    protected FileChannel channel;
+
+    /**
+     * Memory mappings of the cache archive file, one per segment. These
+     * are kept so that close() can unmap them.
      */
-    protected ByteBuffer buffer;
+    private MappedByteBuffer[] mappings;
+
+    /**
+     * Read-only, little-endian views of the memory mappings, one per
+     * segment. Segment i begins at offset i*SEGMENT_SIZE of the file.
+     * These buffers are shared by every thread that loads resources, so
+     * their positions must never be changed after read(); use absolute
+     * gets or a duplicate() view instead.
+     */
+    protected ByteBuffer[] segments;
+
+    /**
+     * Number of resources obtained from acquire(), and streams obtained
+     * from openStream(), that are not yet closed.
+     */
+    private final AtomicInteger leases;
 
     /**
      * Number of resources contained in the cache archive file.
@@ -149,11 +840,30 @@ abstract public class CacheArchive
      */
     protected long fileSize;
 
+    //
+    // The cache archive directory, kept as parallel arrays indexed by
+    // resource index. The values are U32 as stored in the cache archive
+    // file; use UI() to read them. After the read() method is called,
+    // these arrays hold the metadata for each of the resources contained
+    // in the cache archive file. Use getResource() or acquire() to obtain
+    // a CacheResource for an entry.
+    //
+
+    /** ID of each resource. */
+    protected int[] ids;
+
+    /** Offset to the data of each resource. */
+    protected int[] offsets;
+
+    /** Total (uncompressed) size of each resource. */
+    protected int[] sizes;
+
+    /** Size of each resource as stored (compressed) in the file. */
+    protected int[] zipSizes;
+
     /**
-     * List of CacheResources. After the read() method is called, this list
-     * is populated with the metadata for each of the resources contained in
-     * the cache archive file. Each resource may then be passed to the
-     * loadResource() method to load its data from the cache archive file.
+     * Index from resource ID to the index of the resource(s) with that ID.
+     * It is built by the read() method.
      */
-    protected List<CacheResource> resources;
+    protected LongIndex idIndex;
 }
@@ -18,11 +18,17 @@
 
 package com.pmeade.shadowbane;
 
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * CacheResource represents a resource stored in a cache archive file.
+ * A CacheResource obtained from CacheArchive.acquire() holds the data of
+ * the resource until it is closed.
  * @author pmeade
  */
-public class CacheResource
+public class CacheResource implements Closeable
 {
     /**
      * Index of the resource. This is the position of the resource
@@ -57,10 +63,59 @@ public class CacheResource
      */
     public long zipSize;
     
+    /**
+     * Release the data of the resource. Neither the data nor any ByteBuffer
+     * obtained from getBuffer() may be used after the resource is closed.
+     * Closing a resource more than once has no further effect.
+     */
+    @Override
+    public void close() {
+        if(archive != null) {
+            CacheArchive owner = archive;
+            archive = null;
+            owner.releaseLease(this);
+        }
+    }
+
+    /**
+     * Obtain a little-endian ByteBuffer over the data of the resource.
+     * The buffer starts at the first byte of the resource, and its limit
+     * is the size of the resource. Each call returns a new buffer, so
+     * callers do not disturb each other's position.
+     * @return ByteBuffer over the data of the resource
+     */
+    public ByteBuffer getBuffer() {
+        ByteBuffer buffer;
+        if(view != null) {
+            buffer = view.duplicate();
+        } else {
+            buffer = ByteBuffer.wrap(data, 0, (int)size).slice();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
     /**
      * The data of the resource. After CacheArchive.loadResource(), this
      * field will be populated with the bytes that make up the resource.
      * All decompression is handled by the loading routine, if necessary.
+     * The array comes from a pool of reusable buffers, so it may be longer
+     * than the resource; only the first "size" bytes belong to it.
+     * Resources stored without compression have no data array; see view.
      */
     public byte[] data;
+
+    /**
+     * View of the resource bytes in the memory mapped cache archive. After
+     * CacheArchive.loadResource(), this field is populated for resources
+     * stored without compression, whose bytes are read in place rather
+     * than copied into the data array.
+     */
+    public ByteBuffer view;
+
+    /**
+     * The cache archive that loaded the data of the resource, if the
+     * resource was obtained from CacheArchive.acquire().
+     */
+    CacheArchive archive;
 }
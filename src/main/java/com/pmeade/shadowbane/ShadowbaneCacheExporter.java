@@ -18,11 +18,35 @@
 
 package com.pmeade.shadowbane;
 
+import com.pmeade.shadowbane.export.ContainerWriter;
+import com.pmeade.shadowbane.export.DedupExportJob;
+import com.pmeade.shadowbane.export.DuplicateManifest;
+import com.pmeade.shadowbane.export.ExportJob;
+import com.pmeade.shadowbane.export.ExportManifest;
+import com.pmeade.shadowbane.export.ExportUnit;
+import com.pmeade.shadowbane.export.OutputWriter;
+import com.pmeade.shadowbane.export.IncrementalExportJob;
+import com.pmeade.shadowbane.export.MeteredExportJob;
+import com.pmeade.shadowbane.export.ParallelExporter;
+import com.pmeade.shadowbane.export.PipelinedExporter;
+import com.pmeade.shadowbane.export.ResourceExportJob;
+import com.pmeade.shadowbane.export.ResourceSelector;
+import com.pmeade.shadowbane.export.SelectedExportJob;
+import com.pmeade.shadowbane.export.WriteBehindWriter;
+import com.pmeade.shadowbane.mesh.MeshBundleExportJob;
 import com.pmeade.shadowbane.mesh.MeshCache;
+import com.pmeade.shadowbane.metrics.Metrics;
+import com.pmeade.shadowbane.raw.RawCache;
+import com.pmeade.shadowbane.raw.RawExportJob;
 import com.pmeade.shadowbane.sound.SoundCache;
 import com.pmeade.shadowbane.terrain.TerrainAlphaCache;
+import com.pmeade.shadowbane.terrain.TerrainMapExportJob;
 import com.pmeade.shadowbane.textures.TexturesCache;
+import com.pmeade.shadowbane.verify.CacheVerifier;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * ShadowbaneCacheExporter is a command-line tool to export resources
@@ -38,67 +62,156 @@ public class ShadowbaneCacheExporter implements Runnable {
         public static final boolean TEXTURE = true;
     };
 
+    /**
+     * Version of the exporter. This is recorded in the export manifest;
+     * when it changes, every resource is exported again.
+     */
+    public static final String VERSION = "0.0.6";
+
     /** Standard code for successful program termination. */
     public static final int EXIT_SUCCESS = 0;
 
     /** Standard code for program termination due to error. */
     public static final int EXIT_FAILURE = 1;
 
+    /**
+     * Number of bytes of output that may be waiting to be written by the
+     * write-behind I/O threads before the exporters must wait for them.
+     */
+    public static final long WRITE_BEHIND_BYTES = 64L * 1024 * 1024;
+
+    /** Usage message for the command-line tool. */
+    public static final String USAGE =
+        "Usage: java -jar ShadowbaneCacheExporter-X.Y.Z.jar [-f] [-j threads] [-p load,encode,write]"
+        + " [-w io-threads] [--fsync] [-c zip|tar] [-r] [-d] [--mesh-format py|glb|numpy] [-m metrics.json]"
+        + " [-a archives] [-i indices] [--id ids] [--min-size bytes] [--max-size bytes]"
+        + " /path/to/cache /path/to/output\n"
+        + "       java -jar ShadowbaneCacheExporter-X.Y.Z.jar --verify [-j threads] [-a archives]"
+        + " /path/to/cache";
+
     /**
      * Entry point for ShadowbaneCacheExporter.
      * @param args command-line arguments
      */
     public static void main(final String[] args) {
+        // separate the options from the paths
+        int threads = 0;
+        int[] pipeline = null;
+        int writeBehind = 0;
+        boolean fsync = false;
+        String container = null;
+        String meshFormat = MeshCache.PYTHON;
+        boolean raw = false;
+        boolean dedup = false;
+        boolean force = false;
+        boolean verify = false;
+        File metricsFile = null;
+        ResourceSelector selector = new ResourceSelector();
+        List<String> paths = new ArrayList();
+        for(int i=0; i<args.length; i++) {
+            try {
+                if(args[i].equals("-f") || args[i].equals("--force")) {
+                    force = true;
+                } else if(args[i].equals("--verify")) {
+                    verify = true;
+                } else if(args[i].equals("-j") || args[i].equals("--threads")) {
+                    threads = parseThreads(optionArgument(args, i++));
+                } else if(args[i].equals("-p") || args[i].equals("--pipeline")) {
+                    pipeline = parsePipeline(optionArgument(args, i++));
+                } else if(args[i].equals("-w") || args[i].equals("--write-behind")) {
+                    writeBehind = parseIoThreads(optionArgument(args, i++));
+                } else if(args[i].equals("--fsync")) {
+                    fsync = true;
+                } else if(args[i].equals("-r") || args[i].equals("--raw")) {
+                    raw = true;
+                } else if(args[i].equals("-d") || args[i].equals("--dedup")) {
+                    dedup = true;
+                } else if(args[i].equals("-c") || args[i].equals("--container")) {
+                    container = optionArgument(args, i++);
+                    ContainerWriter.checkFormat(container);
+                } else if(args[i].equals("--mesh-format")) {
+                    meshFormat = optionArgument(args, i++);
+                    MeshCache.checkFormat(meshFormat);
+                } else if(args[i].equals("-m") || args[i].equals("--metrics")) {
+                    metricsFile = new File(optionArgument(args, i++));
+                } else if(args[i].equals("-a") || args[i].equals("--archive")) {
+                    selector.addArchives(optionArgument(args, i++));
+                } else if(args[i].equals("-i") || args[i].equals("--index")) {
+                    selector.addIndexRanges(optionArgument(args, i++));
+                } else if(args[i].equals("--id")) {
+                    selector.addIds(optionArgument(args, i++));
+                } else if(args[i].equals("--min-size")) {
+                    selector.setMinSize(optionArgument(args, i++));
+                } else if(args[i].equals("--max-size")) {
+                    selector.setMaxSize(optionArgument(args, i++));
+                } else {
+                    paths.add(args[i]);
+                }
+            } catch(IllegalArgumentException e) {
+                System.err.println("ShadowbaneCacheExporter: " + e.getMessage());
+                System.exit(EXIT_FAILURE);
+            }
+        }
+
         // if we weren't provided with enough arguments
-        if(args.length < 2) {
-            System.out.println("Usage: java -jar ShadowbaneCacheExporter-X.Y.Z.jar /path/to/cache /path/to/output");
+        if(paths.size() < (verify ? 1 : 2)) {
+            System.out.println(USAGE);
             System.exit(EXIT_SUCCESS);
         }
 
         // create and check the provided cache directory
-        File cacheDir = new File(args[0]);
+        File cacheDir = new File(paths.get(0));
         if(cacheDir.exists() == false) {
             System.err.println(String.format(
                 "ShadowbaneCacheExporter: %s: No such file or directory",
-                args[0]
+                paths.get(0)
             ));
             System.exit(EXIT_FAILURE);
         }
         if(cacheDir.isDirectory() == false) {
             System.err.println(String.format(
                 "ShadowbaneCacheExporter: %s: Not a directory",
-                args[0]
+                paths.get(0)
             ));
             System.exit(EXIT_FAILURE);
         }
         if(cacheDir.canRead() == false) {
             System.err.println(String.format(
                 "ShadowbaneCacheExporter: cannot open directory %s: Permission denied",
-                args[0]
+                paths.get(0)
             ));
             System.exit(EXIT_FAILURE);
         }
 
+        // check the cache archives, by default on every available processor
+        if(verify) {
+            if(threads == 0) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            CacheVerifier verifier = new CacheVerifier(cacheDir, threads);
+            System.exit(verifier.verify(selector) ? EXIT_SUCCESS : EXIT_FAILURE);
+        }
+
         // create and check the provided output directory
-        File outputDir = new File(args[1]);
+        File outputDir = new File(paths.get(1));
         if(outputDir.exists() == false) {
             System.err.println(String.format(
                 "ShadowbaneCacheExporter: %s: No such file or directory",
-                args[1]
+                paths.get(1)
             ));
             System.exit(EXIT_FAILURE);
         }
         if(outputDir.isDirectory() == false) {
             System.err.println(String.format(
                 "ShadowbaneCacheExporter: %s: Not a directory",
-                args[1]
+                paths.get(1)
             ));
             System.exit(EXIT_FAILURE);
         }
         if(outputDir.canWrite() == false) {
             System.err.println(String.format(
                 "ShadowbaneCacheExporter: cannot write to directory %s: Permission denied",
-                args[1]
+                paths.get(1)
             ));
             System.exit(EXIT_FAILURE);
         }
@@ -107,31 +220,253 @@ public class ShadowbaneCacheExporter implements Runnable {
         ShadowbaneCacheExporter sce = new ShadowbaneCacheExporter();
         sce.setCache(cacheDir);
         sce.setOutput(outputDir);
+        sce.setThreads(Math.max(1, threads));
+        sce.setPipeline(pipeline);
+        sce.setWriteBehind(writeBehind, fsync);
+        sce.setContainer(container);
+        sce.setMeshFormat(meshFormat);
+        sce.setRaw(raw);
+        sce.setDedup(dedup);
+        sce.setForce(force);
+        sce.setSelector(selector);
+        sce.setMetrics(metricsFile);
         sce.run();
     }
 
+    /**
+     * Obtain the argument of the command-line option at the provided
+     * index. If the option has no argument, exit with an error message.
+     * @param args command-line arguments
+     * @param i index of the option
+     * @return the argument of the option
+     */
+    private static String optionArgument(final String[] args, final int i) {
+        if(i+1 >= args.length) {
+            System.err.println(String.format(
+                "ShadowbaneCacheExporter: option requires an argument -- '%s'",
+                args[i]
+            ));
+            System.exit(EXIT_FAILURE);
+        }
+        return args[i+1];
+    }
+
+    /**
+     * Parse the number of worker threads provided on the command line.
+     * A value of 0 means one worker thread per available processor.
+     * @param value String containing the number of worker threads
+     * @return the number of worker threads to use
+     */
+    private static int parseThreads(final String value) {
+        int threads = -1;
+        try {
+            threads = Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            // handled below
+        }
+        if(threads < 0) {
+            System.err.println(String.format(
+                "ShadowbaneCacheExporter: invalid number of threads: '%s'",
+                value
+            ));
+            System.exit(EXIT_FAILURE);
+        }
+        if(threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return threads;
+    }
+
+    /**
+     * Parse the number of write-behind I/O threads provided on the command
+     * line. Unlike worker threads, a value of 0 means no I/O threads: each
+     * output file is written on the thread that encoded it.
+     * @param value String containing the number of I/O threads
+     * @return the number of I/O threads to use
+     */
+    private static int parseIoThreads(final String value) {
+        int ioThreads = -1;
+        try {
+            ioThreads = Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            // handled below
+        }
+        if(ioThreads < 0) {
+            System.err.println(String.format(
+                "ShadowbaneCacheExporter: invalid number of I/O threads: '%s'",
+                value
+            ));
+            System.exit(EXIT_FAILURE);
+        }
+        return ioThreads;
+    }
+
+    /**
+     * Parse the number of worker threads for each stage of a pipelined
+     * export provided on the command line, as "load,encode,write". A value
+     * of 0 means one worker thread per available processor.
+     * @param value String containing the number of worker threads for the
+     *              load, encode and write stages, separated by commas
+     * @return array of the number of worker threads for each stage
+     */
+    private static int[] parsePipeline(final String value) {
+        String[] stages = value.split(",");
+        if(stages.length != 3) {
+            System.err.println(String.format(
+                "ShadowbaneCacheExporter: invalid pipeline: '%s'",
+                value
+            ));
+            System.exit(EXIT_FAILURE);
+        }
+        int[] pipeline = new int[stages.length];
+        for(int i=0; i<stages.length; i++) {
+            pipeline[i] = parseThreads(stages[i].trim());
+        }
+        return pipeline;
+    }
+
     @Override
     public final void run() {
+        long runStart = System.nanoTime();
+        Metrics.setEnabled(metrics != null);
         System.out.println(String.format(
             "ShadowbaneCacheExporter will examine %s and output resources to %s",
             cache.getAbsolutePath(), output.getAbsolutePath()
         ));
 
+        // export the resources as-is, or converted to useful formats
+        List<ExportJob> exportJobs = raw ? createRawJobs() : createExportJobs();
+
+        // skip whatever the manifest says is unchanged since the last run
+        ExportManifest manifest = new ExportManifest(output, VERSION);
+        manifest.load();
+        List<IncrementalExportJob> incrementalJobs = new ArrayList();
+        List<DedupExportJob> dedupJobs = new ArrayList();
+        List<ExportJob> jobs = new ArrayList();
+        DuplicateManifest references = null;
+        if(dedup && (container != null)) {
+            // a container can't hold links, so duplicates are listed instead
+            references = new DuplicateManifest(output);
+        }
+        for(ExportJob exportJob : exportJobs) {
+            // measure only the units that are actually exported
+            if(metrics != null) {
+                exportJob = new MeteredExportJob(exportJob);
+            }
+            // export each distinct content once, linking the duplicates
+            DedupExportJob dedupJob = null;
+            if(dedup) {
+                dedupJob = new DedupExportJob(exportJob, references);
+                exportJob = dedupJob;
+            }
+            dedupJobs.add(dedupJob);
+            // a container is written from scratch, so nothing is skipped
+            IncrementalExportJob job = new IncrementalExportJob(exportJob, manifest,
+                (force == false) && (container == null));
+            incrementalJobs.add(job);
+            // keep only the units chosen on the command line
+            if(selector.selectsAllResources()) {
+                jobs.add(job);
+            } else {
+                jobs.add(new SelectedExportJob(job, selector));
+            }
+        }
+        exportJobs = null;
+
+        // hand the output files to containers or I/O threads, if requested
+        OutputWriter writer = null;
+        if(container != null) {
+            writer = new ContainerWriter(output, container);
+        } else if(writeBehind > 0) {
+            writer = new WriteBehindWriter(writeBehind, WRITE_BEHIND_BYTES, fsync);
+        }
+
+        if(pipeline != null) {
+            // load, encode and write the units on separate workers
+            PipelinedExporter exporter = new PipelinedExporter(pipeline[0], pipeline[1], pipeline[2]);
+            exporter.setWriter(writer);
+            exporter.export(jobs, output);
+            for(int i=0; i<jobs.size(); i++) {
+                reportExported(jobs.get(i), incrementalJobs.get(i), dedupJobs.get(i));
+                jobs.get(i).close();
+            }
+        } else if(threads > 1) {
+            // spread the units of every job over a shared pool of workers
+            ParallelExporter exporter = new ParallelExporter(threads);
+            exporter.setWriter(writer);
+            exporter.export(jobs, output);
+            for(int i=0; i<jobs.size(); i++) {
+                reportExported(jobs.get(i), incrementalJobs.get(i), dedupJobs.get(i));
+                jobs.get(i).close();
+            }
+        } else {
+            // export each job in turn, one unit at a time
+            for(int i=0; i<jobs.size(); i++) {
+                ExportJob job = jobs.get(i);
+                for(int j=0; j<job.size(); j++) {
+                    if(writer != null) {
+                        ExportUnit unit = new ExportUnit(job, j, output);
+                        unit.writer = writer;
+                        job.export(unit);
+                    } else {
+                        job.export(j, output);
+                    }
+                }
+                reportExported(job, incrementalJobs.get(i), dedupJobs.get(i));
+                job.close();
+                jobs.set(i, null);
+                incrementalJobs.set(i, null);
+                dedupJobs.set(i, null);
+            }
+        }
+        if(writer != null) {
+            // wait for the output files before they go in the manifest
+            writer.close();
+        }
+        if(container == null) {
+            // the manifest describes the files in the output directory
+            manifest.save();
+        }
+        if(references != null) {
+            references.save();
+        }
+
+        if(metrics != null) {
+            try {
+                int workers = threads;
+                if(pipeline != null) {
+                    workers = pipeline[0] + pipeline[1] + pipeline[2];
+                }
+                Metrics.writeReport(metrics, VERSION, workers, System.nanoTime() - runStart);
+                System.out.println(String.format(
+                    "ShadowbaneCacheExporter wrote metrics to %s",
+                    metrics.getPath()
+                ));
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Create the jobs exporting the selected cache archives, converting
+     * their resources to useful formats.
+     * @return list of ExportJobs, in the order they are to be exported
+     */
+    private List<ExportJob> createExportJobs() {
+        List<ExportJob> exportJobs = new ArrayList();
+
         // CObjects.cache
         // CZone.cache
         // Dungeon.cache
 
         // Mesh.cache
-        if(Debug.MESH) {
-            MeshCache meshCache = new MeshCache(cache);
-            for(int i=0; i<meshCache.size(); i++) {
-                meshCache.export(i, output);
+        if(Debug.MESH && selector.selectsArchive("Mesh")) {
+            if(MeshCache.NUMPY.equals(meshFormat)) {
+                exportJobs.add(new MeshBundleExportJob(new MeshCache(cache, meshFormat), selector));
+            } else {
+                exportJobs.add(new ResourceExportJob("Mesh", new MeshCache(cache, meshFormat)));
             }
-            System.out.println(String.format(
-                "ShadowbaneCacheExporter exported %d Mesh resources.",
-                meshCache.size()
-            ));
-            meshCache = null;
         }
 
         // Motion.cache
@@ -140,44 +475,70 @@ public class ShadowbaneCacheExporter implements Runnable {
         // Skeleton.cache
 
         // Sound.cache
-        if(Debug.SOUND) {
-            SoundCache soundCache = new SoundCache(cache);
-            for(int i=0; i<soundCache.size(); i++) {
-                soundCache.export(i, output);
-            }
-            System.out.println(String.format(
-                "ShadowbaneCacheExporter exported %d Sound resources.",
-                soundCache.size()
-            ));
-            soundCache = null;
+        if(Debug.SOUND && selector.selectsArchive("Sound")) {
+            exportJobs.add(new ResourceExportJob("Sound", new SoundCache(cache)));
         }
 
         // TerrainAlpha.cache
-        if(Debug.TERRAIN_ALPHA) {
-            TerrainAlphaCache terrainAlphaCache = new TerrainAlphaCache(cache);
-            terrainAlphaCache.exportTerrainMaps(output);
-            System.out.println(String.format(
-                "ShadowbaneCacheExporter exported %d TerrainAlpha maps.",
-                TerrainAlphaCache.MAPS.length
-            ));
-            terrainAlphaCache = null;
+        if(Debug.TERRAIN_ALPHA && (selector.selectsArchive("TerrainMap")
+                || selector.selectsArchive("TerrainAlpha"))) {
+            exportJobs.add(new TerrainMapExportJob(new TerrainAlphaCache(cache)));
         }
 
         // Textures.cache
-        if(Debug.TEXTURE) {
-            TexturesCache texturesCache = new TexturesCache(cache);
-            for(int i=0; i<texturesCache.size(); i++) {
-                texturesCache.export(i, output);
-            }
-            System.out.println(String.format(
-                "ShadowbaneCacheExporter exported %d Textures resources.",
-                texturesCache.size()
-            ));
-            texturesCache = null;
+        if(Debug.TEXTURE && selector.selectsArchive("Textures")) {
+            exportJobs.add(new ResourceExportJob("Textures", new TexturesCache(cache)));
         }
 
         // Tile.cache
         // Visual.cache
+
+        return exportJobs;
+    }
+
+    /**
+     * Create the jobs exporting the resources of the selected cache
+     * archives as-is. Every cache archive found in the cache directory can
+     * be exported raw, whether or not its resources can be converted.
+     * @return list of ExportJobs, in the order they are to be exported
+     */
+    private List<ExportJob> createRawJobs() {
+        List<ExportJob> exportJobs = new ArrayList();
+        for(String name : RawCache.NAMES) {
+            if(selector.selectsArchive(name) && new File(cache, name + ".cache").isFile()) {
+                exportJobs.add(new RawExportJob(new RawCache(cache, name)));
+            }
+        }
+        return exportJobs;
+    }
+
+    /**
+     * Report the number of units exported, skipped and deduplicated by the
+     * provided job.
+     * @param job ExportJob that has finished exporting
+     * @param incremental IncrementalExportJob that counted the units of
+     *                    the job that were skipped
+     * @param dedup DedupExportJob that counted the units of the job that
+     *              were duplicates, or null
+     */
+    private void reportExported(final ExportJob job, final IncrementalExportJob incremental,
+            final DedupExportJob dedup) {
+        System.out.println(String.format(
+            "ShadowbaneCacheExporter exported %d %s.",
+            job.size() - incremental.getSkipped(), job.getDescription()
+        ));
+        if(incremental.getSkipped() > 0) {
+            System.out.println(String.format(
+                "ShadowbaneCacheExporter skipped %d unchanged %s.",
+                incremental.getSkipped(), job.getDescription()
+            ));
+        }
+        if((dedup != null) && (dedup.getDuplicates() > 0)) {
+            System.out.println(String.format(
+                "ShadowbaneCacheExporter deduplicated %d %s.",
+                dedup.getDuplicates(), job.getDescription()
+            ));
+        }
     }
 
     /**
@@ -198,6 +559,119 @@ public class ShadowbaneCacheExporter implements Runnable {
         this.output = outputDir;
     }
 
+    /**
+     * Set the number of worker threads used to export resources. When
+     * more than one thread is used, resources from all of the cache
+     * archives are exported in parallel.
+     * @param threads number of worker threads
+     */
+    public final void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set the number of worker threads for each stage of a pipelined
+     * export. When set, the resources are loaded, encoded and written by
+     * separate workers, so writing the output overlaps with encoding it;
+     * the number of worker threads set by setThreads() is not used.
+     * @param pipeline array of the number of worker threads for the load,
+     *                 encode and write stages, or null for no pipeline
+     */
+    public final void setPipeline(final int[] pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Set the number of I/O threads writing the output files behind the
+     * exporters. When set, each resource is encoded in memory and handed
+     * to the I/O threads, which write, close and (optionally) force the
+     * files to disk in batches, so a slow output directory doesn't stall
+     * the threads that decode and encode the resources.
+     * @param ioThreads number of I/O threads, or 0 to write each output
+     *                  file on the thread that encoded it
+     * @param fsync true, if the output files should be forced to disk
+     *              before they are recorded in the export manifest
+     */
+    public final void setWriteBehind(final int ioThreads, final boolean fsync) {
+        this.writeBehind = ioThreads;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Set the format of the containers to which the resources are exported.
+     * When set, the files that would be written to each directory of the
+     * output directory (i.e.: "Mesh") are written to a single container
+     * file instead (i.e.: "Mesh.zip"). Containers are always written from
+     * scratch, so every selected resource is exported, and the export
+     * manifest is left as it was.
+     * @param format format of the containers ("zip" or "tar"), or null to
+     *               write the output files to the output directory
+     */
+    public final void setContainer(final String format) {
+        this.container = format;
+    }
+
+    /**
+     * Set the format to which Mesh resources are exported: Blender Python
+     * scripts (.py), binary glTF (.glb), or a bundle of every mesh with a
+     * single script importing it with NumPy.
+     * @param format format of the exported meshes, MeshCache.PYTHON,
+     *               MeshCache.GLB or MeshCache.NUMPY
+     */
+    public final void setMeshFormat(final String format) {
+        this.meshFormat = format;
+    }
+
+    /**
+     * Set whether duplicate units should be exported only once. The
+     * output file of a duplicate is linked to the output file of the
+     * first unit with the same content, or listed in a DuplicateManifest
+     * if the output is written to containers.
+     * @param dedup true, to export each distinct content only once
+     */
+    public final void setDedup(final boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * Set whether the resources should be exported raw: as-is, once
+     * decompressed, without being converted to another format. Raw
+     * resources are exported from every cache archive present.
+     * @param raw true, to export the resources raw
+     */
+    public final void setRaw(final boolean raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * Set whether every resource should be exported. Normally, resources
+     * that the export manifest says are unchanged since the last export
+     * to the same output directory are skipped.
+     * @param force true, to export every resource
+     */
+    public final void setForce(final boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Set the ResourceSelector choosing which resources are exported.
+     * Cache archives that are not selected are not opened at all.
+     * @param selector ResourceSelector choosing the resources to export
+     */
+    public final void setSelector(final ResourceSelector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Set the file to which a JSON report of the time spent in each stage
+     * of the export (inflate, parse, encode, write) is written at the end
+     * of the run. Metrics are collected only if a file is set.
+     * @param metricsFile File for the metrics report, or null for none
+     */
+    public final void setMetrics(final File metricsFile) {
+        this.metrics = metricsFile;
+    }
+
     /**
      * File object representing Shadowbane's cache directory. This
      * is the directory that contains the .cache resource files.
@@ -209,4 +683,66 @@ public class ShadowbaneCacheExporter implements Runnable {
      * directory where the Shadowbane resources will be exported.
      */
     private File output;
+
+    /**
+     * Number of worker threads used to export resources.
+     */
+    private int threads = 1;
+
+    /**
+     * Number of worker threads for the load, encode and write stages of a
+     * pipelined export, or null if the export is not pipelined.
+     */
+    private int[] pipeline;
+
+    /**
+     * Number of I/O threads writing the output files behind the
+     * exporters, or 0 if the output files are written by the exporters.
+     */
+    private int writeBehind;
+
+    /**
+     * True, if the output files should be forced to disk by the
+     * write-behind I/O threads.
+     */
+    private boolean fsync;
+
+    /**
+     * Format of the containers to which the resources are exported, or
+     * null if the output files are written to the output directory.
+     */
+    private String container;
+
+    /**
+     * Format to which Mesh resources are exported.
+     */
+    private String meshFormat = MeshCache.PYTHON;
+
+    /**
+     * True, if the resources are exported raw, without being converted.
+     */
+    private boolean raw;
+
+    /**
+     * True, if duplicate units are exported only once.
+     */
+    private boolean dedup;
+
+    /**
+     * True, if every resource should be exported, even if the export
+     * manifest says it is unchanged.
+     */
+    private boolean force;
+
+    /**
+     * ResourceSelector choosing which resources are exported; by default,
+     * every resource is exported.
+     */
+    private ResourceSelector selector = new ResourceSelector();
+
+    /**
+     * File to which the metrics report is written, or null if metrics
+     * are not collected.
+     */
+    private File metrics;
 }
@@ -0,0 +1,230 @@
+/*
+ * Container.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Container is a single file (i.e.: a zip or tar file) holding many
+ * output files. Adding a file is done in two steps: prepare() turns the
+ * output into an Entry, doing any work that can be done on the thread that
+ * encoded it (such as compression), and append() writes the Entry to the
+ * end of the container. Only one thread may append entries, so the
+ * container is written sequentially, through a large buffer. Once every
+ * entry has been appended, finish() writes the index of the container and
+ * closes it. If an entry cannot be appended, abandon() deletes the
+ * container instead, rather than leave an incomplete one behind.
+ * @author pmeade
+ */
+abstract public class Container
+{
+    /** Size of the buffer through which the container is written. */
+    public static final int BUFFER_SIZE = 0x100000;
+
+    /** Character set of the names of the entries. */
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Construct a Container, creating (or replacing) its file.
+     * @param file File of the container
+     * @throws IOException if the file could not be created
+     */
+    public Container(File file) throws IOException {
+        this.file = file;
+        this.out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+    }
+
+    /**
+     * Obtain the file of the container.
+     * @return File of the container
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Prepare an output file to be appended to the container. This may be
+     * called by many threads at once.
+     * @param name name of the entry (i.e.: "Mesh/Mesh_00001_00001001.py")
+     * @param data ByteArrayOutputStream containing the data of the file
+     * @return Entry to be passed to append()
+     */
+    abstract public Entry prepare(String name, ByteArrayOutputStream data);
+
+    /**
+     * Append a prepared entry to the end of the container.
+     * @param entry Entry returned by prepare()
+     * @throws IOException if the entry could not be written
+     */
+    abstract public void append(Entry entry) throws IOException;
+
+    /**
+     * Write the index of the container after the last entry, and close
+     * the container file.
+     * @throws IOException if the index could not be written
+     */
+    abstract public void finish() throws IOException;
+
+    /**
+     * Close the container file without writing its index, and delete it.
+     * This is called instead of finish() once an entry has failed to be
+     * appended, as the container would be missing that entry, and after
+     * finish() has failed, as the container would have no index.
+     */
+    public void abandon() {
+        try {
+            out.close();
+        } catch(IOException e) {
+            // the file is deleted anyway
+        }
+        if(file.delete() == false) {
+            System.err.println("BAD MOJO: unable to delete incomplete container " + file.getPath());
+        }
+    }
+
+    /**
+     * Obtain the number of bytes written to the container so far.
+     * @return the offset of the next byte written to the container
+     */
+    protected long getPosition() {
+        return position;
+    }
+
+    /**
+     * Write bytes to the end of the container.
+     * @param b array containing the bytes to be written
+     * @param off offset of the first byte to be written
+     * @param len number of bytes to be written
+     * @throws IOException if the bytes could not be written
+     */
+    protected void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        position += len;
+    }
+
+    /**
+     * Write the bytes of a buffer, from its start to its position, to the
+     * end of the container.
+     * @param buffer ByteBuffer backed by an array
+     * @throws IOException if the bytes could not be written
+     */
+    protected void write(ByteBuffer buffer) throws IOException {
+        write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    }
+
+    /**
+     * Write the data of an entry to the end of the container.
+     * @param data ByteArrayOutputStream containing the data
+     * @throws IOException if the data could not be written
+     */
+    protected void write(ByteArrayOutputStream data) throws IOException {
+        data.writeTo(out);
+        position += data.size();
+    }
+
+    /**
+     * Close the container file.
+     * @throws IOException if the file could not be closed
+     */
+    protected void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Allocate a little-endian buffer for a header.
+     * @param size size of the header, in bytes
+     * @return ByteBuffer for the header
+     */
+    protected static ByteBuffer header(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Entry is an output file prepared to be appended to a container.
+     */
+    public static class Entry
+    {
+        /**
+         * Construct an Entry.
+         * @param name name of the entry
+         * @param data data of the entry, as it is written to the container
+         * @param size size of the output file
+         */
+        public Entry(String name, ByteArrayOutputStream data, long size) {
+            this.name = name;
+            this.data = data;
+            this.size = size;
+        }
+
+        /**
+         * Name of the entry.
+         */
+        public final String name;
+
+        /**
+         * Data of the entry, as it is written to the container; this may
+         * be compressed.
+         */
+        public final ByteArrayOutputStream data;
+
+        /**
+         * Size of the output file, before any compression.
+         */
+        public final long size;
+
+        /**
+         * Compression method of the data, as used by the container.
+         */
+        public int method;
+
+        /**
+         * CRC-32 of the output file, if used by the container.
+         */
+        public long crc;
+
+        /**
+         * Callback to be told once the entry has been appended, or has
+         * failed to be.
+         */
+        public OutputWriter.Callback done;
+    }
+
+    /**
+     * File of the container.
+     */
+    private final File file;
+
+    /**
+     * Buffered stream writing the container file.
+     */
+    private final OutputStream out;
+
+    /**
+     * Number of bytes written to the container so far.
+     */
+    private long position;
+}
@@ -0,0 +1,305 @@
+/*
+ * ContainerWriter.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * ContainerWriter writes the output files of an export into containers
+ * instead of the output directory, one container per directory of output
+ * files: the files that would be written to "Mesh/" are written to
+ * "Mesh.zip" (or "Mesh.tar"), and so on. Each container is appended to by
+ * a thread of its own, sequentially, while the threads that encode the
+ * output (and prepare the entries, i.e.: compress them) hand it over
+ * through a bounded queue. If an entry cannot be appended, the container
+ * is abandoned: its file is deleted, and that entry and every later one
+ * are reported as not written.
+ * @author pmeade
+ */
+public class ContainerWriter extends OutputWriter
+{
+    /** Format of zip containers. */
+    public static final String ZIP = "zip";
+
+    /** Format of tar containers. */
+    public static final String TAR = "tar";
+
+    /**
+     * Construct a ContainerWriter.
+     * @param outputDir the output directory, where the containers are
+     *                  written
+     * @param format format of the containers, ZIP or TAR
+     * @throws IllegalArgumentException if the format is not ZIP or TAR
+     */
+    public ContainerWriter(File outputDir, String format) {
+        checkFormat(format);
+        this.outputDir = outputDir;
+        this.format = format;
+        this.slots = new LinkedHashMap();
+    }
+
+    /**
+     * Check the format of the containers.
+     * @param format format of the containers
+     * @throws IllegalArgumentException if the format is not ZIP or TAR
+     */
+    public static void checkFormat(String format) {
+        if((ZIP.equals(format) == false) && (TAR.equals(format) == false)) {
+            throw new IllegalArgumentException("invalid container format: '" + format + "'");
+        }
+    }
+
+    /**
+     * Write the provided data to the container for the directory of the
+     * output file, after this method has returned. The entry is prepared
+     * on the calling thread; if the queue of the container is full, this
+     * method waits until there is room.
+     * @param file File the output would be exported to
+     * @param data ByteArrayOutputStream containing the data of the file
+     * @param done Callback to be told once the entry has been appended, or
+     *             has failed to be
+     */
+    @Override
+    public void write(File file, ByteArrayOutputStream data, Callback done) {
+        String path = getPath(file);
+        Slot slot = getSlot(path);
+        if(slot.container == null) {
+            done.done(false);
+            return;
+        }
+        Container.Entry entry = slot.container.prepare(path, data);
+        entry.done = done;
+        put(slot.queue, entry);
+    }
+
+    /**
+     * Determine if output may be handed over as raw DEFLATE data. This
+     * is true for zip containers, which copy it as-is.
+     * @return true, if the containers are zip files
+     */
+    @Override
+    public boolean acceptsDeflated() {
+        return ZIP.equals(format);
+    }
+
+    /**
+     * Write the provided raw DEFLATE data to the zip container for the
+     * directory of the output file, after this method has returned. The
+     * data is copied to the container as-is.
+     * @param file File the output would be exported to
+     * @param data ByteArrayOutputStream containing the raw DEFLATE data
+     * @param size size of the output file, once inflated
+     * @param crc CRC-32 of the output file, once inflated
+     * @param done Callback to be told once the entry has been appended, or
+     *             has failed to be
+     */
+    @Override
+    public void writeDeflated(File file, ByteArrayOutputStream data, long size, long crc, Callback done) {
+        if(acceptsDeflated() == false) {
+            super.writeDeflated(file, data, size, crc, done);
+        }
+        String path = getPath(file);
+        Slot slot = getSlot(path);
+        if(slot.container == null) {
+            done.done(false);
+            return;
+        }
+        Container.Entry entry = ((ZipContainer)slot.container).prepareDeflated(path, data, size, crc);
+        entry.done = done;
+        put(slot.queue, entry);
+    }
+
+    /**
+     * Wait for every entry to be appended, then finish every container.
+     */
+    @Override
+    public void close() {
+        List<Slot> all;
+        synchronized(slots) {
+            all = new ArrayList(slots.values());
+        }
+        for(Slot slot : all) {
+            if(slot.container != null) {
+                put(slot.queue, END);
+            }
+        }
+        boolean interrupted = false;
+        for(Slot slot : all) {
+            while((slot.thread != null) && slot.thread.isAlive()) {
+                try {
+                    slot.thread.join();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Determine the path of an output file in the output directory, which
+     * is the name of its entry in its container.
+     * @param file File the output would be exported to
+     * @return path of the file (i.e.: "Mesh/Mesh_00001_00001001.py")
+     */
+    private String getPath(File file) {
+        return outputDir.toURI().relativize(file.toURI()).getPath();
+    }
+
+    /**
+     * Obtain the Slot of the container for an output file, creating the
+     * container and starting its thread if necessary. The container is
+     * named for the first directory of the path of the output file.
+     * @param path path of the output file in the output directory
+     * @return Slot of the container
+     */
+    private Slot getSlot(String path) {
+        int slash = path.indexOf('/');
+        String name = (slash > 0) ? path.substring(0, slash) : DEFAULT_CONTAINER;
+        synchronized(slots) {
+            Slot slot = slots.get(name);
+            if(slot == null) {
+                slot = new Slot();
+                File file = new File(outputDir, name + "." + format);
+                try {
+                    slot.container = ZIP.equals(format) ? new ZipContainer(file) : new TarContainer(file);
+                    slot.thread = new Thread(slot, "ContainerWriter-" + name);
+                    slot.thread.start();
+                } catch(IOException e) {
+                    System.err.println(e.getMessage());
+                    slot.container = null;
+                }
+                slots.put(name, slot);
+            }
+            return slot;
+        }
+    }
+
+    /**
+     * Put an entry on a queue, waiting for space if the queue is full.
+     * @param queue BlockingQueue on which the entry is put
+     * @param entry Container.Entry to be put on the queue
+     */
+    private static void put(BlockingQueue<Container.Entry> queue, Container.Entry entry) {
+        boolean interrupted = false;
+        while(true) {
+            try {
+                queue.put(entry);
+                break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Slot is a container, the queue of entries waiting to be appended to
+     * it, and the thread appending them.
+     */
+    private static class Slot implements Runnable
+    {
+        @Override
+        public void run() {
+            boolean failed = false;
+            while(true) {
+                Container.Entry entry;
+                try {
+                    entry = queue.take();
+                } catch(InterruptedException e) {
+                    continue;
+                }
+                if(entry == END) {
+                    break;
+                }
+                // keep taking entries after a failure, so the encoders
+                // don't wait forever
+                if(failed == false) {
+                    try {
+                        container.append(entry);
+                    } catch(IOException e) {
+                        System.err.println(e.getMessage());
+                        failed = true;
+                    }
+                }
+                try {
+                    entry.done.done(failed == false);
+                } catch(RuntimeException e) {
+                    e.printStackTrace(System.err);
+                }
+            }
+            if(failed) {
+                container.abandon();
+                return;
+            }
+            try {
+                container.finish();
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+                container.abandon();
+            }
+        }
+
+        private Container container;
+        private Thread thread;
+        private final BlockingQueue<Container.Entry> queue = new ArrayBlockingQueue(QUEUE_ENTRIES);
+    }
+
+    /**
+     * Number of entries that may wait to be appended to each container.
+     */
+    private static final int QUEUE_ENTRIES = 64;
+
+    /**
+     * Name of the container for output files not in a directory.
+     */
+    private static final String DEFAULT_CONTAINER = "Output";
+
+    /**
+     * Entry marking the end of a queue.
+     */
+    private static final Container.Entry END = new Container.Entry(null, null, 0);
+
+    /**
+     * The output directory, where the containers are written.
+     */
+    private final File outputDir;
+
+    /**
+     * Format of the containers, ZIP or TAR.
+     */
+    private final String format;
+
+    /**
+     * Slots of the containers, by name.
+     */
+    private final Map<String,Slot> slots;
+}
@@ -0,0 +1,377 @@
+/*
+ * DedupExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DedupExportJob wraps another ExportJob, exporting each distinct content
+ * only once. The first unit with some content is the original, and is
+ * exported as usual. A later unit with the same content is a duplicate:
+ * it is not loaded, decoded or encoded, and its output file becomes a
+ * hard link to the output file of the original instead (or a copy, if
+ * the file system can't link). When the output is written to containers,
+ * the duplicate is recorded in a DuplicateManifest instead.
+ *
+ * Units are matched by their content key first, and then by comparing
+ * their content; see ExportJob.getContentKey() and sameInput().
+ * @author pmeade
+ */
+public class DedupExportJob extends ExportJob
+{
+    /**
+     * Construct a DedupExportJob.
+     * @param job ExportJob to be wrapped
+     * @param references DuplicateManifest in which duplicates are
+     *                   recorded, or null if they should be linked
+     */
+    public DedupExportJob(ExportJob job, DuplicateManifest references) {
+        super(job.getName(), job.getDescription(), job.getArchive());
+        this.job = job;
+        this.references = references;
+        this.originals = new Original[job.size()];
+        this.byContentKey = new HashMap();
+        this.duplicates = new AtomicInteger();
+    }
+
+    /**
+     * Determine the number of units that were duplicates of another unit.
+     * @return the number of duplicates
+     */
+    public int getDuplicates() {
+        return duplicates.get();
+    }
+
+    @Override
+    public int size() {
+        return job.size();
+    }
+
+    @Override
+    public boolean export(int index, File outputDir) {
+        Original original = findOriginal(index);
+        if((original == null) || (original.index == index)) {
+            boolean exported = false;
+            try {
+                prepareOriginal(index, outputDir);
+                exported = job.export(index, outputDir);
+            } finally {
+                if(original != null) {
+                    original.written(exported == false);
+                }
+            }
+            return exported;
+        }
+        // the original may still be exported by another thread
+        original.awaitWritten();
+        return exportDuplicate(original, index, outputDir);
+    }
+
+    /**
+     * Load the provided unit, unless it is a duplicate.
+     * @param unit ExportUnit to be loaded
+     */
+    @Override
+    public void load(ExportUnit unit) {
+        if(isDuplicate(findOriginal(unit.index), unit.index) == false) {
+            job.load(unit);
+        }
+    }
+
+    @Override
+    public void encode(ExportUnit unit) {
+        if(isDuplicate(originals[unit.index], unit.index) == false) {
+            job.encode(unit);
+        }
+    }
+
+    /**
+     * Write the provided unit. The output of a duplicate is linked to the
+     * output of its original, once that has been written.
+     * @param unit ExportUnit to be written
+     */
+    @Override
+    public void write(final ExportUnit unit) {
+        final Original original = originals[unit.index];
+        if(isDuplicate(original, unit.index)) {
+            original.whenWritten(new Runnable() {
+                @Override
+                public void run() {
+                    if(exportDuplicate(original, unit.index, unit.outputDir) == false) {
+                        unit.failed = true;
+                    }
+                    unit.written();
+                }
+            });
+            return;
+        }
+        if(original != null) {
+            unit.whenWritten(new Runnable() {
+                @Override
+                public void run() {
+                    original.written(unit.failed);
+                }
+            });
+        }
+        prepareOriginal(unit.index, unit.outputDir);
+        job.write(unit);
+    }
+
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return job.getOutputFile(index, outputDir);
+    }
+
+    @Override
+    public String getInputKey(int index) {
+        return job.getInputKey(index);
+    }
+
+    @Override
+    public String getContentKey(int index) {
+        return job.getContentKey(index);
+    }
+
+    @Override
+    public boolean sameInput(int index, int other) {
+        return job.sameInput(index, other);
+    }
+
+    @Override
+    public boolean selects(int index, ResourceSelector selector) {
+        return job.selects(index, selector);
+    }
+
+    @Override
+    public void close() {
+        job.close();
+    }
+
+    /**
+     * Find the original of the indicated unit: the first unit found with
+     * the same content. If there is none, the unit becomes the original.
+     * Comparing the content of the units may take a while, so only the
+     * candidates with the same content key are locked while it is done;
+     * units with other content keys are not held up.
+     * @param index index of the unit
+     * @return Original of the unit, or null if the unit can't be
+     *         deduplicated
+     */
+    private Original findOriginal(int index) {
+        String contentKey = job.getContentKey(index);
+        if(contentKey == null) {
+            return null;
+        }
+        List<Original> candidates;
+        synchronized(byContentKey) {
+            candidates = byContentKey.get(contentKey);
+            if(candidates == null) {
+                candidates = new ArrayList(1);
+                byContentKey.put(contentKey, candidates);
+            }
+        }
+        synchronized(candidates) {
+            Original original = null;
+            for(Original candidate : candidates) {
+                if(job.sameInput(candidate.index, index)) {
+                    original = candidate;
+                    break;
+                }
+            }
+            if(original == null) {
+                original = new Original(index);
+                candidates.add(original);
+            } else {
+                duplicates.incrementAndGet();
+            }
+            originals[index] = original;
+            return original;
+        }
+    }
+
+    /**
+     * Determine if the indicated unit is a duplicate of another unit.
+     * @param original Original of the unit, or null
+     * @param index index of the unit
+     * @return true, if the unit is a duplicate
+     */
+    private boolean isDuplicate(Original original, int index) {
+        return (original != null) && (original.index != index);
+    }
+
+    /**
+     * Prepare to write the output file of an original. If the file is
+     * left from an earlier export, it is removed first; it may be linked
+     * to other output files, which must not change along with it.
+     * @param index index of the unit
+     * @param outputDir the output directory
+     */
+    private void prepareOriginal(int index, File outputDir) {
+        File outputFile = job.getOutputFile(index, outputDir);
+        if((references != null) || (outputFile == null)) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(outputFile.toPath());
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Export a duplicate, once its original has been written. The output
+     * file of the duplicate is linked to the output file of the original,
+     * or recorded in the DuplicateManifest. If the original failed to be
+     * exported, so does the duplicate.
+     * @param original Original of the duplicate
+     * @param index index of the duplicate
+     * @param outputDir the output directory
+     * @return true, if the duplicate was exported, or has nothing to
+     *         export; false, if the export failed
+     */
+    private boolean exportDuplicate(Original original, int index, File outputDir) {
+        if(original.failed()) {
+            return false;
+        }
+        File originalFile = job.getOutputFile(original.index, outputDir);
+        File outputFile = job.getOutputFile(index, outputDir);
+        if((originalFile == null) || (outputFile == null)) {
+            return true;
+        }
+        if(references != null) {
+            references.record(outputFile, originalFile);
+            return true;
+        }
+        if(originalFile.isFile() == false) {
+            // the original did not produce an output file either
+            return true;
+        }
+        Path path = outputFile.toPath();
+        try {
+            outputFile.getParentFile().mkdirs();
+            Files.deleteIfExists(path);
+            try {
+                Files.createLink(path, originalFile.toPath());
+            } catch(IOException | UnsupportedOperationException e) {
+                Files.copy(originalFile.toPath(), path);
+            }
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * ExportJob being wrapped.
+     */
+    private final ExportJob job;
+
+    /**
+     * DuplicateManifest in which duplicates are recorded, or null if
+     * they are linked.
+     */
+    private final DuplicateManifest references;
+
+    /**
+     * Original of each unit that has been loaded, indexed by unit.
+     */
+    private final Original[] originals;
+
+    /**
+     * Originals found so far, keyed by content key. Units with the same
+     * content key but different content have separate Originals. Each
+     * List is locked while it is searched or added to.
+     */
+    private final Map<String,List<Original>> byContentKey;
+
+    /**
+     * Number of units that were duplicates of another unit.
+     */
+    private final AtomicInteger duplicates;
+
+    /**
+     * Original is the first unit found with some content. Its duplicates
+     * wait for its output file to be written before they link to it.
+     */
+    private static class Original
+    {
+        Original(int index) {
+            this.index = index;
+        }
+
+        void written(boolean failed) {
+            List<Runnable> actions;
+            synchronized(this) {
+                this.failed = failed;
+                written = true;
+                notifyAll();
+                actions = new ArrayList(waiting);
+                waiting.clear();
+            }
+            for(Runnable action : actions) {
+                action.run();
+            }
+        }
+
+        void whenWritten(Runnable action) {
+            synchronized(this) {
+                if(written == false) {
+                    waiting.add(action);
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        synchronized boolean failed() {
+            return failed;
+        }
+
+        synchronized void awaitWritten() {
+            boolean interrupted = false;
+            while(written == false) {
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        final int index;
+
+        private boolean written;
+
+        private boolean failed;
+
+        private final List<Runnable> waiting = new ArrayList();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * DuplicateManifest.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * DuplicateManifest records the output files that were not written
+ * because they would have been identical to another output file. It is
+ * used when the output is written to containers, which can't hold links.
+ *
+ * The manifest is a tab-separated text file in the output directory, with
+ * one line per duplicate; each path is the name of an entry in a container:
+ *
+ *     path  original
+ * @author pmeade
+ */
+public class DuplicateManifest
+{
+    /** Name of the manifest file, in the output directory. */
+    public static final String FILE_NAME = "ShadowbaneCacheExporter.duplicates";
+
+    /**
+     * Construct a DuplicateManifest for the provided output directory.
+     * @param outputDir the output directory
+     */
+    public DuplicateManifest(File outputDir) {
+        this.outputDir = outputDir;
+        this.entries = new TreeMap();
+    }
+
+    /**
+     * Record an output file that is a duplicate of another.
+     * @param file File the duplicate would have been exported to
+     * @param original File the original was exported to
+     */
+    public synchronized void record(File file, File original) {
+        entries.put(getPath(file), getPath(original));
+    }
+
+    /**
+     * Save the manifest file to the output directory. The file is written
+     * under a temporary name and then renamed, so an interrupted save
+     * never leaves a damaged manifest behind.
+     */
+    public synchronized void save() {
+        File manifestFile = new File(outputDir, FILE_NAME);
+        File tempFile = new File(outputDir, FILE_NAME + ".tmp");
+        try {
+            try(PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(tempFile), ExportManifest.UTF8))) {
+                writer.print("# path\toriginal\n");
+                for(Map.Entry<String,String> entry : entries.entrySet()) {
+                    writer.print(entry.getKey() + "\t" + entry.getValue() + "\n");
+                }
+            }
+            Files.move(tempFile.toPath(), manifestFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Determine the path of an output file in the output directory.
+     * @param file File in the output directory
+     * @return path of the file (i.e.: "Mesh/Mesh_00001_00001001.py")
+     */
+    private String getPath(File file) {
+        return outputDir.toURI().relativize(file.toURI()).getPath();
+    }
+
+    /**
+     * The output directory, where the manifest file lives.
+     */
+    private final File outputDir;
+
+    /**
+     * Recorded duplicates; the path of the original, keyed by the path of
+     * the duplicate.
+     */
+    private final Map<String,String> entries;
+}
@@ -0,0 +1,260 @@
+/*
+ * ExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import com.pmeade.shadowbane.CacheArchive;
+import com.pmeade.shadowbane.metrics.Metrics;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * ExportJob represents the work of exporting one kind of resource. A job
+ * is made up of a number of units (a resource, a terrain map, etc.) that
+ * are numbered from 0 to size()-1. Each unit writes its own output file,
+ * so the units of a job may be exported in any order, on any thread.
+ * Closing the job closes the cache archive it exports from.
+ *
+ * A unit is exported either all at once, with export(), or in three
+ * stages that a PipelinedExporter runs on separate threads: load() reads
+ * and inflates the resource data, encode() converts it to the output
+ * format in memory, and write() writes the output to its file.
+ * @author pmeade
+ */
+abstract public class ExportJob implements Closeable
+{
+    /**
+     * Construct an ExportJob.
+     * @param name name of the job, used to identify its units in the
+     *             export manifest (i.e.: "Mesh")
+     * @param description description of the exported units, used when
+     *                    reporting progress (i.e.: "Mesh resources")
+     * @param archive CacheArchive the units are exported from
+     */
+    public ExportJob(String name, String description, CacheArchive archive) {
+        this.name = name;
+        this.description = description;
+        this.archive = archive;
+    }
+
+    /**
+     * Close the cache archive the units are exported from. This should
+     * be called once every unit of the job has been exported.
+     */
+    @Override
+    public void close() {
+        archive.close();
+    }
+
+    /**
+     * Obtain the name of this job.
+     * @return name of the job (i.e.: "Mesh")
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Obtain the description of the units exported by this job.
+     * @return description of the exported units (i.e.: "Mesh resources")
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Obtain the cache archive the units are exported from.
+     * @return CacheArchive the units are exported from
+     */
+    public CacheArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Determine the number of units to be exported by this job.
+     * @return the number of units to be exported by this job
+     */
+    abstract public int size();
+
+    /**
+     * Export the indicated unit to the output directory.
+     * @param index index of the unit to be exported
+     * @param outputDir the output directory
+     * @return true, if the unit was exported, or has nothing to export;
+     *         false, if the export failed
+     */
+    abstract public boolean export(int index, File outputDir);
+
+    /**
+     * Load the resource data of the provided unit. By default, nothing is
+     * loaded, and the whole unit is exported by encode(); jobs that can
+     * separate the stages of a unit should override the stage methods.
+     * @param unit ExportUnit to be loaded
+     */
+    public void load(ExportUnit unit) {
+        // the default encode() stage loads the unit itself
+    }
+
+    /**
+     * Encode the provided unit, setting its output to the bytes of its
+     * output file. By default, the unit is exported with export(), which
+     * writes the output file itself, so the unit has no output.
+     * @param unit ExportUnit to be encoded
+     */
+    public void encode(ExportUnit unit) {
+        if(export(unit.index, unit.outputDir) == false) {
+            unit.failed = true;
+        }
+    }
+
+    /**
+     * Write the output of the provided unit to its output file. If the
+     * unit has no output, nothing is written. If the unit has an
+     * OutputWriter, the output is handed to it, to be written after
+     * this method returns; either way, ExportUnit.written() is called
+     * once the output file has been written, or has failed to be. If it
+     * failed, the unit is marked as failed first, and a partial output
+     * file is deleted.
+     * @param unit ExportUnit to be written
+     */
+    public void write(final ExportUnit unit) {
+        if(unit.output == null) {
+            unit.written();
+            return;
+        }
+        File outputFile = getOutputFile(unit.index, unit.outputDir);
+        if(unit.writer != null) {
+            OutputWriter.Callback done = new OutputWriter.Callback() {
+                @Override
+                public void done(boolean written) {
+                    if(written == false) {
+                        unit.failed = true;
+                    }
+                    unit.written();
+                }
+            };
+            if(unit.deflated) {
+                unit.writer.writeDeflated(outputFile, unit.output,
+                    unit.outputSize, unit.outputCrc, done);
+            } else {
+                unit.writer.write(outputFile, unit.output, done);
+            }
+            return;
+        }
+        outputFile.getParentFile().mkdirs();
+        try(OutputStream out = Metrics.meter(new FileOutputStream(outputFile))) {
+            unit.output.writeTo(out);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            outputFile.delete();
+            unit.failed = true;
+        }
+        unit.written();
+    }
+
+    /**
+     * Export the provided unit on the current thread, running each of its
+     * stages in turn. Unlike export(int, File), the output is encoded in
+     * memory before it is written, so it can be handed to the
+     * OutputWriter of the unit.
+     * @param unit ExportUnit to be exported
+     */
+    public final void export(ExportUnit unit) {
+        try {
+            load(unit);
+            encode(unit);
+        } finally {
+            unit.close();
+        }
+        write(unit);
+    }
+
+    /**
+     * Determine the file the indicated unit is exported to.
+     * @param index index of the unit
+     * @param outputDir the output directory
+     * @return File the unit is exported to, or null if the unit is not
+     *         exported to a file
+     */
+    abstract public File getOutputFile(int index, File outputDir);
+
+    /**
+     * Describe the inputs of the indicated unit: the directory metadata
+     * and a checksum of the stored bytes of the resource(s) it is exported
+     * from. If the description has not changed, neither has the unit.
+     * @param index index of the unit
+     * @return String describing the inputs of the unit
+     */
+    abstract public String getInputKey(int index);
+
+    /**
+     * Describe the content of the indicated unit, for finding duplicates:
+     * units of this job with the same content produce the same output, so
+     * they must have the same content key. Units with the same key may
+     * still differ; see sameInput(). By default, units are never
+     * considered duplicates.
+     * @param index index of the unit
+     * @return String describing the content of the unit, or null if the
+     *         unit should not be deduplicated
+     */
+    public String getContentKey(int index) {
+        return null;
+    }
+
+    /**
+     * Determine if two units of this job have exactly the same content,
+     * and so produce the same output.
+     * @param index index of a unit
+     * @param other index of another unit, with the same content key
+     * @return true, if the units have the same content
+     */
+    public boolean sameInput(int index, int other) {
+        return false;
+    }
+
+    /**
+     * Determine if the indicated unit is selected by the provided
+     * ResourceSelector. By default, unit i is the resource at index i of
+     * the cache archive; jobs whose units are made of several resources
+     * should override this method.
+     * @param index index of the unit
+     * @param selector ResourceSelector choosing the resources to export
+     * @return true, if the unit should be exported
+     */
+    public boolean selects(int index, ResourceSelector selector) {
+        return selector.selects(archive, index);
+    }
+
+    /**
+     * Name of the job.
+     */
+    private final String name;
+
+    /**
+     * Description of the units exported by this job.
+     */
+    private final String description;
+
+    /**
+     * CacheArchive the units are exported from.
+     */
+    private final CacheArchive archive;
+}
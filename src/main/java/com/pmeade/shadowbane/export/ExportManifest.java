@@ -0,0 +1,193 @@
+/*
+ * ExportManifest.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ExportManifest records what was exported to an output directory, so
+ * that a later export can skip the units that have not changed. For each
+ * unit it records the exporter version, a description of the inputs
+ * (directory metadata and a checksum of the stored bytes), and the name,
+ * length and modification time of the output file.
+ *
+ * The manifest is a tab-separated text file in the output directory, with
+ * one line per unit:
+ *
+ *     job  index  version  id  offset  size  zipSize  crc  path  length  modified
+ *
+ * A unit that did not produce an output file has a path of "-".
+ * @author pmeade
+ */
+public class ExportManifest
+{
+    /** Name of the manifest file, in the output directory. */
+    public static final String FILE_NAME = "ShadowbaneCacheExporter.manifest";
+
+    /** Character set of the manifest file. */
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Construct an ExportManifest for the provided output directory.
+     * @param outputDir the output directory
+     * @param version version of the exporter; units exported by a
+     *                different version are never considered unchanged
+     */
+    public ExportManifest(File outputDir, String version) {
+        this.outputDir = outputDir;
+        this.version = version;
+        this.entries = new ConcurrentHashMap();
+    }
+
+    /**
+     * Load the manifest file from the output directory, if there is one.
+     * Lines that can't be understood are ignored.
+     */
+    public void load() {
+        File manifestFile = new File(outputDir, FILE_NAME);
+        if(manifestFile.exists() == false) {
+            return;
+        }
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(manifestFile), UTF8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 3);
+                if(fields.length == 3) {
+                    entries.put(fields[0] + "\t" + fields[1], fields[2]);
+                }
+            }
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Save the manifest file to the output directory. The file is written
+     * under a temporary name and then renamed, so an interrupted save
+     * never leaves a damaged manifest behind.
+     */
+    public void save() {
+        File manifestFile = new File(outputDir, FILE_NAME);
+        File tempFile = new File(outputDir, FILE_NAME + ".tmp");
+        try {
+            try(PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(tempFile), UTF8))) {
+                writer.print("# job\tindex\tversion\tid\toffset\tsize\tzipSize\tcrc\tpath\tlength\tmodified\n");
+                for(Map.Entry<String,String> entry : new TreeMap<String,String>(entries).entrySet()) {
+                    writer.print(entry.getKey() + "\t" + entry.getValue() + "\n");
+                }
+            }
+            Files.move(tempFile.toPath(), manifestFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Determine if a unit is unchanged since it was recorded. The unit is
+     * unchanged if it was exported by the same version of the exporter,
+     * its inputs are the same, and its output file has the same length
+     * and modification time (or is still absent). Only units that were
+     * exported successfully are recorded, so an absent output file only
+     * matches a unit that had nothing to export.
+     * @param job ExportJob containing the unit
+     * @param index index of the unit
+     * @param inputKey description of the inputs of the unit
+     * @param outputFile File the unit is exported to, or null
+     * @return true, if the unit is unchanged, otherwise false
+     */
+    public boolean isUnchanged(ExportJob job, int index, String inputKey, File outputFile) {
+        String recorded = entries.get(job.getName() + "\t" + index);
+        return describe(inputKey, outputFile).equals(recorded);
+    }
+
+    /**
+     * Record a unit that has just been exported successfully.
+     * @param job ExportJob containing the unit
+     * @param index index of the unit
+     * @param inputKey description of the inputs of the unit
+     * @param outputFile File the unit was exported to, or null
+     */
+    public void record(ExportJob job, int index, String inputKey, File outputFile) {
+        entries.put(job.getName() + "\t" + index, describe(inputKey, outputFile));
+    }
+
+    /**
+     * Forget a unit that has just failed to be exported, so that it is
+     * exported again by the next run, whatever is left of its output file.
+     * @param job ExportJob containing the unit
+     * @param index index of the unit
+     */
+    public void forget(ExportJob job, int index) {
+        entries.remove(job.getName() + "\t" + index);
+    }
+
+    /**
+     * Describe the current state of a unit, as recorded in the manifest.
+     * @param inputKey description of the inputs of the unit
+     * @param outputFile File the unit is exported to, or null
+     * @return String describing the unit
+     */
+    private String describe(String inputKey, File outputFile) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(version).append('\t').append(inputKey).append('\t');
+        if((outputFile != null) && outputFile.isFile()) {
+            String path = outputDir.toURI().relativize(outputFile.toURI()).getPath();
+            sb.append(path).append('\t')
+              .append(outputFile.length()).append('\t')
+              .append(outputFile.lastModified());
+        } else {
+            sb.append("-\t-1\t0");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The output directory, where the manifest file lives.
+     */
+    private final File outputDir;
+
+    /**
+     * Version of the exporter.
+     */
+    private final String version;
+
+    /**
+     * Recorded units, keyed by "job\tindex".
+     */
+    private final Map<String,String> entries;
+}
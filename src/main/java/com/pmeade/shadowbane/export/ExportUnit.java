@@ -0,0 +1,170 @@
+/*
+ * ExportUnit.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.metrics.Metrics;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ExportUnit carries one unit of an ExportJob through the stages of a
+ * pipelined export: load(), encode() and write(). Each stage may run on a
+ * different thread, so everything a stage hands to the next is kept here.
+ * Closing the unit releases the resource data it holds.
+ * @author pmeade
+ */
+public class ExportUnit implements Closeable
+{
+    /**
+     * Construct an ExportUnit.
+     * @param job ExportJob the unit belongs to
+     * @param index index of the unit
+     * @param outputDir the output directory
+     */
+    public ExportUnit(ExportJob job, int index, File outputDir) {
+        this.job = job;
+        this.index = index;
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * Release the resource data loaded for the unit, if any. This should
+     * be called once the unit has been encoded; the encoded output is not
+     * released. Closing a unit more than once has no further effect.
+     */
+    @Override
+    public void close() {
+        if(resource != null) {
+            resource.close();
+            resource = null;
+        }
+    }
+
+    /**
+     * Run the provided action once the output of the unit has been
+     * written. If the output is written by an OutputWriter, this is
+     * after write() has returned, on another thread.
+     * @param action Runnable to be run once the output has been written
+     */
+    public void whenWritten(Runnable action) {
+        writtenActions.add(action);
+    }
+
+    /**
+     * Mark the output of the unit as written, running the actions provided
+     * to whenWritten(). This is called by ExportJob.write(), even if the
+     * output failed to be written; the actions should check failed.
+     */
+    public void written() {
+        for(Runnable action : writtenActions) {
+            action.run();
+        }
+        writtenActions.clear();
+    }
+
+    /**
+     * ExportJob the unit belongs to.
+     */
+    public final ExportJob job;
+
+    /**
+     * Index of the unit. A job that wraps another job may change this to
+     * the index of the unit in the wrapped job when the unit is loaded.
+     */
+    public int index;
+
+    /**
+     * The output directory.
+     */
+    public final File outputDir;
+
+    /**
+     * Resource loaded for the unit by the load stage, or null if the unit
+     * loads its resources while it is encoded.
+     */
+    public CacheResource resource;
+
+    /**
+     * Output of the unit produced by the encode stage, to be written to
+     * the output file by the write stage; null if there is nothing to be
+     * written.
+     */
+    public ByteArrayOutputStream output;
+
+    /**
+     * True, if the output is raw DEFLATE data rather than the bytes of the
+     * output file; see OutputWriter.acceptsDeflated().
+     */
+    public boolean deflated;
+
+    /**
+     * Size of the output file, once inflated, if the output is deflated.
+     */
+    public long outputSize;
+
+    /**
+     * CRC-32 of the output file, once inflated, if the output is deflated.
+     */
+    public long outputCrc;
+
+    /**
+     * OutputWriter to which the output is handed by the write stage,
+     * or null if the write stage writes the output file itself.
+     */
+    public OutputWriter writer;
+
+    /**
+     * True, if the unit was skipped when loaded, so that it should be
+     * neither encoded nor written.
+     */
+    public boolean skipped;
+
+    /**
+     * True, if any stage failed to export the unit. A failed unit is
+     * still marked as written, so that the actions waiting for it are
+     * run, but it is not recorded as exported.
+     */
+    public boolean failed;
+
+    /**
+     * Description of the inputs of the unit, as recorded in the export
+     * manifest once the unit has been written.
+     */
+    public String inputKey;
+
+    /**
+     * Measurements of the unit, carried from the thread of one stage to
+     * the next; null if metrics are not being collected.
+     */
+    public Metrics.Unit metrics;
+
+    /**
+     * The value returned by Metrics.beginUnit() when the unit was loaded.
+     */
+    public long metricsStart;
+
+    /**
+     * Actions to be run once the output of the unit has been written.
+     */
+    private final List<Runnable> writtenActions = new ArrayList();
+}
@@ -0,0 +1,175 @@
+/*
+ * IncrementalExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IncrementalExportJob wraps another ExportJob, skipping the units that
+ * the ExportManifest says are unchanged and recording the units that are
+ * exported. A unit that fails to be exported is left out of the manifest.
+ * @author pmeade
+ */
+public class IncrementalExportJob extends ExportJob
+{
+    /**
+     * Construct an IncrementalExportJob.
+     * @param job ExportJob to be wrapped
+     * @param manifest ExportManifest of the output directory
+     * @param skipUnchanged true, if unchanged units should be skipped;
+     *                      false, if every unit should be exported
+     */
+    public IncrementalExportJob(ExportJob job, ExportManifest manifest, boolean skipUnchanged) {
+        super(job.getName(), job.getDescription(), job.getArchive());
+        this.job = job;
+        this.manifest = manifest;
+        this.skipUnchanged = skipUnchanged;
+        this.skipped = new AtomicInteger();
+    }
+
+    /**
+     * Determine the number of units that were skipped because they were
+     * unchanged.
+     * @return the number of units skipped
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    @Override
+    public int size() {
+        return job.size();
+    }
+
+    @Override
+    public boolean export(int index, File outputDir) {
+        String inputKey = job.getInputKey(index);
+        File outputFile = job.getOutputFile(index, outputDir);
+        if(skipUnchanged && manifest.isUnchanged(job, index, inputKey, outputFile)) {
+            skipped.incrementAndGet();
+            return true;
+        }
+        if(job.export(index, outputDir) == false) {
+            manifest.forget(job, index);
+            return false;
+        }
+        manifest.record(job, index, inputKey, outputFile);
+        return true;
+    }
+
+    /**
+     * Load the provided unit, unless the ExportManifest says it is
+     * unchanged; then the unit is marked as skipped instead.
+     * @param unit ExportUnit to be loaded
+     */
+    @Override
+    public void load(ExportUnit unit) {
+        unit.inputKey = job.getInputKey(unit.index);
+        File outputFile = job.getOutputFile(unit.index, unit.outputDir);
+        if(skipUnchanged && manifest.isUnchanged(job, unit.index, unit.inputKey, outputFile)) {
+            skipped.incrementAndGet();
+            unit.skipped = true;
+            return;
+        }
+        job.load(unit);
+    }
+
+    @Override
+    public void encode(ExportUnit unit) {
+        if(unit.skipped == false) {
+            job.encode(unit);
+        }
+    }
+
+    /**
+     * Write the provided unit, unless it was skipped, and record it in
+     * the ExportManifest once its output file has been written. A unit
+     * that failed is not recorded, so it is exported again next time.
+     * @param unit ExportUnit to be written
+     */
+    @Override
+    public void write(final ExportUnit unit) {
+        if(unit.skipped) {
+            return;
+        }
+        unit.whenWritten(new Runnable() {
+            @Override
+            public void run() {
+                if(unit.failed) {
+                    manifest.forget(job, unit.index);
+                    return;
+                }
+                manifest.record(job, unit.index, unit.inputKey,
+                    job.getOutputFile(unit.index, unit.outputDir));
+            }
+        });
+        job.write(unit);
+    }
+
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return job.getOutputFile(index, outputDir);
+    }
+
+    @Override
+    public String getInputKey(int index) {
+        return job.getInputKey(index);
+    }
+
+    @Override
+    public String getContentKey(int index) {
+        return job.getContentKey(index);
+    }
+
+    @Override
+    public boolean sameInput(int index, int other) {
+        return job.sameInput(index, other);
+    }
+
+    @Override
+    public boolean selects(int index, ResourceSelector selector) {
+        return job.selects(index, selector);
+    }
+
+    @Override
+    public void close() {
+        job.close();
+    }
+
+    /**
+     * ExportJob being wrapped.
+     */
+    private final ExportJob job;
+
+    /**
+     * ExportManifest of the output directory.
+     */
+    private final ExportManifest manifest;
+
+    /**
+     * True, if unchanged units should be skipped.
+     */
+    private final boolean skipUnchanged;
+
+    /**
+     * Number of units skipped because they were unchanged.
+     */
+    private final AtomicInteger skipped;
+}
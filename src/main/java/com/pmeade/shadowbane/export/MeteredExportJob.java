@@ -0,0 +1,152 @@
+/*
+ * MeteredExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import com.pmeade.shadowbane.metrics.JobMetrics;
+import com.pmeade.shadowbane.metrics.Metrics;
+import java.io.File;
+
+/**
+ * MeteredExportJob wraps another ExportJob, measuring each unit it
+ * exports with Metrics. The stages of the unit (inflate, parse, write)
+ * measure themselves while it is exported; this class marks the start and
+ * end of the unit and records the size of its output. When the unit is
+ * exported in stages, the unit starts when it is loaded and ends when it
+ * is written.
+ * @author pmeade
+ */
+public class MeteredExportJob extends ExportJob
+{
+    /**
+     * Construct a MeteredExportJob.
+     * @param job ExportJob to be wrapped
+     */
+    public MeteredExportJob(ExportJob job) {
+        super(job.getName(), job.getDescription(), job.getArchive());
+        this.job = job;
+        this.metrics = Metrics.getJob(job.getName());
+    }
+
+    @Override
+    public int size() {
+        return job.size();
+    }
+
+    @Override
+    public boolean export(int index, File outputDir) {
+        long start = Metrics.beginUnit();
+        try {
+            return job.export(index, outputDir);
+        } finally {
+            File outputFile = job.getOutputFile(index, outputDir);
+            long outputBytes = (outputFile != null) ? outputFile.length() : 0;
+            Metrics.endUnit(metrics, start, outputBytes);
+        }
+    }
+
+    /**
+     * Load the provided unit, marking the start of the unit. The stages
+     * of a unit may run on different threads, so its measurements are
+     * carried by the unit from one stage to the next.
+     * @param unit ExportUnit to be loaded
+     */
+    @Override
+    public void load(ExportUnit unit) {
+        unit.metricsStart = Metrics.beginUnit();
+        try {
+            job.load(unit);
+        } finally {
+            unit.metrics = Metrics.suspendUnit();
+        }
+    }
+
+    @Override
+    public void encode(ExportUnit unit) {
+        Metrics.resumeUnit(unit.metrics);
+        try {
+            job.encode(unit);
+        } finally {
+            unit.metrics = Metrics.suspendUnit();
+        }
+    }
+
+    /**
+     * Write the provided unit, marking the end of the unit. If the output
+     * is handed to a WriteBehindWriter, the unit ends when it is handed
+     * over, and the time spent writing the file is not measured.
+     * @param unit ExportUnit to be written
+     */
+    @Override
+    public void write(ExportUnit unit) {
+        Metrics.resumeUnit(unit.metrics);
+        try {
+            job.write(unit);
+        } finally {
+            long outputBytes = 0;
+            if(unit.output != null) {
+                outputBytes = unit.output.size();
+            } else {
+                File outputFile = job.getOutputFile(unit.index, unit.outputDir);
+                outputBytes = (outputFile != null) ? outputFile.length() : 0;
+            }
+            Metrics.endUnit(metrics, unit.metricsStart, outputBytes);
+            unit.metrics = null;
+        }
+    }
+
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return job.getOutputFile(index, outputDir);
+    }
+
+    @Override
+    public String getInputKey(int index) {
+        return job.getInputKey(index);
+    }
+
+    @Override
+    public String getContentKey(int index) {
+        return job.getContentKey(index);
+    }
+
+    @Override
+    public boolean sameInput(int index, int other) {
+        return job.sameInput(index, other);
+    }
+
+    @Override
+    public boolean selects(int index, ResourceSelector selector) {
+        return job.selects(index, selector);
+    }
+
+    @Override
+    public void close() {
+        job.close();
+    }
+
+    /**
+     * ExportJob being wrapped.
+     */
+    private final ExportJob job;
+
+    /**
+     * JobMetrics in which the units are recorded.
+     */
+    private final JobMetrics metrics;
+}
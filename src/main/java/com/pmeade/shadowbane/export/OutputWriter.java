@@ -0,0 +1,91 @@
+/*
+ * OutputWriter.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+/**
+ * OutputWriter takes the encoded output of the units of an export, and
+ * writes it somewhere other than the thread that encoded it: to the
+ * output files on separate I/O threads (WriteBehindWriter), or into
+ * containers holding many output files (ContainerWriter).
+ * @author pmeade
+ */
+abstract public class OutputWriter
+{
+    /**
+     * Write the provided data as an output file, after this method has
+     * returned. This method may be called by many threads at once; it may
+     * wait if too much output is already waiting to be written.
+     * @param file File the output would be exported to
+     * @param data ByteArrayOutputStream containing the data of the file
+     * @param done Callback to be told once the output has been written,
+     *             or has failed to be
+     */
+    abstract public void write(File file, ByteArrayOutputStream data, Callback done);
+
+    /**
+     * Determine if output may be handed over as raw DEFLATE data, with
+     * writeDeflated(). By default, it may not.
+     * @return true, if writeDeflated() may be called
+     */
+    public boolean acceptsDeflated() {
+        return false;
+    }
+
+    /**
+     * Write the provided raw DEFLATE data as an output file, after this
+     * method has returned, without inflating it. This may only be called
+     * if acceptsDeflated() is true; by default, it throws
+     * UnsupportedOperationException.
+     * @param file File the output would be exported to
+     * @param data ByteArrayOutputStream containing the raw DEFLATE data
+     * @param size size of the output file, once inflated
+     * @param crc CRC-32 of the output file, once inflated
+     * @param done Callback to be told once the output has been written,
+     *             or has failed to be
+     */
+    public void writeDeflated(File file, ByteArrayOutputStream data, long size, long crc, Callback done) {
+        throw new UnsupportedOperationException(
+            getClass().getSimpleName() + " cannot write raw DEFLATE data");
+    }
+
+    /**
+     * Wait for all of the output handed to write() to be written, and
+     * release everything held by the writer. No more output may be
+     * written after this is called.
+     */
+    abstract public void close();
+
+    /**
+     * Callback is told when output handed to an OutputWriter has been
+     * written, or has failed to be.
+     */
+    public interface Callback
+    {
+        /**
+         * Called once the output has been written, or has failed to be.
+         * This may be called on another thread.
+         * @param written true, if the output was written; false, if it
+         *                could not be written
+         */
+        void done(boolean written);
+    }
+}
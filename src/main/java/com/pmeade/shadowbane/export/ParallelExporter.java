@@ -0,0 +1,145 @@
+/*
+ * ParallelExporter.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelExporter runs the units of several ExportJobs on a shared
+ * work-stealing thread pool. Every unit writes its own output files, so
+ * the output is the same as exporting each job one unit at a time.
+ * @author pmeade
+ */
+public class ParallelExporter
+{
+    /**
+     * Construct a ParallelExporter.
+     * @param threads number of worker threads in the pool
+     */
+    public ParallelExporter(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Set the OutputWriter to which the output of each unit is
+     * handed. By default, each unit writes its own output file.
+     * @param writer OutputWriter for the output, or null for none
+     */
+    public void setWriter(OutputWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Export all the units of the provided jobs. This method returns when
+     * every unit of every job has been exported.
+     * @param jobs list of ExportJobs to be exported
+     * @param outputDir the output directory
+     */
+    public void export(List<? extends ExportJob> jobs, File outputDir) {
+        List<RangeAction> actions = new ArrayList();
+        for(ExportJob job : jobs) {
+            actions.add(new RangeAction(job, outputDir, writer, 0, job.size()));
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new AllAction(actions));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * AllAction starts the RangeActions of every job at the same time,
+     * so that idle workers can steal units from any job.
+     */
+    private static class AllAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        public AllAction(List<RangeAction> actions) {
+            this.actions = actions;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(actions);
+        }
+
+        private final List<RangeAction> actions;
+    }
+
+    /**
+     * RangeAction exports a range of units from a job. The range is split
+     * in half until a single unit remains, which is then exported.
+     */
+    private static class RangeAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        public RangeAction(ExportJob job, File outputDir, OutputWriter writer, int start, int end) {
+            this.job = job;
+            this.outputDir = outputDir;
+            this.writer = writer;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start <= 1) {
+                if(end > start) {
+                    if(writer != null) {
+                        ExportUnit unit = new ExportUnit(job, start, outputDir);
+                        unit.writer = writer;
+                        job.export(unit);
+                    } else {
+                        job.export(start, outputDir);
+                    }
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(
+                new RangeAction(job, outputDir, writer, start, middle),
+                new RangeAction(job, outputDir, writer, middle, end)
+            );
+        }
+
+        private final ExportJob job;
+        private final File outputDir;
+        private final OutputWriter writer;
+        private final int start;
+        private final int end;
+    }
+
+    /**
+     * Number of worker threads in the pool.
+     */
+    private final int threads;
+
+    /**
+     * OutputWriter to which the output of each unit is handed, or
+     * null if each unit writes its own output file.
+     */
+    private OutputWriter writer;
+}
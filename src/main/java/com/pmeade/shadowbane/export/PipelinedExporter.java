@@ -0,0 +1,336 @@
+/*
+ * PipelinedExporter.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * PipelinedExporter exports the units of several ExportJobs in three
+ * stages, each with its own worker threads: load (read and inflate the
+ * resource data), encode (decode the resource and encode its output in
+ * memory) and write (write the output to its file). The stages are joined
+ * by bounded queues, so the disk keeps writing while the processors keep
+ * encoding, and no more than a few units per worker are held in memory.
+ * A unit that fails to be loaded or encoded is marked as failed and still
+ * passed to the write stage, so that the actions waiting for it are run.
+ * @author pmeade
+ */
+public class PipelinedExporter
+{
+    /**
+     * Construct a PipelinedExporter.
+     * @param loaders number of worker threads loading units
+     * @param encoders number of worker threads encoding units
+     * @param writers number of worker threads writing units
+     */
+    public PipelinedExporter(int loaders, int encoders, int writers) {
+        this.loaders = loaders;
+        this.encoders = encoders;
+        this.writers = writers;
+    }
+
+    /**
+     * Set the OutputWriter to which the write workers hand the output
+     * of each unit. By default, the write workers write the output files
+     * themselves.
+     * @param writer OutputWriter for the output, or null for none
+     */
+    public void setWriter(OutputWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Export all the units of the provided jobs. This method returns when
+     * every unit of every job has been written.
+     * @param jobs list of ExportJobs to be exported
+     * @param outputDir the output directory
+     */
+    public void export(List<? extends ExportJob> jobs, File outputDir) {
+        BlockingQueue<ExportUnit> loaded = new ArrayBlockingQueue(QUEUE_UNITS_PER_WORKER * encoders);
+        BlockingQueue<ExportUnit> encoded = new ArrayBlockingQueue(QUEUE_UNITS_PER_WORKER * writers);
+        UnitSource source = new UnitSource(jobs, outputDir, writer);
+
+        List<Thread> loadThreads = new ArrayList();
+        for(int i=0; i<loaders; i++) {
+            loadThreads.add(start(new LoadWorker(source, loaded), "load-" + i));
+        }
+        List<Thread> encodeThreads = new ArrayList();
+        for(int i=0; i<encoders; i++) {
+            encodeThreads.add(start(new EncodeWorker(loaded, encoded), "encode-" + i));
+        }
+        List<Thread> writeThreads = new ArrayList();
+        for(int i=0; i<writers; i++) {
+            writeThreads.add(start(new WriteWorker(encoded), "write-" + i));
+        }
+
+        // each stage is finished when the stage before it has finished
+        // and every one of its workers has taken the end of the queue
+        join(loadThreads);
+        finish(loaded, encoders);
+        join(encodeThreads);
+        finish(encoded, writers);
+        join(writeThreads);
+    }
+
+    /**
+     * Start a worker thread.
+     * @param worker Runnable worker to be run
+     * @param name name of the stage and worker (i.e.: "encode-0")
+     * @return the started Thread
+     */
+    private static Thread start(Runnable worker, String name) {
+        Thread thread = new Thread(worker, "PipelinedExporter-" + name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Wait for the provided worker threads to finish.
+     * @param threads list of worker threads
+     */
+    private static void join(List<Thread> threads) {
+        boolean interrupted = false;
+        for(Thread thread : threads) {
+            while(thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mark the end of a queue, once for each of the workers taking units
+     * from it.
+     * @param queue BlockingQueue to be ended
+     * @param workers number of workers taking units from the queue
+     */
+    private static void finish(BlockingQueue<ExportUnit> queue, int workers) {
+        for(int i=0; i<workers; i++) {
+            put(queue, END);
+        }
+    }
+
+    /**
+     * Put a unit on a queue, waiting for space if the queue is full.
+     * @param queue BlockingQueue on which the unit is put
+     * @param unit ExportUnit to be put on the queue
+     */
+    private static void put(BlockingQueue<ExportUnit> queue, ExportUnit unit) {
+        boolean interrupted = false;
+        while(true) {
+            try {
+                queue.put(unit);
+                break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Take a unit from a queue, waiting for one if the queue is empty.
+     * @param queue BlockingQueue from which the unit is taken
+     * @return ExportUnit taken from the queue
+     */
+    private static ExportUnit take(BlockingQueue<ExportUnit> queue) {
+        boolean interrupted = false;
+        ExportUnit unit;
+        while(true) {
+            try {
+                unit = queue.take();
+                break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return unit;
+    }
+
+    /**
+     * UnitSource hands out the units of every job, one job after another,
+     * to the load workers.
+     */
+    private static class UnitSource
+    {
+        public UnitSource(List<? extends ExportJob> jobs, File outputDir, OutputWriter writer) {
+            this.jobs = jobs;
+            this.outputDir = outputDir;
+            this.writer = writer;
+        }
+
+        public synchronized ExportUnit next() {
+            while(job < jobs.size()) {
+                ExportJob exportJob = jobs.get(job);
+                if(index < exportJob.size()) {
+                    ExportUnit unit = new ExportUnit(exportJob, index, outputDir);
+                    unit.writer = writer;
+                    index++;
+                    return unit;
+                }
+                job++;
+                index = 0;
+            }
+            return null;
+        }
+
+        private final List<? extends ExportJob> jobs;
+        private final File outputDir;
+        private final OutputWriter writer;
+        private int job;
+        private int index;
+    }
+
+    /**
+     * LoadWorker loads units from the UnitSource, and queues them to be
+     * encoded.
+     */
+    private static class LoadWorker implements Runnable
+    {
+        public LoadWorker(UnitSource source, BlockingQueue<ExportUnit> loaded) {
+            this.source = source;
+            this.loaded = loaded;
+        }
+
+        @Override
+        public void run() {
+            ExportUnit unit = source.next();
+            while(unit != null) {
+                try {
+                    unit.job.load(unit);
+                } catch(RuntimeException e) {
+                    e.printStackTrace(System.err);
+                    unit.close();
+                    unit.failed = true;
+                }
+                put(loaded, unit);
+                unit = source.next();
+            }
+        }
+
+        private final UnitSource source;
+        private final BlockingQueue<ExportUnit> loaded;
+    }
+
+    /**
+     * EncodeWorker encodes loaded units, releases their resource data,
+     * and queues them to be written.
+     */
+    private static class EncodeWorker implements Runnable
+    {
+        public EncodeWorker(BlockingQueue<ExportUnit> loaded, BlockingQueue<ExportUnit> encoded) {
+            this.loaded = loaded;
+            this.encoded = encoded;
+        }
+
+        @Override
+        public void run() {
+            ExportUnit unit = take(loaded);
+            while(unit != END) {
+                try {
+                    if(unit.failed == false) {
+                        unit.job.encode(unit);
+                    }
+                } catch(RuntimeException e) {
+                    e.printStackTrace(System.err);
+                    unit.failed = true;
+                    unit.output = null;
+                }
+                unit.close();
+                put(encoded, unit);
+                unit = take(loaded);
+            }
+        }
+
+        private final BlockingQueue<ExportUnit> loaded;
+        private final BlockingQueue<ExportUnit> encoded;
+    }
+
+    /**
+     * WriteWorker writes encoded units to their output files.
+     */
+    private static class WriteWorker implements Runnable
+    {
+        public WriteWorker(BlockingQueue<ExportUnit> encoded) {
+            this.encoded = encoded;
+        }
+
+        @Override
+        public void run() {
+            ExportUnit unit = take(encoded);
+            while(unit != END) {
+                try {
+                    unit.job.write(unit);
+                } catch(RuntimeException e) {
+                    e.printStackTrace(System.err);
+                }
+                unit = take(encoded);
+            }
+        }
+
+        private final BlockingQueue<ExportUnit> encoded;
+    }
+
+    /**
+     * Number of units each worker of a stage may have waiting for it in
+     * the queue before the stage feeding the queue must wait.
+     */
+    private static final int QUEUE_UNITS_PER_WORKER = 2;
+
+    /**
+     * Unit marking the end of a queue.
+     */
+    private static final ExportUnit END = new ExportUnit(null, -1, null);
+
+    /**
+     * Number of worker threads loading units.
+     */
+    private final int loaders;
+
+    /**
+     * Number of worker threads encoding units.
+     */
+    private final int encoders;
+
+    /**
+     * Number of worker threads writing units.
+     */
+    private final int writers;
+
+    /**
+     * OutputWriter to which the output of each unit is handed, or
+     * null if the write workers write the output files themselves.
+     */
+    private OutputWriter writer;
+}
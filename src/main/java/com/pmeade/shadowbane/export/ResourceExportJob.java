@@ -0,0 +1,116 @@
+/*
+ * ResourceExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import com.pmeade.shadowbane.CacheArchive;
+import com.pmeade.shadowbane.CacheResource;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * ResourceExportJob exports every resource of a cache archive, one
+ * resource per unit.
+ * @author pmeade
+ */
+public class ResourceExportJob extends ExportJob
+{
+    /**
+     * Construct a ResourceExportJob.
+     * @param name name of the job (i.e.: "Mesh")
+     * @param archive CacheArchive whose resources are exported
+     */
+    public ResourceExportJob(String name, CacheArchive archive) {
+        super(name, name + " resources", archive);
+    }
+
+    /**
+     * Construct a ResourceExportJob with its own description.
+     * @param name name of the job (i.e.: "Mesh")
+     * @param description description of the exported resources
+     * @param archive CacheArchive whose resources are exported
+     */
+    public ResourceExportJob(String name, String description, CacheArchive archive) {
+        super(name, description, archive);
+    }
+
+    @Override
+    public int size() {
+        return getArchive().size();
+    }
+
+    @Override
+    public boolean export(int index, File outputDir) {
+        return getArchive().export(index, outputDir);
+    }
+
+    /**
+     * Load the provided unit, acquiring its resource from the cache
+     * archive.
+     * @param unit ExportUnit to be loaded
+     */
+    @Override
+    public void load(ExportUnit unit) {
+        unit.resource = getArchive().acquire(unit.index);
+    }
+
+    /**
+     * Encode the resource of the provided unit in memory. If it can't be
+     * encoded, the unit is marked as failed.
+     * @param unit ExportUnit to be encoded
+     */
+    @Override
+    public void encode(ExportUnit unit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int)unit.resource.size);
+        try {
+            if(getArchive().encode(unit.resource, out)) {
+                unit.output = out;
+            }
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            unit.failed = true;
+        }
+    }
+
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return getArchive().getOutputFile(index, outputDir);
+    }
+
+    @Override
+    public String getContentKey(int index) {
+        return getArchive().getContentKey(index);
+    }
+
+    @Override
+    public boolean sameInput(int index, int other) {
+        return getArchive().sameData(index, other);
+    }
+
+    @Override
+    public String getInputKey(int index) {
+        CacheResource resource = getArchive().getResource(index);
+        CRC32 crc = new CRC32();
+        getArchive().updateChecksum(index, crc);
+        return String.format("%d\t%d\t%d\t%d\t%08x",
+            resource.id, resource.dataOffset, resource.size,
+            resource.zipSize, crc.getValue());
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * ResourceSelector.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import com.pmeade.shadowbane.CacheArchive;
+import com.pmeade.shadowbane.CacheResource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * ResourceSelector chooses which resources are exported. It selects by
+ * archive name, by ranges of resource indices, by resource ID, and by
+ * the (uncompressed) size of the resource. A resource must pass every
+ * kind of test that has been given; a ResourceSelector with no tests
+ * selects everything.
+ * @author pmeade
+ */
+public class ResourceSelector
+{
+    /**
+     * Select the archives with the provided names. The names are not
+     * case sensitive.
+     * @param names comma separated list of archive names (i.e.: "Mesh,Sound")
+     * @throws IllegalArgumentException if the list contains an empty name
+     */
+    public void addArchives(String names) {
+        for(String name : names.split(",", -1)) {
+            name = name.trim();
+            if(name.isEmpty()) {
+                throw new IllegalArgumentException("invalid archive name: '" + names + "'");
+            }
+            archives.add(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Select the resources with indices in the provided ranges. A range
+     * is a single index ("42"), a closed range ("10-20"), or a range that
+     * runs to the end of the archive ("100-").
+     * @param ranges comma separated list of index ranges (i.e.: "0-9,42")
+     * @throws IllegalArgumentException if a range could not be parsed
+     */
+    public void addIndexRanges(String ranges) {
+        for(String range : ranges.split(",", -1)) {
+            range = range.trim();
+            int dash = range.indexOf('-');
+            try {
+                int start, end;
+                if(dash < 0) {
+                    start = end = Integer.parseInt(range);
+                } else {
+                    start = Integer.parseInt(range.substring(0, dash));
+                    String last = range.substring(dash + 1);
+                    end = last.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(last);
+                }
+                if((start < 0) || (end < start)) {
+                    throw new NumberFormatException();
+                }
+                indexRanges.add(new int[] { start, end });
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("invalid index range: '" + range + "'");
+            }
+        }
+    }
+
+    /**
+     * Select the resources with the provided IDs.
+     * @param list comma separated list of resource IDs (i.e.: "1234,5678")
+     * @throws IllegalArgumentException if an ID could not be parsed
+     */
+    public void addIds(String list) {
+        String[] values = list.split(",", -1);
+        long[] more = Arrays.copyOf(ids, ids.length + values.length);
+        for(int i=0; i<values.length; i++) {
+            String value = values[i].trim();
+            try {
+                more[ids.length + i] = Long.parseLong(value);
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("invalid resource ID: '" + value + "'");
+            }
+            if((more[ids.length + i] < 0) || (more[ids.length + i] > 0xFFFFFFFFL)) {
+                throw new IllegalArgumentException("invalid resource ID: '" + value + "'");
+            }
+        }
+        Arrays.sort(more);
+        ids = more;
+    }
+
+    /**
+     * Select only the resources of at least the provided size.
+     * @param value minimum size, in bytes; a suffix of K, M or G may be
+     *              used for kilobytes, megabytes or gigabytes
+     * @throws IllegalArgumentException if the size could not be parsed
+     */
+    public void setMinSize(String value) {
+        minSize = parseSize(value);
+    }
+
+    /**
+     * Select only the resources of at most the provided size.
+     * @param value maximum size, in bytes; a suffix of K, M or G may be
+     *              used for kilobytes, megabytes or gigabytes
+     * @throws IllegalArgumentException if the size could not be parsed
+     */
+    public void setMaxSize(String value) {
+        maxSize = parseSize(value);
+    }
+
+    /**
+     * Determine if this selector selects every resource of a selected
+     * archive.
+     * @return true, if no index, ID or size test has been given
+     */
+    public boolean selectsAllResources() {
+        return indexRanges.isEmpty()
+            && (ids.length == 0)
+            && (minSize == 0)
+            && (maxSize == Long.MAX_VALUE);
+    }
+
+    /**
+     * Determine if the named archive is selected. Archives that are not
+     * selected need not be opened at all.
+     * @param name name of the archive (i.e.: "Mesh")
+     * @return true, if the archive is selected
+     */
+    public boolean selectsArchive(String name) {
+        return archives.isEmpty() || archives.contains(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Determine if the indicated resource is selected.
+     * @param archive CacheArchive containing the resource
+     * @param index index of the resource
+     * @return true, if the resource is selected
+     */
+    public boolean selects(CacheArchive archive, int index) {
+        if(indexRanges.isEmpty() == false) {
+            boolean inRange = false;
+            for(int[] range : indexRanges) {
+                if((index >= range[0]) && (index <= range[1])) {
+                    inRange = true;
+                    break;
+                }
+            }
+            if(inRange == false) {
+                return false;
+            }
+        }
+        if((ids.length == 0) && (minSize == 0) && (maxSize == Long.MAX_VALUE)) {
+            return true;
+        }
+        CacheResource resource = archive.getResource(index);
+        if((ids.length > 0) && (Arrays.binarySearch(ids, resource.id) < 0)) {
+            return false;
+        }
+        return (resource.size >= minSize) && (resource.size <= maxSize);
+    }
+
+    /**
+     * Parse a size, in bytes, with an optional K, M or G suffix.
+     * @param value String containing the size
+     * @return the size, in bytes
+     * @throws IllegalArgumentException if the size could not be parsed
+     */
+    private static long parseSize(String value) {
+        String digits = value.trim().toUpperCase(Locale.ROOT);
+        long scale = 1;
+        if(digits.endsWith("K")) {
+            scale = 1L << 10;
+        } else if(digits.endsWith("M")) {
+            scale = 1L << 20;
+        } else if(digits.endsWith("G")) {
+            scale = 1L << 30;
+        }
+        if(scale != 1) {
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        try {
+            long size = Long.parseLong(digits);
+            if(size >= 0) {
+                return size * scale;
+            }
+        } catch(NumberFormatException e) {
+            // handled below
+        }
+        throw new IllegalArgumentException("invalid size: '" + value + "'");
+    }
+
+    /**
+     * Names of the selected archives, in lower case; empty to select all.
+     */
+    private final Set<String> archives = new HashSet();
+
+    /**
+     * Selected ranges of resource indices, as {start, end} inclusive;
+     * empty to select all.
+     */
+    private final List<int[]> indexRanges = new ArrayList();
+
+    /**
+     * Selected resource IDs, sorted; empty to select all.
+     */
+    private long[] ids = new long[0];
+
+    /**
+     * Minimum size of a selected resource, in bytes.
+     */
+    private long minSize = 0;
+
+    /**
+     * Maximum size of a selected resource, in bytes.
+     */
+    private long maxSize = Long.MAX_VALUE;
+}
@@ -0,0 +1,123 @@
+/*
+ * SelectedExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * SelectedExportJob wraps another ExportJob, keeping only the units that
+ * a ResourceSelector selects. Unit i of this job is the i-th selected
+ * unit of the wrapped job, so the units that are not selected are never
+ * loaded, decoded or written.
+ * @author pmeade
+ */
+public class SelectedExportJob extends ExportJob
+{
+    /**
+     * Construct a SelectedExportJob.
+     * @param job ExportJob to be wrapped
+     * @param selector ResourceSelector choosing the units to keep
+     */
+    public SelectedExportJob(ExportJob job, ResourceSelector selector) {
+        super(job.getName(), job.getDescription(), job.getArchive());
+        this.job = job;
+        int[] selected = new int[job.size()];
+        int count = 0;
+        for(int i=0; i<job.size(); i++) {
+            if(job.selects(i, selector)) {
+                selected[count] = i;
+                count++;
+            }
+        }
+        this.units = Arrays.copyOf(selected, count);
+    }
+
+    @Override
+    public int size() {
+        return units.length;
+    }
+
+    @Override
+    public boolean export(int index, File outputDir) {
+        return job.export(units[index], outputDir);
+    }
+
+    /**
+     * Load the provided unit. The index of the unit is changed to the
+     * index of the selected unit in the wrapped job, which is used by
+     * every later stage.
+     * @param unit ExportUnit to be loaded
+     */
+    @Override
+    public void load(ExportUnit unit) {
+        unit.index = units[unit.index];
+        job.load(unit);
+    }
+
+    @Override
+    public void encode(ExportUnit unit) {
+        job.encode(unit);
+    }
+
+    @Override
+    public void write(ExportUnit unit) {
+        job.write(unit);
+    }
+
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return job.getOutputFile(units[index], outputDir);
+    }
+
+    @Override
+    public String getInputKey(int index) {
+        return job.getInputKey(units[index]);
+    }
+
+    @Override
+    public String getContentKey(int index) {
+        return job.getContentKey(units[index]);
+    }
+
+    @Override
+    public boolean sameInput(int index, int other) {
+        return job.sameInput(units[index], units[other]);
+    }
+
+    @Override
+    public boolean selects(int index, ResourceSelector selector) {
+        return job.selects(units[index], selector);
+    }
+
+    @Override
+    public void close() {
+        job.close();
+    }
+
+    /**
+     * ExportJob being wrapped.
+     */
+    private final ExportJob job;
+
+    /**
+     * Units of the wrapped job that were selected, in ascending order.
+     */
+    private final int[] units;
+}
@@ -0,0 +1,171 @@
+/*
+ * TarContainer.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TarContainer writes output files to a POSIX (ustar) tar file. A tar file
+ * has no index of its own, so an index file is written beside it when it
+ * is finished ("Mesh.tar.index"), listing the path, data offset and size
+ * of every entry, one per line, separated by tabs. The index allows any
+ * entry to be read from the tar file without reading the entries before
+ * it.
+ * @author pmeade
+ */
+public class TarContainer extends Container
+{
+    /** Size of a block of a tar file. */
+    public static final int BLOCK_SIZE = 512;
+
+    /** Suffix of the name of the index file of a tar file. */
+    public static final String INDEX_SUFFIX = ".index";
+
+    /**
+     * Construct a TarContainer, creating (or replacing) its file.
+     * @param file File of the tar file
+     * @throws IOException if the file could not be created
+     */
+    public TarContainer(File file) throws IOException {
+        super(file);
+        this.modified = System.currentTimeMillis() / 1000;
+        this.index = new ArrayList();
+    }
+
+    /**
+     * Prepare an output file to be appended to the tar file. Tar files
+     * are not compressed, so the data is used as-is.
+     * @param name name of the entry
+     * @param data ByteArrayOutputStream containing the data of the file
+     * @return Entry to be passed to append()
+     */
+    @Override
+    public Entry prepare(String name, ByteArrayOutputStream data) {
+        return new Entry(name, data, data.size());
+    }
+
+    /**
+     * Append a prepared entry to the end of the tar file: its header block,
+     * followed by its data, padded to a whole block.
+     * @param entry Entry returned by prepare()
+     * @throws IOException if the entry could not be written
+     */
+    @Override
+    public void append(Entry entry) throws IOException {
+        byte[] name = entry.name.getBytes(UTF8);
+        byte[] header = new byte[BLOCK_SIZE];
+        // names longer than 100 bytes are split at a '/' into a prefix
+        // (up to 155 bytes) and a name (up to 100 bytes)
+        int start = 0;
+        if(name.length > 100) {
+            for(int i=Math.min(name.length-1, 155); (i > 0) && (start == 0); i--) {
+                if((name[i] == '/') && (name.length - i - 1 <= 100)) {
+                    start = i + 1;
+                }
+            }
+            if(start == 0) {
+                throw new IOException("BAD MOJO: name too long for tar: " + entry.name);
+            }
+            System.arraycopy(name, 0, header, 345, start - 1);
+        }
+        System.arraycopy(name, start, header, 0, name.length - start);
+        octal(header, 100, 8, 0644);            // mode
+        octal(header, 108, 8, 0);               // uid
+        octal(header, 116, 8, 0);               // gid
+        octal(header, 124, 12, entry.size);     // size
+        octal(header, 136, 12, modified);       // mtime
+        header[156] = '0';                      // regular file
+        System.arraycopy(USTAR, 0, header, 257, USTAR.length);
+        int checksum = 0;
+        for(int i=0; i<BLOCK_SIZE; i++) {
+            // the checksum field itself counts as spaces
+            checksum += ((i >= 148) && (i < 156)) ? ' ' : (header[i] & 0xff);
+        }
+        octal(header, 148, 7, checksum);
+        header[155] = ' ';
+        write(header, 0, BLOCK_SIZE);
+        index.add(entry.name + "\t" + getPosition() + "\t" + entry.size);
+        write(entry.data);
+        int padding = (int)((BLOCK_SIZE - (entry.size % BLOCK_SIZE)) % BLOCK_SIZE);
+        write(new byte[padding], 0, padding);
+    }
+
+    /**
+     * Write the end of the tar file and close it, then write its index
+     * file.
+     * @throws IOException if the end or the index could not be written
+     */
+    @Override
+    public void finish() throws IOException {
+        // the end of the archive is marked by two empty blocks
+        write(new byte[2*BLOCK_SIZE], 0, 2*BLOCK_SIZE);
+        close();
+        File indexFile = new File(getFile().getPath() + INDEX_SUFFIX);
+        try(PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(indexFile), UTF8))) {
+            writer.print("# path\toffset\tsize\n");
+            for(String line : index) {
+                writer.print(line + "\n");
+            }
+            if(writer.checkError()) {
+                throw new IOException("Unable to write " + indexFile.getPath());
+            }
+        }
+    }
+
+    /**
+     * Write a number to a field of a tar header, as zero-padded octal
+     * digits followed by a NUL.
+     * @param header array containing the header
+     * @param offset offset of the field in the header
+     * @param length length of the field, including the NUL
+     * @param value number to be written
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int pad = length - 1 - digits.length();
+        for(int i=0; i<length-1; i++) {
+            header[offset+i] = (byte)((i < pad) ? '0' : digits.charAt(i - pad));
+        }
+        header[offset+length-1] = 0;
+    }
+
+    /**
+     * Magic and version of a POSIX tar header.
+     */
+    private static final byte[] USTAR = { 'u', 's', 't', 'a', 'r', 0, '0', '0' };
+
+    /**
+     * Modification time of every entry, in seconds since the epoch.
+     */
+    private final long modified;
+
+    /**
+     * Lines of the index file: the path, data offset and size of each
+     * appended entry.
+     */
+    private final List<String> index;
+}
@@ -0,0 +1,258 @@
+/*
+ * WriteBehindWriter.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * WriteBehindWriter writes output files on its own I/O threads, so that
+ * the threads that decode and encode the resources never wait for the
+ * file system. Output is handed over in memory and written later; the
+ * amount of output waiting to be written is limited, so a slow output
+ * directory holds back the encoders instead of filling the heap.
+ *
+ * Each I/O thread takes a batch of waiting files at a time. It writes
+ * every file of the batch, then (if requested) forces them all to disk,
+ * then closes them all. On network file systems, where closing a file
+ * waits for the server, the closes of a batch are handled together
+ * rather than one after every file. Once a file has been closed, the
+ * action provided with it is run, on the I/O thread.
+ * @author pmeade
+ */
+public class WriteBehindWriter extends OutputWriter
+{
+    /**
+     * Construct a WriteBehindWriter, and start its I/O threads.
+     * @param threads number of I/O threads
+     * @param maxPendingBytes number of bytes of output that may be waiting
+     *                        to be written before write() must wait
+     * @param sync true, if written files should be forced to disk before
+     *             they are closed
+     */
+    public WriteBehindWriter(int threads, long maxPendingBytes, boolean sync) {
+        this.maxPendingBytes = maxPendingBytes;
+        this.sync = sync;
+        this.queue = new LinkedBlockingQueue();
+        this.threads = new ArrayList();
+        for(int i=0; i<threads; i++) {
+            Thread thread = new Thread(new IoWorker(), "WriteBehindWriter-" + i);
+            thread.start();
+            this.threads.add(thread);
+        }
+    }
+
+    /**
+     * Write the provided data to a file, after this method has returned.
+     * If too much output is already waiting to be written, this method
+     * waits until there is room for it.
+     * @param file File to be written; its directory is created if needed
+     * @param data ByteArrayOutputStream containing the data of the file
+     * @param done Callback to be told once the file has been written and
+     *             closed, or has failed to be
+     */
+    @Override
+    public void write(File file, ByteArrayOutputStream data, Callback done) {
+        long size = data.size();
+        boolean interrupted = false;
+        synchronized(this) {
+            // a file larger than the limit is let through on its own
+            while((pendingBytes > 0) && (pendingBytes + size > maxPendingBytes)) {
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            pendingBytes += size;
+        }
+        queue.add(new Request(file, data, done));
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for every file handed to write() to be written, then stop the
+     * I/O threads. No more files may be written after this is called.
+     */
+    @Override
+    public void close() {
+        queue.add(END);
+        boolean interrupted = false;
+        for(Thread thread : threads) {
+            while(thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write a batch of files: write them all, force them all to disk if
+     * requested, close them all, and then tell their callbacks. A file
+     * that failed at any step is deleted, rather than left partly written.
+     * @param batch list of Requests to be written
+     */
+    private void writeBatch(List<Request> batch) {
+        FileOutputStream[] streams = new FileOutputStream[batch.size()];
+        boolean[] written = new boolean[batch.size()];
+        for(int i=0; i<batch.size(); i++) {
+            Request request = batch.get(i);
+            try {
+                request.file.getParentFile().mkdirs();
+                streams[i] = new FileOutputStream(request.file);
+                request.data.writeTo(streams[i]);
+                written[i] = true;
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        if(sync) {
+            for(int i=0; i<streams.length; i++) {
+                if(written[i]) {
+                    try {
+                        streams[i].getChannel().force(true);
+                    } catch(IOException e) {
+                        System.err.println(e.getMessage());
+                        written[i] = false;
+                    }
+                }
+            }
+        }
+        long size = 0;
+        for(int i=0; i<streams.length; i++) {
+            Request request = batch.get(i);
+            if(streams[i] != null) {
+                try {
+                    streams[i].close();
+                } catch(IOException e) {
+                    System.err.println(e.getMessage());
+                    written[i] = false;
+                }
+                if(written[i] == false) {
+                    request.file.delete();
+                }
+            }
+            size += request.data.size();
+        }
+        synchronized(this) {
+            pendingBytes -= size;
+            notifyAll();
+        }
+        for(int i=0; i<batch.size(); i++) {
+            try {
+                batch.get(i).done.done(written[i]);
+            } catch(RuntimeException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    /**
+     * Request is a file waiting to be written.
+     */
+    private static class Request
+    {
+        public Request(File file, ByteArrayOutputStream data, Callback done) {
+            this.file = file;
+            this.data = data;
+            this.done = done;
+        }
+
+        private final File file;
+        private final ByteArrayOutputStream data;
+        private final Callback done;
+    }
+
+    /**
+     * IoWorker takes batches of Requests from the queue and writes them,
+     * until it finds the end of the queue.
+     */
+    private class IoWorker implements Runnable
+    {
+        @Override
+        public void run() {
+            List<Request> batch = new ArrayList();
+            boolean finished = false;
+            while(finished == false) {
+                try {
+                    batch.add(queue.take());
+                } catch(InterruptedException e) {
+                    continue;
+                }
+                queue.drainTo(batch, MAX_BATCH_FILES - 1);
+                if(batch.remove(END)) {
+                    // leave the end of the queue for the other workers
+                    queue.add(END);
+                    finished = true;
+                }
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Largest number of files written in one batch.
+     */
+    private static final int MAX_BATCH_FILES = 64;
+
+    /**
+     * Request marking the end of the queue.
+     */
+    private static final Request END = new Request(null, null, null);
+
+    /**
+     * Number of bytes of output that may be waiting to be written.
+     */
+    private final long maxPendingBytes;
+
+    /**
+     * True, if written files are forced to disk before they are closed.
+     */
+    private final boolean sync;
+
+    /**
+     * Files waiting to be written.
+     */
+    private final BlockingQueue<Request> queue;
+
+    /**
+     * The I/O threads.
+     */
+    private final List<Thread> threads;
+
+    /**
+     * Number of bytes of output waiting to be written.
+     */
+    private long pendingBytes;
+}
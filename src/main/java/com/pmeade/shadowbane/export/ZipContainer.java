@@ -0,0 +1,331 @@
+/*
+ * ZipContainer.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * ZipContainer writes output files to a zip file. The entries are
+ * compressed by prepare(), on the threads that encoded them, so the thread
+ * appending the entries only copies bytes. PNG images are already
+ * compressed, and raw resources (".bin") that the cache archive stores
+ * without compression aren't worth compressing either, so they are stored
+ * as-is. Raw DEFLATE data copied from the cache archive can be added with
+ * prepareDeflated(), without compressing it again. The central directory at the end
+ * of the zip file is the index of the container; ZIP64 records are added
+ * when the zip file grows past 4 GB or 65535 entries.
+ * @author pmeade
+ */
+public class ZipContainer extends Container
+{
+    /** Compression method of entries stored as-is. */
+    public static final int STORED = 0;
+
+    /** Compression method of entries compressed with DEFLATE. */
+    public static final int DEFLATED = 8;
+
+    /**
+     * Construct a ZipContainer, creating (or replacing) its file.
+     * @param file File of the zip file
+     * @throws IOException if the file could not be created
+     */
+    public ZipContainer(File file) throws IOException {
+        super(file);
+        Calendar now = Calendar.getInstance();
+        this.dosTime = (now.get(Calendar.HOUR_OF_DAY) << 11)
+            | (now.get(Calendar.MINUTE) << 5)
+            | (now.get(Calendar.SECOND) >> 1);
+        this.dosDate = ((now.get(Calendar.YEAR) - 1980) << 9)
+            | ((now.get(Calendar.MONTH) + 1) << 5)
+            | now.get(Calendar.DAY_OF_MONTH);
+        this.directory = new ArrayList();
+    }
+
+    /**
+     * Prepare an output file to be appended to the zip file, compressing
+     * it unless it is already compressed.
+     * @param name name of the entry
+     * @param data ByteArrayOutputStream containing the data of the file
+     * @return Entry to be passed to append()
+     */
+    @Override
+    public Entry prepare(String name, ByteArrayOutputStream data) {
+        CRC32 crc = new CRC32();
+        Entry entry = null;
+        try {
+            if(isCompressible(name)) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.size() / 2);
+                Deflater deflater = DEFLATER.get();
+                deflater.reset();
+                DeflaterOutputStream dos = new DeflaterOutputStream(compressed, deflater, DEFLATE_BUFFER_SIZE);
+                data.writeTo(new CheckedOutputStream(dos, crc));
+                dos.finish();
+                if(compressed.size() < data.size()) {
+                    entry = new Entry(name, compressed, data.size());
+                    entry.method = DEFLATED;
+                }
+            } else {
+                data.writeTo(new CheckedOutputStream(DISCARD, crc));
+            }
+        } catch(IOException e) {
+            // streams in memory do not throw IOException
+            throw new IllegalStateException(e);
+        }
+        if(entry == null) {
+            entry = new Entry(name, data, data.size());
+            entry.method = STORED;
+        }
+        entry.crc = crc.getValue();
+        return entry;
+    }
+
+    /**
+     * Prepare raw DEFLATE data to be appended to the zip file as-is. This
+     * may be called by many threads at once.
+     * @param name name of the entry
+     * @param data ByteArrayOutputStream containing the raw DEFLATE data
+     * @param size size of the file, once inflated
+     * @param crc CRC-32 of the file, once inflated
+     * @return Entry to be passed to append()
+     */
+    public Entry prepareDeflated(String name, ByteArrayOutputStream data, long size, long crc) {
+        Entry entry = new Entry(name, data, size);
+        entry.method = DEFLATED;
+        entry.crc = crc;
+        return entry;
+    }
+
+    /**
+     * Append a prepared entry to the end of the zip file: its local file
+     * header, followed by its data.
+     * @param entry Entry returned by prepare()
+     * @throws IOException if the entry could not be written
+     */
+    @Override
+    public void append(Entry entry) throws IOException {
+        byte[] name = entry.name.getBytes(UTF8);
+        DirectoryEntry record = new DirectoryEntry(entry, name, getPosition());
+        ByteBuffer header = header(30 + name.length);
+        header.putInt(LOCAL_FILE_HEADER);
+        header.putShort((short)VERSION);
+        header.putShort((short)FLAG_UTF8);
+        header.putShort((short)entry.method);
+        header.putShort((short)dosTime);
+        header.putShort((short)dosDate);
+        header.putInt((int)entry.crc);
+        header.putInt(entry.data.size());
+        header.putInt((int)entry.size);
+        header.putShort((short)name.length);
+        header.putShort((short)0);
+        header.put(name);
+        write(header);
+        write(entry.data);
+        directory.add(record);
+    }
+
+    /**
+     * Write the central directory of the zip file, and close it.
+     * @throws IOException if the central directory could not be written
+     */
+    @Override
+    public void finish() throws IOException {
+        long directoryOffset = getPosition();
+        for(DirectoryEntry record : directory) {
+            boolean zip64 = (record.offset >= MAX_32);
+            ByteBuffer header = header(46 + record.name.length + (zip64 ? 12 : 0));
+            header.putInt(CENTRAL_FILE_HEADER);
+            header.putShort((short)(zip64 ? VERSION_ZIP64 : VERSION));
+            header.putShort((short)(zip64 ? VERSION_ZIP64 : VERSION));
+            header.putShort((short)FLAG_UTF8);
+            header.putShort((short)record.method);
+            header.putShort((short)dosTime);
+            header.putShort((short)dosDate);
+            header.putInt((int)record.crc);
+            header.putInt((int)record.compressedSize);
+            header.putInt((int)record.size);
+            header.putShort((short)record.name.length);
+            header.putShort((short)(zip64 ? 12 : 0));
+            header.putShort((short)0);     // comment length
+            header.putShort((short)0);     // disk number
+            header.putShort((short)0);     // internal attributes
+            header.putInt(0);              // external attributes
+            header.putInt((int)(zip64 ? MAX_32 : record.offset));
+            header.put(record.name);
+            if(zip64) {
+                header.putShort((short)ZIP64_EXTRA);
+                header.putShort((short)8);
+                header.putLong(record.offset);
+            }
+            write(header);
+        }
+        long directorySize = getPosition() - directoryOffset;
+        long entries = directory.size();
+        if((entries >= MAX_16) || (directoryOffset >= MAX_32) || (directorySize >= MAX_32)) {
+            long zip64Offset = getPosition();
+            ByteBuffer header = header(56 + 20);
+            header.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+            header.putLong(44);
+            header.putShort((short)VERSION_ZIP64);
+            header.putShort((short)VERSION_ZIP64);
+            header.putInt(0);
+            header.putInt(0);
+            header.putLong(entries);
+            header.putLong(entries);
+            header.putLong(directorySize);
+            header.putLong(directoryOffset);
+            header.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR);
+            header.putInt(0);
+            header.putLong(zip64Offset);
+            header.putInt(1);
+            write(header);
+        }
+        ByteBuffer header = header(22);
+        header.putInt(END_OF_CENTRAL_DIRECTORY);
+        header.putShort((short)0);
+        header.putShort((short)0);
+        header.putShort((short)Math.min(entries, MAX_16));
+        header.putShort((short)Math.min(entries, MAX_16));
+        header.putInt((int)Math.min(directorySize, MAX_32));
+        header.putInt((int)Math.min(directoryOffset, MAX_32));
+        header.putShort((short)0);
+        write(header);
+        close();
+    }
+
+    /**
+     * Determine if an output file is worth compressing.
+     * @param name name of the entry
+     * @return true, if the file should be compressed
+     */
+    private static boolean isCompressible(String name) {
+        return (name.endsWith(".png") == false) && (name.endsWith(".bin") == false);
+    }
+
+    /**
+     * DirectoryEntry is the record of an appended entry, kept until the
+     * central directory is written.
+     */
+    private static class DirectoryEntry
+    {
+        public DirectoryEntry(Entry entry, byte[] name, long offset) {
+            this.name = name;
+            this.method = entry.method;
+            this.crc = entry.crc;
+            this.compressedSize = entry.data.size();
+            this.size = entry.size;
+            this.offset = offset;
+        }
+
+        private final byte[] name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+    }
+
+    /** Signature of a local file header. */
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    /** Signature of a central directory file header. */
+    private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+
+    /** Signature of the end of central directory record. */
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    /** Signature of the ZIP64 end of central directory record. */
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+
+    /** Signature of the ZIP64 end of central directory locator. */
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+
+    /** Header ID of the ZIP64 extended information extra field. */
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    /** Version of the zip format needed to extract an entry. */
+    private static final int VERSION = 20;
+
+    /** Version of the zip format needed to extract a ZIP64 entry. */
+    private static final int VERSION_ZIP64 = 45;
+
+    /** General purpose flag marking the names as UTF-8. */
+    private static final int FLAG_UTF8 = 0x0800;
+
+    /** Largest value of a 16-bit field; larger values need ZIP64. */
+    private static final long MAX_16 = 0xffffL;
+
+    /** Largest value of a 32-bit field; larger values need ZIP64. */
+    private static final long MAX_32 = 0xffffffffL;
+
+    /** Size of the buffer used to compress an entry. */
+    private static final int DEFLATE_BUFFER_SIZE = 0x10000;
+
+    /**
+     * OutputStream that discards everything written to it; used to take
+     * the CRC-32 of stored entries.
+     */
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+            // discarded
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // discarded
+        }
+    };
+
+    /**
+     * Deflater used to compress entries on each thread. The entries are
+     * raw DEFLATE data, without a zlib header.
+     */
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    /**
+     * Modification time of every entry, in MS-DOS format.
+     */
+    private final int dosTime;
+
+    /**
+     * Modification date of every entry, in MS-DOS format.
+     */
+    private final int dosDate;
+
+    /**
+     * Records of the appended entries, in order.
+     */
+    private final List<DirectoryEntry> directory;
+}
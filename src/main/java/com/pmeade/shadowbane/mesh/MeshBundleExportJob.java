@@ -0,0 +1,338 @@
+/*
+ * MeshBundleExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.mesh;
+
+import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.export.ExportJob;
+import com.pmeade.shadowbane.export.ResourceSelector;
+import com.pmeade.shadowbane.metrics.Metrics;
+import com.pmeade.shadowbane.util.AsciiWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * MeshBundleExportJob exports all of the Mesh resources together, as a
+ * bundle that Blender can import in one go. The vertices and triangle
+ * indices of every mesh are packed into two binary files, exactly as
+ * they are stored in the resources, and an index file gives the offset
+ * and count of each mesh's vertices and indices. A single Blender Python
+ * script loads the three files with numpy.fromfile() and builds every
+ * mesh with foreach_set(), instead of evaluating one huge script per
+ * mesh.
+ *
+ * The bundle is a single unit, written straight to the "Mesh" directory
+ * of the output directory. It holds only the meshes selected on the
+ * command line, and it is written again if any of them changes.
+ * @author pmeade
+ */
+public class MeshBundleExportJob extends ExportJob
+{
+    /** Name of the file holding the vertices of every mesh. */
+    public static final String VERTICES_FILE = "Meshes.vertices.bin";
+
+    /** Name of the file holding the triangle indices of every mesh. */
+    public static final String INDICES_FILE = "Meshes.indices.bin";
+
+    /** Name of the file holding the offset index of the meshes. */
+    public static final String INDEX_FILE = "Meshes.index.bin";
+
+    /** Name of the Blender Python script importing the meshes. */
+    public static final String SCRIPT_FILE = "Meshes.py";
+
+    /**
+     * Number of little-endian longs in each record of the index file:
+     * resource index, resource ID, first vertex, vertex count, first
+     * triangle index and triangle index count.
+     */
+    public static final int INDEX_FIELDS = 6;
+
+    /**
+     * Blender Python script importing the meshes of a bundle. It needs
+     * Blender 2.80 or later, which comes with NumPy.
+     */
+    public static final String[] SCRIPT = new String[] {
+        "#-----------------------------------------------------------------------",
+        "# File: " + SCRIPT_FILE,
+        "#-----------------------------------------------------------------------",
+        "# Contains data from Shadowbane, published by Ubisoft, Inc.",
+        "# Shadowbane is Copyright 2002-2004 Wolfpack Studios, Inc.",
+        "#-----------------------------------------------------------------------",
+        "",
+        "import os",
+        "import bpy",
+        "import numpy",
+        "",
+        "# directory holding the bundle; change this if the script is moved",
+        "BUNDLE_DIR = os.path.dirname(os.path.abspath(__file__))",
+        "",
+        "def load(name, dtype):",
+        "    return numpy.fromfile(os.path.join(BUNDLE_DIR, name), dtype=dtype)",
+        "",
+        "def createMesh(name, verts, indices):",
+        "    me = bpy.data.meshes.new(name + 'Mesh')",
+        "    me.vertices.add(len(verts) // 3)",
+        "    me.vertices.foreach_set('co', verts)",
+        "    me.loops.add(len(indices))",
+        "    me.loops.foreach_set('vertex_index', indices.astype(numpy.int32))",
+        "    faces = len(indices) // 3",
+        "    me.polygons.add(faces)",
+        "    me.polygons.foreach_set('loop_start', numpy.arange(0, faces * 3, 3, dtype=numpy.int32))",
+        "    if bpy.app.version < (4, 0, 0):",
+        "        me.polygons.foreach_set('loop_total', numpy.full(faces, 3, dtype=numpy.int32))",
+        "    me.update(calc_edges=True)",
+        "    me.validate()",
+        "    return me",
+        "",
+        "def run():",
+        "    index = load('" + INDEX_FILE + "', '<i8').reshape(-1, " + INDEX_FIELDS + ")",
+        "    verts = load('" + VERTICES_FILE + "', '<f4')",
+        "    indices = load('" + INDICES_FILE + "', '<u2')",
+        "    collection = bpy.data.collections.new('Shadowbane Meshes')",
+        "    bpy.context.scene.collection.children.link(collection)",
+        "    for resIndex, resId, firstVert, numVerts, firstIndex, numIndices in index:",
+        "        name = 'Mesh_%05d_%08d' % (resIndex, resId)",
+        "        me = createMesh(name,",
+        "            verts[firstVert * 3:(firstVert + numVerts) * 3],",
+        "            indices[firstIndex:firstIndex + numIndices])",
+        "        collection.objects.link(bpy.data.objects.new(name, me))",
+        "",
+        "if __name__ == \"__main__\":",
+        "    run()",
+        ""
+    };
+
+    /**
+     * Length of the buffer between the bundle and each of its files (64 KB).
+     */
+    private static final int BUFFER_SIZE = 0x10000;
+
+    /**
+     * Suffix of the temporary names the files of the bundle are written
+     * under, until all of them are complete.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Construct a MeshBundleExportJob.
+     * @param meshCache MeshCache containing the Mesh resources
+     * @param selector ResourceSelector choosing the meshes in the bundle
+     */
+    public MeshBundleExportJob(MeshCache meshCache, ResourceSelector selector) {
+        super("MeshBundle", "Mesh bundle", meshCache);
+        this.meshCache = meshCache;
+        this.selector = selector;
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+
+    /**
+     * Export the bundle: the vertices, triangle indices and offset index
+     * of the selected meshes, and the script importing them. Meshes
+     * without faces are left out. The old script is deleted first, and
+     * the files are written under temporary names and renamed once all
+     * of them are complete, so a failed export never leaves a script
+     * beside a truncated bundle.
+     * @param index index of the unit; always 0
+     * @param outputDir the output directory
+     * @return true, if the bundle was exported; false, if the export failed
+     */
+    @Override
+    public boolean export(int index, File outputDir) {
+        File bundleDir = new File(outputDir, "Mesh");
+        bundleDir.mkdirs();
+        File scriptFile = getOutputFile(index, outputDir);
+        scriptFile.delete();
+        File[] files = new File[] {
+            new File(bundleDir, VERTICES_FILE),
+            new File(bundleDir, INDICES_FILE),
+            new File(bundleDir, INDEX_FILE),
+            scriptFile
+        };
+        File[] tempFiles = new File[files.length];
+        for(int i=0; i<files.length; i++) {
+            tempFiles[i] = new File(bundleDir, files[i].getName() + TEMP_SUFFIX);
+        }
+        try {
+            writeMeshes(tempFiles[0], tempFiles[1], tempFiles[2]);
+            writeScript(tempFiles[3]);
+            // the script goes last; once it is in place, the bundle is complete
+            for(int i=0; i<files.length; i++) {
+                Files.move(tempFiles[i].toPath(), files[i].toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            for(File tempFile : tempFiles) {
+                tempFile.delete();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determine the file the bundle is exported to. The bundle is made of
+     * several files; this is the script, which is written last.
+     * @param index index of the unit; always 0
+     * @param outputDir the output directory
+     * @return File of the script importing the bundle
+     */
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return new File(new File(outputDir, "Mesh"), SCRIPT_FILE);
+    }
+
+    @Override
+    public String getInputKey(int index) {
+        int count = 0;
+        long size = 0;
+        long zipSize = 0;
+        CRC32 crc = new CRC32();
+        for(int i=0; i<meshCache.size(); i++) {
+            if(selects(i)) {
+                CacheResource resource = meshCache.getResource(i);
+                count++;
+                size += resource.size;
+                zipSize += resource.zipSize;
+                meshCache.updateChecksum(i, crc);
+            }
+        }
+        return String.format("%d\t%d\t%d\t%08x", count, size, zipSize, crc.getValue());
+    }
+
+    /**
+     * Determine if the bundle is selected. The bundle is selected if any
+     * of the Mesh resources it is made from is selected.
+     * @param index index of the unit; always 0
+     * @param selector ResourceSelector choosing the resources to export
+     * @return true, if the bundle should be exported
+     */
+    @Override
+    public boolean selects(int index, ResourceSelector selector) {
+        for(int i=0; i<meshCache.size(); i++) {
+            if(selector.selects(meshCache, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determine if the indicated Mesh resource belongs in the bundle.
+     * @param index index of the Mesh resource
+     * @return true, if the mesh was selected
+     */
+    private boolean selects(int index) {
+        return selector.selectsAllResources() || selector.selects(meshCache, index);
+    }
+
+    /**
+     * Write the vertices, triangle indices and offset index of the
+     * selected meshes to the provided files.
+     * @param vertexFile File to which the vertices are written
+     * @param indexFile File to which the triangle indices are written
+     * @param recordFile File to which the offset index is written
+     * @throws IOException if the files could not be written
+     */
+    private void writeMeshes(File vertexFile, File indexFile, File recordFile) throws IOException {
+        try(OutputStream vertexOut = open(vertexFile);
+            OutputStream indexOut = open(indexFile);
+            OutputStream recordOut = open(recordFile)) {
+            WritableByteChannel vertexChannel = Channels.newChannel(vertexOut);
+            WritableByteChannel indexChannel = Channels.newChannel(indexOut);
+            ByteBuffer record = ByteBuffer.allocate(INDEX_FIELDS * 8);
+            record.order(ByteOrder.LITTLE_ENDIAN);
+            long vertexCount = 0;
+            long indexCount = 0;
+            for(int i=0; i<meshCache.size(); i++) {
+                if(selects(i) == false) {
+                    continue;
+                }
+                try(CacheResource resource = meshCache.acquire(i)) {
+                    MeshResource mesh = new MeshResource(resource);
+                    long start = Metrics.start();
+                    mesh.read();
+                    Metrics.stop(Metrics.Stage.PARSE, start, resource.size, 0);
+                    if(mesh.getIndexCount() == 0) {
+                        continue;
+                    }
+                    vertexChannel.write(mesh.getVertexBytes());
+                    indexChannel.write(mesh.getIndexBytes());
+                    record.clear();
+                    record.putLong(resource.index);
+                    record.putLong(resource.id);
+                    record.putLong(vertexCount);
+                    record.putLong(mesh.getVertexCount());
+                    record.putLong(indexCount);
+                    record.putLong(mesh.getIndexCount());
+                    recordOut.write(record.array());
+                    vertexCount += mesh.getVertexCount();
+                    indexCount += mesh.getIndexCount();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the Blender Python script importing the bundle to the
+     * provided file.
+     * @param file File to which the script is written
+     * @throws IOException if the script could not be written
+     */
+    private static void writeScript(File file) throws IOException {
+        try(AsciiWriter writer = new AsciiWriter(open(file))) {
+            for(String line : SCRIPT) {
+                writer.println(line);
+            }
+        }
+    }
+
+    /**
+     * Open one of the files of the bundle for writing.
+     * @param file File to be written
+     * @return buffered OutputStream writing the file
+     * @throws IOException if the file could not be opened
+     */
+    private static OutputStream open(File file) throws IOException {
+        return new BufferedOutputStream(Metrics.meter(new FileOutputStream(file)), BUFFER_SIZE);
+    }
+
+    /**
+     * MeshCache containing the Mesh resources of the bundle.
+     */
+    private final MeshCache meshCache;
+
+    /**
+     * ResourceSelector choosing the meshes in the bundle.
+     */
+    private final ResourceSelector selector;
+}
@@ -21,60 +21,169 @@ package com.pmeade.shadowbane.mesh;
 import com.pmeade.shadowbane.CacheArchive;
 import com.pmeade.shadowbane.CacheResource;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * MeshCache represents "Mesh.cache", the cache archive containing
  * Mesh resources. This class provides a method to export a mesh
- * resource to a file.
+ * resource to a file, either as a Blender Python script or as binary
+ * glTF. Meshes exported for NumPy are exported all together, by a
+ * MeshBundleExportJob.
  * @author pmeade
  */
 public class MeshCache extends CacheArchive
 {
+    /** Format of meshes exported as Blender Python scripts. */
+    public static final String PYTHON = "py";
+
+    /** Format of meshes exported as binary glTF. */
+    public static final String GLB = "glb";
+
+    /** Format of meshes exported as a bundle, imported with NumPy. */
+    public static final String NUMPY = "numpy";
+
     /**
-     * Construct a MeshCache archive.
+     * Construct a MeshCache archive, exporting Blender Python scripts.
      * @param cacheDir the cache directory, where Mesh.cache is located
      */
     public MeshCache(File cacheDir) {
+        this(cacheDir, PYTHON);
+    }
+
+    /**
+     * Construct a MeshCache archive.
+     * @param cacheDir the cache directory, where Mesh.cache is located
+     * @param format format of the exported meshes, PYTHON, GLB or NUMPY
+     * @throws IllegalArgumentException if the format is not PYTHON, GLB
+     *                                  or NUMPY
+     */
+    public MeshCache(File cacheDir, String format) {
         super(new File(cacheDir, "Mesh.cache"));
+        checkFormat(format);
+        this.format = format;
         read();
     }
 
     /**
-     * Determine the number of resources present in the mesh cache.
-     * @return the number of resources present in the mesh cache
+     * Check the format of the exported meshes.
+     * @param format format of the exported meshes
+     * @throws IllegalArgumentException if the format is not PYTHON, GLB
+     *                                  or NUMPY
      */
-    public int size() {
-        return resources.size();
+    public static void checkFormat(String format) {
+        if((PYTHON.equals(format) == false) && (GLB.equals(format) == false)
+                && (NUMPY.equals(format) == false)) {
+            throw new IllegalArgumentException("invalid mesh format: '" + format + "'");
+        }
     }
 
     /**
      * Export the indicated resource to a file.
      * @param index index of the resource to be exported
      * @param outputDir the output directory
+     * @return true, if the mesh was exported, or has no faces to export;
+     *         false, if the export failed
      */
-    public void export(int index, File outputDir) {
+    @Override
+    public boolean export(int index, File outputDir) {
         File resourceDir = new File(outputDir, "Mesh");
         resourceDir.mkdir();
-        CacheResource resource = resources.get(index);
-        loadResource(resource);
+        try(CacheResource resource = acquire(index)) {
+            MeshResource mesh = new MeshResource(resource);
+            if(GLB.equals(format)) {
+                mesh.exportToGlb(resourceDir);
+            } else {
+                mesh.exportToBlenderPython(resourceDir);
+            }
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encode the provided resource as a Blender Python script or binary
+     * glTF, depending on the format.
+     * @param resource CacheResource obtained from acquire()
+     * @param out OutputStream to which the mesh is written
+     * @return true, if the mesh was written; false, if the mesh has no
+     *         faces
+     * @throws IOException if the mesh could not be written
+     */
+    @Override
+    public boolean encode(CacheResource resource, OutputStream out) throws IOException {
         MeshResource mesh = new MeshResource(resource);
-        mesh.exportToBlenderPython(resourceDir);
+        if(GLB.equals(format)) {
+            return mesh.exportToGlb(out);
+        }
+        return mesh.exportToBlenderPython(out);
+    }
+
+    /**
+     * Meshes are never deduplicated: the Blender Python script or glTF
+     * of a mesh carries its own name, made from its index and ID, so no
+     * two of them are the same, even when their stored bytes are. A hard
+     * link or reference to the output of another mesh would bring in the
+     * wrong name.
+     * @param index index of the resource
+     * @return null, as the resource should not be deduplicated
+     */
+    @Override
+    public String getContentKey(int index) {
+        return null;
+    }
+
+    /**
+     * Determine the file the indicated resource is exported to.
+     * @param index index of the resource
+     * @param outputDir the output directory
+     * @return File the resource is exported to
+     */
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        MeshResource mesh = new MeshResource(getResource(index));
+        String fileName = GLB.equals(format) ? mesh.getGlbFileName() : mesh.getFileName();
+        return new File(new File(outputDir, "Mesh"), fileName);
     }
 
     /**
      * Find a Mesh resource for the provided ID. Note that this method
-     * is part of the Render resources work-in-progress.
+     * is part of the Render resources work-in-progress. The data of the
+     * Mesh resource is not loaded until it is first needed; the caller
+     * should close() the MeshResource once finished with it.
      * @param id identity of the Mesh resource to find
      * @return MeshResource with the ID, or null if not found
      */
     public MeshResource findById(long id) {
-        for(CacheResource resource : resources) {
-            if(resource.id == id) {
-                loadResource(resource);
-                return new MeshResource(resource);
-            }
+        int index = findIndexById(id);
+        if(index >= 0) {
+            return new MeshResource(this, index);
         }
         System.err.println("BAD MOJO: MeshCache.findById(" + id + ") was unable to find the Mesh");
         return null;
     }
+
+    /**
+     * Find all of the Mesh resources for the provided ID. Mesh IDs are not
+     * unique, so there may be more than one. As with findById(), their
+     * data is not loaded until it is first needed.
+     * @param id identity of the Mesh resources to find
+     * @return List of MeshResource with the ID; empty if none were found
+     */
+    public List<MeshResource> findAllById(long id) {
+        List<MeshResource> meshes = new ArrayList();
+        for(int index : findAllIndicesById(id)) {
+            meshes.add(new MeshResource(this, index));
+        }
+        return meshes;
+    }
+
+    /**
+     * Format of the exported meshes, PYTHON, GLB or NUMPY.
+     */
+    private final String format;
 }
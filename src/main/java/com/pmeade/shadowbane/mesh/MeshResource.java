@@ -19,24 +19,31 @@
 package com.pmeade.shadowbane.mesh;
 
 import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.metrics.Metrics;
 import com.pmeade.shadowbane.type.MeshAfter;
-import com.pmeade.shadowbane.type.TriFace;
-import com.pmeade.shadowbane.type.Vector2;
 import com.pmeade.shadowbane.type.Vector3;
+import com.pmeade.shadowbane.util.AsciiWriter;
+import com.pmeade.shadowbane.util.FloatFormat;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 import static com.pmeade.shadowbane.type.MeshAfter.getMeshAfter;
-import static com.pmeade.shadowbane.type.TriFace.getTriFace;
-import static com.pmeade.shadowbane.type.Vector2.getVector2;
 import static com.pmeade.shadowbane.type.Vector3.getVector3;
 import static com.pmeade.shadowbane.util.Data.UI;
+import static com.pmeade.shadowbane.util.Data.US;
+import static com.pmeade.shadowbane.util.Data.getFloats;
+import static com.pmeade.shadowbane.util.Data.getShorts;
 //import static org.apache.commons.lang3.StringUtils.join;
 
 /**
@@ -46,13 +53,26 @@ import static com.pmeade.shadowbane.util.Data.UI;
  * 
  * This class will export the mesh resource it represents as a python
  * script that can be run in Blender. The script creates the vertices
- * and faces as a mesh in Blender.
+ * and faces as a mesh in Blender. It can also export the mesh as binary
+ * glTF (.glb), which most 3D tools (Blender included) can import
+ * directly, and which is much quicker to write and to load.
+ * 
+ * Reading a Mesh resource is lazy. read() still loads (and, if need be,
+ * inflates) the whole resource, because the count of each section is
+ * stored just ahead of that section. It decodes nothing, though; it
+ * parses only the header and the counts, noting where each section
+ * starts. That is enough for the bounds, the counts, and the exports
+ * that copy sections straight from the resource. A section is decoded
+ * the first time it is asked for, into a packed array, as it is stored
+ * in the resource: three floats per vertex, normal and extra, two floats
+ * per UV, and three unsigned shorts per face. Each array is filled with a
+ * single bulk read.
  * 
  * This class is still a work in progress, as the format of a Mesh.cache
  * resource is not yet fully understood.
  * @author pmeade
  */
-public class MeshResource
+public class MeshResource implements Closeable
 {
     /**
      * Combine the provided array of String objects, placing
@@ -129,6 +149,36 @@ public class MeshResource
         "    run((0,0,0))",
         ""
     };
+
+    /** Magic number at the start of a binary glTF file: "glTF". */
+    private static final int GLB_MAGIC = 0x46546c67;
+
+    /** Version of binary glTF written. */
+    private static final int GLB_VERSION = 2;
+
+    /** Length of the binary glTF header, in bytes. */
+    private static final int GLB_HEADER_SIZE = 12;
+
+    /** Length of a binary glTF chunk header, in bytes. */
+    private static final int GLB_CHUNK_HEADER_SIZE = 8;
+
+    /** Type of the JSON chunk of a binary glTF file: "JSON". */
+    private static final int GLB_CHUNK_JSON = 0x4e4f534a;
+
+    /** Type of the binary chunk of a binary glTF file: "BIN". */
+    private static final int GLB_CHUNK_BIN = 0x004e4942;
+
+    /** glTF component type of a 32-bit float. */
+    private static final int GLTF_FLOAT = 5126;
+
+    /** glTF component type of a 16-bit unsigned short. */
+    private static final int GLTF_UNSIGNED_SHORT = 5123;
+
+    /** glTF target of a buffer view holding vertex attributes. */
+    private static final int GLTF_ARRAY_BUFFER = 34962;
+
+    /** glTF target of a buffer view holding vertex indices. */
+    private static final int GLTF_ELEMENT_ARRAY_BUFFER = 34963;
     
     /**
      * Decorate a CacheResource as a MeshResource.
@@ -136,21 +186,48 @@ public class MeshResource
      */
     public MeshResource(CacheResource resource) {
         this.resource = resource;
-        this.vertices = new ArrayList();
-        this.normals = new ArrayList();
-        this.uvs = new ArrayList();
-        this.extras = new ArrayList();
-        this.triFaces = new ArrayList();
+        this.meshCache = null;
         this.afters = new ArrayList();
     }
 
     /**
-     * Read the header and data of the Mesh resource. This method is called
-     * to populate the fields of the MeshResource.
+     * Decorate a Mesh resource that has not been loaded yet. The data of
+     * the resource is acquired from the MeshCache only when it is first
+     * needed, and released by close().
+     * @param meshCache MeshCache containing the resource
+     * @param index index of the resource
+     */
+    MeshResource(MeshCache meshCache, int index) {
+        this.resource = meshCache.getResource(index);
+        this.meshCache = meshCache;
+        this.afters = new ArrayList();
+    }
+
+    /**
+     * Release the data of the Mesh resource, if it was acquired by the
+     * MeshResource itself. A CacheResource provided to the constructor
+     * belongs to the caller, and is left open.
+     */
+    @Override
+    public void close() {
+        if(acquired) {
+            acquired = false;
+            resource.close();
+        }
+    }
+
+    /**
+     * Read the header of the Mesh resource, and the count of each section
+     * of its data. The sections themselves are skipped; each is decoded
+     * the first time it is asked for. This method is called to populate
+     * the fields of the MeshResource; calling it again has no effect.
      */
     public void read() {
-        ByteBuffer buffer = ByteBuffer.wrap(resource.data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(headerRead) {
+            return;
+        }
+        headerRead = true;
+        ByteBuffer buffer = data().getBuffer();
 
         //System.out.println("buffer.position[start] = " + buffer.position());
         null1 = UI(buffer.getInt());
@@ -175,15 +252,11 @@ public class MeshResource
 
         //System.out.println("buffer.position[vertices] = " + buffer.position());
         numVertices = buffer.getInt();
-        for(int i=0; i<numVertices; i++) {
-            vertices.add(getVector3(buffer));
-        }
+        verticesOffset = skip(buffer, numVertices, 12);
         
         //System.out.println("buffer.position[normals] = " + buffer.position());
         numNormals = buffer.getInt();
-        for(int i=0; i<numNormals; i++) {
-            normals.add(getVector3(buffer));
-        }
+        normalsOffset = skip(buffer, numNormals, 12);
 
         if(numVertices != numNormals) {
             System.err.println("BAD MOJO: numVertices:" + numVertices + " vs. numNormals:" + numNormals);
@@ -191,9 +264,7 @@ public class MeshResource
 
         //System.out.println("buffer.position[UVs] = " + buffer.position());
         numUV = buffer.getInt();
-        for(int i=0; i<numUV; i++) {
-            uvs.add(getVector2(buffer));
-        }
+        uvsOffset = skip(buffer, numUV, 8);
 
         if(numUV != numNormals) {
             System.err.println("BAD MOJO: numUV:" + numUV + " vs. numNormals:" + numNormals);
@@ -202,9 +273,7 @@ public class MeshResource
         if(flag2 == 1) {
             // System.out.println("buffer.position[Extras] = " + buffer.position() + " [0x" + Integer.toHexString(buffer.position()) + "]");
             numExtras = buffer.getInt();
-            for(int i=0; i<numExtras; i++) {
-                extras.add(getVector3(buffer));
-            }
+            extrasOffset = skip(buffer, numExtras, 12);
             
             if(numExtras != numVertices) {
                 System.err.println("BAD MOJO: numExtras:" + numExtras + " vs. numVertices:" + numVertices);
@@ -214,9 +283,7 @@ public class MeshResource
         //System.out.println("buffer.position[TriFaces] = " + buffer.position() + " [0x" + Integer.toHexString(buffer.position()) + "]");
         numTriFaces = buffer.getInt();
         numTriFaces /= 3;
-        for(int i=0; i<numTriFaces; i++) {
-            triFaces.add(getTriFace(buffer));
-        }
+        triFacesOffset = skip(buffer, numTriFaces, 6);
         
         //System.out.println("buffer.position[Afters] = " + buffer.position() + " [0x" + Integer.toHexString(buffer.position()) + "]");
         numAfter = buffer.getInt();
@@ -230,70 +297,506 @@ public class MeshResource
                 System.err.println("BAD MOJO: meshAfter.u2:" + meshAfter.u2 + " vs. 1");
             }
         }
-        if(buffer.position() != resource.data.length) {
-            System.err.println("BAD MOJO: buffer.position():" + buffer.position() + " [0x" + Integer.toHexString(buffer.position()) + "] vs. resource.data.length:" + resource.data.length);
+        if(buffer.position() != resource.size) {
+            System.err.println("BAD MOJO: buffer.position():" + buffer.position() + " [0x" + Integer.toHexString(buffer.position()) + "] vs. resource.size:" + resource.size);
         }
     }
 
     /**
-     * Export the Mesh resource to a Blender Python (.py) file.
+     * Obtain the minimum corner of the bounds of the mesh, as recorded in
+     * the header.
+     * @return Vector3 containing the minimum coordinates
+     */
+    public Vector3 getMin() {
+        read();
+        return min;
+    }
+
+    /**
+     * Obtain the maximum corner of the bounds of the mesh, as recorded in
+     * the header.
+     * @return Vector3 containing the maximum coordinates
+     */
+    public Vector3 getMax() {
+        read();
+        return max;
+    }
+
+    /**
+     * Determine the number of vertices of the mesh.
+     * @return the number of vertices
+     */
+    public int getVertexCount() {
+        read();
+        return Math.max(0, numVertices);
+    }
+
+    /**
+     * Determine the number of triangle indices of the mesh; three for
+     * each face.
+     * @return the number of triangle indices
+     */
+    public int getIndexCount() {
+        read();
+        return Math.max(0, numTriFaces) * 3;
+    }
+
+    /**
+     * Obtain the vertices of the mesh, decoding them if this is the first
+     * time they are asked for.
+     * @return float[] containing x, y and z of each vertex
+     */
+    public float[] getVertices() {
+        if(vertices == null) {
+            read();
+            vertices = getFloats(section(verticesOffset, getVertexCount() * 12), getVertexCount() * 3);
+        }
+        return vertices;
+    }
+
+    /**
+     * Obtain the normals of the mesh, decoding them if this is the first
+     * time they are asked for.
+     * @return float[] containing x, y and z of each normal
+     */
+    public float[] getNormals() {
+        if(normals == null) {
+            read();
+            int count = Math.max(0, numNormals) * 3;
+            normals = getFloats(section(normalsOffset, count * 4), count);
+        }
+        return normals;
+    }
+
+    /**
+     * Obtain the UVs of the mesh, decoding them if this is the first time
+     * they are asked for.
+     * @return float[] containing u and v of each vertex
+     */
+    public float[] getUVs() {
+        if(uvs == null) {
+            read();
+            int count = Math.max(0, numUV) * 2;
+            uvs = getFloats(section(uvsOffset, count * 4), count);
+        }
+        return uvs;
+    }
+
+    /**
+     * Obtain the extras of the mesh, decoding them if this is the first
+     * time they are asked for. Only meshes with flag 2 set have extras.
+     * @return float[] containing three floats for each extra; empty if
+     *         the mesh has no extras
+     */
+    public float[] getExtras() {
+        if(extras == null) {
+            read();
+            int count = Math.max(0, numExtras) * 3;
+            extras = getFloats(section(extrasOffset, count * 4), count);
+        }
+        return extras;
+    }
+
+    /**
+     * Obtain the triangle indices of the mesh, decoding them if this is
+     * the first time they are asked for.
+     * @return short[] containing three unsigned indices for each face
+     */
+    public short[] getTriFaces() {
+        if(triFaces == null) {
+            read();
+            triFaces = getShorts(section(triFacesOffset, getIndexCount() * 2), getIndexCount());
+        }
+        return triFaces;
+    }
+
+    /**
+     * Determine the name of the file this Mesh resource is exported to.
+     * @return name of the exported file
+     */
+    public String getFileName() {
+        return String.format("Mesh_%05d_%08d.py",
+            resource.index, resource.id
+        );
+    }
+
+    /**
+     * Determine the name of the binary glTF file this Mesh resource is
+     * exported to.
+     * @return name of the exported .glb file
+     */
+    public String getGlbFileName() {
+        return String.format("Mesh_%05d_%08d.glb",
+            resource.index, resource.id
+        );
+    }
+
+    /**
+     * Export the Mesh resource to a Blender Python (.py) file. If the
+     * script can't be written, the partial file is deleted.
      * @param outputDir directory where resource output goes
+     * @throws IOException if the script could not be written
      */
-    public void exportToBlenderPython(File outputDir) {
+    public void exportToBlenderPython(File outputDir) throws IOException {
+        long start = Metrics.start();
         this.read();
-        if(triFaces.isEmpty()) { return; }
+        Metrics.stop(Metrics.Stage.PARSE, start, resource.size, 0);
+        if(getIndexCount() == 0) { return; }
         
-        String scriptName = String.format(
-            "Mesh_%05d_%08d.py",
-            resource.index, resource.id
-        );
+        File scriptFile = new File(outputDir, getFileName());
+        try(AsciiWriter writer = new AsciiWriter(Metrics.meter(new FileOutputStream(scriptFile)))) {
+            writeBlenderPython(writer);
+        } catch(IOException e) {
+            scriptFile.delete();
+            throw e;
+        }
+    }
 
-        File scriptFile = new File(outputDir, scriptName);
+    /**
+     * Export the Mesh resource as a Blender Python script to the provided
+     * OutputStream. The stream is flushed, but not closed.
+     * @param out OutputStream to which the script is written
+     * @return true, if the script was written; false, if the mesh has no
+     *         faces, so there is nothing to export
+     * @throws IOException if the script could not be written
+     */
+    public boolean exportToBlenderPython(OutputStream out) throws IOException {
+        long start = Metrics.start();
+        this.read();
+        Metrics.stop(Metrics.Stage.PARSE, start, resource.size, 0);
+        if(getIndexCount() == 0) { return false; }
 
-        FileOutputStream fos = null;
+        AsciiWriter writer = new AsciiWriter(out);
         try {
-            fos = new FileOutputStream(scriptFile);
-        } catch (FileNotFoundException e) {
-            return;
+            writeBlenderPython(writer);
+        } finally {
+            writer.finish();
         }
+        return true;
+    }
+
+    /**
+     * Write the Blender Python script for the Mesh resource. The vertices
+     * and faces are written straight into the buffer of the AsciiWriter,
+     * one number at a time, so the size of the mesh doesn't matter.
+     * @param writer AsciiWriter to which the script is written
+     * @throws IOException if the script could not be written
+     */
+    private void writeBlenderPython(AsciiWriter writer) throws IOException {
+        String scriptName = getFileName();
+
+        writer.println("#-----------------------------------------------------------------------");
+        writer.print("# File: ").println(scriptName);
+        writer.println("#-----------------------------------------------------------------------");
+        writer.println("# Contains data from Shadowbane, published by Ubisoft, Inc.");
+        writer.println("# Shadowbane is Copyright 2002-2004 Wolfpack Studios, Inc.");
+        writer.println("#-----------------------------------------------------------------------");
+        writeLines(writer, PYTHON_HEADER);
         
-        PrintStream ps = new PrintStream(fos);
-        
-        ps.println("#-----------------------------------------------------------------------");
-        ps.println("# File: " + scriptName);
-        ps.println("#-----------------------------------------------------------------------");
-        ps.println("# Contains data from Shadowbane, published by Ubisoft, Inc.");
-        ps.println("# Shadowbane is Copyright 2002-2004 Wolfpack Studios, Inc.");
-        ps.println("#-----------------------------------------------------------------------");
-        ps.println(join(PYTHON_HEADER, "\n"));
-        
-        String[] vertStr = new String[vertices.size()];
-        for(int i=0; i<vertices.size(); i++) {
-            Vector3 v3 = vertices.get(i);
-            vertStr[i] = v3.toPython();
+        float[] verts = getVertices();
+        writer.print("    verts = (");
+        for(int i=0; i<verts.length/3; i++) {
+            if(i > 0) { writer.print(','); }
+            writer.print('(').print(verts[i*3])
+                .print(',').print(verts[i*3+1])
+                .print(',').print(verts[i*3+2]).print(')');
         }
-        ps.print("    verts = (");
-        ps.print(join(vertStr, ","));
-        ps.println("    )");
+        writer.println("    )");
         
-        String[] faceStr = new String[triFaces.size()];
-        for(int i=0; i<triFaces.size(); i++) {
-            TriFace triFace = triFaces.get(i);
-            faceStr[i] = triFace.toPython();
+        short[] faces = getTriFaces();
+        writer.print("    faces = (");
+        for(int i=0; i<faces.length/3; i++) {
+            if(i > 0) { writer.print(','); }
+            writer.print('(').print(US(faces[i*3]))
+                .print(',').print(US(faces[i*3+1]))
+                .print(',').print(US(faces[i*3+2])).print(')');
         }
-        ps.print("    faces = (");
-        ps.print(join(faceStr, ","));
-        ps.println("    )");
+        writer.println("    )");
         
-        ps.println(join(PYTHON_FOOTER, "\n"));
-        ps.flush();
-        ps.close();
+        writeLines(writer, PYTHON_FOOTER);
+    }
+
+    /**
+     * Write lines of a script, joined by newlines, and followed by the
+     * line separator; the same text as println(join(lines, "\n")).
+     * @param writer AsciiWriter to which the lines are written
+     * @param lines String[] containing the lines to be written
+     * @throws IOException if the lines could not be written
+     */
+    private static void writeLines(AsciiWriter writer, String[] lines) throws IOException {
+        for(int i=0; i<lines.length; i++) {
+            if(i > 0) { writer.print('\n'); }
+            writer.print(lines[i]);
+        }
+        writer.println();
     }
     
     /**
-     * CacheResource to be decorated as a MeshResource.
+     * Export the Mesh resource to a binary glTF (.glb) file. If the glTF
+     * can't be written, the partial file is deleted.
+     * @param outputDir directory where resource output goes
+     * @throws IOException if the glTF could not be written
+     */
+    public void exportToGlb(File outputDir) throws IOException {
+        long start = Metrics.start();
+        this.read();
+        Metrics.stop(Metrics.Stage.PARSE, start, resource.size, 0);
+        if(getIndexCount() == 0) { return; }
+
+        File glbFile = new File(outputDir, getGlbFileName());
+        try(OutputStream out = Metrics.meter(new FileOutputStream(glbFile))) {
+            writeGlb(out);
+        } catch(IOException e) {
+            glbFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Export the Mesh resource as binary glTF to the provided
+     * OutputStream. The stream is flushed, but not closed.
+     * @param out OutputStream to which the glTF is written
+     * @return true, if the glTF was written; false, if the mesh has no
+     *         faces, so there is nothing to export
+     * @throws IOException if the glTF could not be written
+     */
+    public boolean exportToGlb(OutputStream out) throws IOException {
+        long start = Metrics.start();
+        this.read();
+        Metrics.stop(Metrics.Stage.PARSE, start, resource.size, 0);
+        if(getIndexCount() == 0) { return false; }
+
+        writeGlb(out);
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Write the Mesh resource as binary glTF: a JSON chunk describing a
+     * scene with a single mesh, followed by a binary chunk holding the
+     * positions, normals, UVs and triangle indices of the mesh. Each of
+     * these is stored in the resource as a packed little-endian array,
+     * exactly as glTF expects it, so the binary chunk is copied straight
+     * from the bytes of the resource. Normals and UVs are left out if
+     * there are not as many of them as there are vertices.
+     *
+     * The bounds of the positions, which glTF requires, are taken from
+     * the min and max of the header rather than computed from the
+     * vertices.
+     * @param out OutputStream to which the glTF is written
+     * @throws IOException if the glTF could not be written
+     */
+    private void writeGlb(OutputStream out) throws IOException {
+        List<ByteBuffer> views = new ArrayList();
+        StringBuilder bufferViews = new StringBuilder();
+        StringBuilder accessors = new StringBuilder();
+        StringBuilder attributes = new StringBuilder();
+        int vertexCount = getVertexCount();
+
+        int binLength = 0;
+        views.add(section(verticesOffset, vertexCount * 12));
+        binLength = addView(bufferViews, binLength, vertexCount * 12, GLTF_ARRAY_BUFFER);
+        accessors.append(String.format(
+            "{\"bufferView\":0,\"componentType\":%d,\"count\":%d,\"type\":\"VEC3\","
+            + "\"min\":[%s,%s,%s],\"max\":[%s,%s,%s]}",
+            GLTF_FLOAT, vertexCount,
+            jsonNumber(min.x), jsonNumber(min.y), jsonNumber(min.z),
+            jsonNumber(max.x), jsonNumber(max.y), jsonNumber(max.z)));
+        attributes.append("\"POSITION\":0");
+
+        if((numNormals == vertexCount) && (vertexCount > 0)) {
+            attributes.append(",\"NORMAL\":").append(views.size());
+            addAccessor(accessors, views.size(), GLTF_FLOAT, vertexCount, "VEC3");
+            views.add(section(normalsOffset, vertexCount * 12));
+            binLength = addView(bufferViews, binLength, vertexCount * 12, GLTF_ARRAY_BUFFER);
+        }
+        if((numUV == vertexCount) && (vertexCount > 0)) {
+            attributes.append(",\"TEXCOORD_0\":").append(views.size());
+            addAccessor(accessors, views.size(), GLTF_FLOAT, vertexCount, "VEC2");
+            views.add(section(uvsOffset, vertexCount * 8));
+            binLength = addView(bufferViews, binLength, vertexCount * 8, GLTF_ARRAY_BUFFER);
+        }
+
+        int indexCount = getIndexCount();
+        int indices = views.size();
+        addAccessor(accessors, indices, GLTF_UNSIGNED_SHORT, indexCount, "SCALAR");
+        views.add(section(triFacesOffset, indexCount * 2));
+        binLength = addView(bufferViews, binLength, indexCount * 2, GLTF_ELEMENT_ARRAY_BUFFER);
+        int binPadding = -binLength & 3;
+        binLength += binPadding;
+
+        String name = getFileName().replace(".py", "");
+        String json = "{\"asset\":{\"version\":\"2.0\",\"generator\":\"ShadowbaneCacheExporter\"},"
+            + "\"scene\":0,\"scenes\":[{\"nodes\":[0]}],"
+            + "\"nodes\":[{\"mesh\":0,\"name\":\"" + name + "\"}],"
+            + "\"meshes\":[{\"name\":\"" + name + "\",\"primitives\":[{\"attributes\":{" + attributes
+            + "},\"indices\":" + indices + ",\"mode\":4}]}],"
+            + "\"buffers\":[{\"byteLength\":" + binLength + "}],"
+            + "\"bufferViews\":[" + bufferViews + "],"
+            + "\"accessors\":[" + accessors + "]}";
+        byte[] jsonBytes = json.getBytes(StandardCharsets.US_ASCII);
+        int jsonLength = (jsonBytes.length + 3) & ~3;
+
+        ByteBuffer header = ByteBuffer.allocate(GLB_HEADER_SIZE + 2 * GLB_CHUNK_HEADER_SIZE + jsonLength);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(GLB_MAGIC);
+        header.putInt(GLB_VERSION);
+        header.putInt(GLB_HEADER_SIZE + 2 * GLB_CHUNK_HEADER_SIZE + jsonLength + binLength);
+        header.putInt(jsonLength);
+        header.putInt(GLB_CHUNK_JSON);
+        header.put(jsonBytes);
+        while(header.position() < GLB_HEADER_SIZE + GLB_CHUNK_HEADER_SIZE + jsonLength) {
+            header.put((byte)' ');
+        }
+        header.putInt(binLength);
+        header.putInt(GLB_CHUNK_BIN);
+        out.write(header.array());
+
+        WritableByteChannel channel = Channels.newChannel(out);
+        for(ByteBuffer view : views) {
+            channel.write(view);
+        }
+        out.write(new byte[binPadding]);
+    }
+
+    /**
+     * Obtain the vertices of the Mesh resource as they are stored in the
+     * resource: three little-endian floats for each vertex.
+     * @return ByteBuffer whose remaining bytes are the vertices
+     */
+    ByteBuffer getVertexBytes() {
+        read();
+        return section(verticesOffset, getVertexCount() * 12);
+    }
+
+    /**
+     * Obtain the triangle indices of the Mesh resource as they are stored
+     * in the resource: three little-endian unsigned shorts for each face.
+     * @return ByteBuffer whose remaining bytes are the triangle indices
+     */
+    ByteBuffer getIndexBytes() {
+        read();
+        return section(triFacesOffset, getIndexCount() * 2);
+    }
+
+    /**
+     * Obtain a ByteBuffer over one section of the resource data.
+     * @param offset offset of the section in the resource
+     * @param length length of the section, in bytes
+     * @return ByteBuffer whose remaining bytes are the section
+     */
+    private ByteBuffer section(int offset, int length) {
+        ByteBuffer buffer = data().getBuffer();
+        buffer.position(offset);
+        buffer.limit(offset + length);
+        return buffer;
+    }
+
+    /**
+     * Skip over a section of the resource data.
+     * @param buffer ByteBuffer positioned at the start of the section
+     * @param count number of elements in the section; none, if negative
+     * @param elementSize size of each element, in bytes
+     * @return offset of the start of the section
+     * @throws BufferUnderflowException if the section runs past the end
+     *                                  of the resource data
+     */
+    private static int skip(ByteBuffer buffer, int count, int elementSize) {
+        int offset = buffer.position();
+        long length = (long)Math.max(0, count) * elementSize;
+        if(length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(offset + (int)length);
+        return offset;
+    }
+
+    /**
+     * Obtain the CacheResource holding the data of the Mesh resource,
+     * acquiring it from the MeshCache if it has not been loaded yet.
+     * @return CacheResource with its data loaded
+     */
+    private CacheResource data() {
+        if((meshCache != null) && (acquired == false)) {
+            resource = meshCache.acquire(resource.index);
+            acquired = true;
+        }
+        return resource;
+    }
+
+    /**
+     * Describe a glTF buffer view, laid out right after the previous one.
+     * @param bufferViews StringBuilder holding the buffer views so far
+     * @param offset offset of the buffer view in the binary chunk
+     * @param length length of the buffer view, in bytes
+     * @param target glTF target of the buffer view
+     * @return offset just past the end of the buffer view
+     */
+    private static int addView(StringBuilder bufferViews, int offset, int length, int target) {
+        if(bufferViews.length() > 0) {
+            bufferViews.append(',');
+        }
+        bufferViews.append("{\"buffer\":0,\"byteOffset\":").append(offset)
+            .append(",\"byteLength\":").append(length)
+            .append(",\"target\":").append(target).append('}');
+        return offset + length;
+    }
+
+    /**
+     * Describe a glTF accessor reading a whole buffer view.
+     * @param accessors StringBuilder holding the accessors so far
+     * @param bufferView index of the buffer view
+     * @param componentType glTF component type of the elements
+     * @param count number of elements
+     * @param type glTF type of the elements ("SCALAR", "VEC2", "VEC3")
+     */
+    private static void addAccessor(StringBuilder accessors, int bufferView,
+            int componentType, int count, String type) {
+        accessors.append(",{\"bufferView\":").append(bufferView)
+            .append(",\"componentType\":").append(componentType)
+            .append(",\"count\":").append(count)
+            .append(",\"type\":\"").append(type).append("\"}");
+    }
+
+    /**
+     * Convert a float to a JSON number, with the shortest digits that
+     * read back as the same float. JSON has no NaN or infinity, so those
+     * are written as 0.
+     * @param f float to be converted
+     * @return String containing the JSON number
+     */
+    private static String jsonNumber(float f) {
+        if(Float.isNaN(f) || Float.isInfinite(f)) {
+            return "0";
+        }
+        byte[] text = new byte[FloatFormat.MAX_LENGTH];
+        int length = FloatFormat.format(f, text, 0);
+        return new String(text, 0, length, StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * CacheResource to be decorated as a MeshResource. If the MeshResource
+     * loads its own data, this holds only the metadata of the resource
+     * until the data is first needed.
+     */
+    private CacheResource resource;
+
+    /**
+     * MeshCache from which the data of the resource is acquired when it is
+     * first needed, or null if the data was provided to the constructor.
+     */
+    private final MeshCache meshCache;
+
+    /**
+     * True, if the data of the resource was acquired by the MeshResource,
+     * and so must be released by close().
+     */
+    private boolean acquired;
+
+    /**
+     * True, once the header and section counts have been read.
      */
-    private final CacheResource resource;
+    private boolean headerRead;
 
     //
     // Note: I'm not going to provide JavaDoc for these guys yet. This
@@ -313,19 +816,24 @@ public class MeshResource
     private int flag2;
     
     private int numVertices;
-    private final List<Vector3> vertices;
+    private int verticesOffset;
+    private float[] vertices;
     
     private int numNormals;
-    private final List<Vector3> normals;
+    private int normalsOffset;
+    private float[] normals;
 
     private int numUV;
-    private final List<Vector2> uvs;
+    private int uvsOffset;
+    private float[] uvs;
 
     private int numExtras;
-    private final List<Vector3> extras;
+    private int extrasOffset;
+    private float[] extras;
     
     private int numTriFaces;
-    private final List<TriFace> triFaces;
+    private int triFacesOffset;
+    private short[] triFaces;
     
     private int numAfter;
     private final List<MeshAfter> afters;
@@ -0,0 +1,106 @@
+/*
+ * JobMetrics.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JobMetrics holds the StageMetrics of each stage of one export job,
+ * along with the wall-clock span of the job, from the start of its first
+ * unit to the end of its last.
+ * @author pmeade
+ */
+public class JobMetrics
+{
+    /**
+     * Construct a JobMetrics.
+     * @param name name of the job (i.e.: "Mesh")
+     */
+    public JobMetrics(String name) {
+        this.name = name;
+        this.stages = new StageMetrics[Metrics.Stage.values().length];
+        for(int i=0; i<stages.length; i++) {
+            stages[i] = new StageMetrics();
+        }
+    }
+
+    /**
+     * Obtain the name of the job.
+     * @return name of the job (i.e.: "Mesh")
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Obtain the StageMetrics of the provided stage.
+     * @param stage Stage of the job
+     * @return StageMetrics of the stage
+     */
+    public StageMetrics getStage(Metrics.Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * Determine the wall-clock time from the start of the first unit of
+     * the job to the end of the last.
+     * @return wall-clock time of the job, in nanoseconds
+     */
+    public long getWallNanos() {
+        long first = firstStart.get();
+        long last = lastEnd.get();
+        return (first < last) ? (last - first) : 0;
+    }
+
+    /**
+     * Widen the wall-clock span of the job to include a unit.
+     * @param start System.nanoTime() at the start of the unit
+     * @param end System.nanoTime() at the end of the unit
+     */
+    void span(long start, long end) {
+        long current = firstStart.get();
+        while((start < current) && (firstStart.compareAndSet(current, start) == false)) {
+            current = firstStart.get();
+        }
+        current = lastEnd.get();
+        while((end > current) && (lastEnd.compareAndSet(current, end) == false)) {
+            current = lastEnd.get();
+        }
+    }
+
+    /**
+     * Name of the job.
+     */
+    private final String name;
+
+    /**
+     * StageMetrics of each stage, indexed by Stage.ordinal().
+     */
+    private final StageMetrics[] stages;
+
+    /**
+     * System.nanoTime() at the start of the first unit.
+     */
+    private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+
+    /**
+     * System.nanoTime() at the end of the last unit.
+     */
+    private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+}
@@ -0,0 +1,125 @@
+/*
+ * LatencyHistogram.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts latencies, in nanoseconds, in logarithmic
+ * buckets. Each power of two is split into 8 buckets, so a percentile
+ * taken from the histogram is within 12.5% of the true value. Recording
+ * a latency is lock-free and may be done by many threads at once.
+ * @author pmeade
+ */
+public class LatencyHistogram
+{
+    /**
+     * Number of buckets; enough for any positive long.
+     */
+    private static final int NUM_BUCKETS = 16 + 59*8;
+
+    /**
+     * Record a latency.
+     * @param nanos latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucket(nanos));
+        long current = max.get();
+        while((nanos > current) && (max.compareAndSet(current, nanos) == false)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Determine the latency below which the provided fraction of the
+     * recorded latencies fall.
+     * @param fraction fraction of the latencies (i.e.: 0.99 for p99)
+     * @return the latency, in nanoseconds; 0 if nothing was recorded
+     */
+    public long percentile(double fraction) {
+        long count = 0;
+        for(int i=0; i<NUM_BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+        if(count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(fraction * count));
+        long seen = 0;
+        for(int i=0; i<NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if(seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Determine the largest latency recorded.
+     * @return the largest latency, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Determine the bucket that counts the provided latency. Latencies
+     * below 16 have a bucket each; above that, each power of two is split
+     * into 8 buckets.
+     * @param nanos latency, in nanoseconds
+     * @return index of the bucket
+     */
+    private static int bucket(long nanos) {
+        if(nanos < 16) {
+            return (int)nanos;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int)((nanos >>> (msb - 3)) & 7);
+        return 16 + (msb - 4)*8 + sub;
+    }
+
+    /**
+     * Determine the largest latency counted by the indicated bucket.
+     * @param index index of the bucket
+     * @return the largest latency counted by the bucket, in nanoseconds
+     */
+    private static long upperBound(int index) {
+        if(index < 16) {
+            return index;
+        }
+        int msb = (index - 16) / 8 + 4;
+        int sub = (index - 16) % 8;
+        return ((8L + sub + 1) << (msb - 3)) - 1;
+    }
+
+    /**
+     * Number of latencies counted by each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    /**
+     * Largest latency recorded.
+     */
+    private final AtomicLong max = new AtomicLong();
+}
@@ -0,0 +1,70 @@
+/*
+ * MeteredOutputStream.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * MeteredOutputStream times the writes to the stream it wraps, and
+ * counts the bytes written, as the write stage of the current unit.
+ * Wrap the stream that writes to the file system (i.e.: the
+ * FileOutputStream, not a BufferedOutputStream around it), so that the
+ * time spent encoding is not counted as writing.
+ * @author pmeade
+ */
+public class MeteredOutputStream extends FilterOutputStream
+{
+    /**
+     * Construct a MeteredOutputStream.
+     * @param out OutputStream to be metered
+     */
+    public MeteredOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = Metrics.start();
+        out.write(b);
+        Metrics.stop(Metrics.Stage.WRITE, start, 1, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = Metrics.start();
+        out.write(b, off, len);
+        Metrics.stop(Metrics.Stage.WRITE, start, len, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = Metrics.start();
+        out.flush();
+        Metrics.stop(Metrics.Stage.WRITE, start, 0, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        long start = Metrics.start();
+        out.close();
+        Metrics.stop(Metrics.Stage.WRITE, start, 0, 0);
+    }
+}
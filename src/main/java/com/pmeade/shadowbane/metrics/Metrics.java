@@ -0,0 +1,371 @@
+/*
+ * Metrics.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Metrics measures the stages of exporting each unit of an export job:
+ *
+ *   inflate - decompressing resource data (CacheArchive)
+ *   parse   - reading the headers and structures of a resource
+ *   encode  - converting the resource to its output format; this is the
+ *             time of the unit not spent in any other stage
+ *   write   - writing the output to the file system
+ *   export  - the whole unit, from start to finish, not counting the time
+ *             it waits between the stages of a pipelined export
+ *
+ * The code of each stage calls start() and stop(), which add to the
+ * measurements of the unit being exported on the current thread. When the
+ * unit is finished, its measurements are recorded in the JobMetrics of
+ * its job, and a JSON report of every job can be written at the end of
+ * the run. Metrics are disabled by default; when disabled, start() and
+ * stop() do nothing.
+ * @author pmeade
+ */
+public class Metrics
+{
+    /**
+     * The stages of exporting a unit.
+     */
+    public enum Stage
+    {
+        INFLATE, PARSE, ENCODE, WRITE, EXPORT;
+
+        /**
+         * Obtain the name of the stage, as used in the report.
+         * @return name of the stage (i.e.: "inflate")
+         */
+        public String getName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Enable or disable the collection of metrics. This should be done
+     * before any unit is exported.
+     * @param enabled true, to collect metrics
+     */
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Determine if metrics are being collected.
+     * @return true, if metrics are being collected
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Obtain the JobMetrics for the named job, creating it if necessary.
+     * @param name name of the job (i.e.: "Mesh")
+     * @return JobMetrics of the job
+     */
+    public static JobMetrics getJob(String name) {
+        synchronized(JOBS) {
+            for(JobMetrics job : JOBS) {
+                if(job.getName().equals(name)) {
+                    return job;
+                }
+            }
+            JobMetrics job = new JobMetrics(name);
+            JOBS.add(job);
+            return job;
+        }
+    }
+
+    /**
+     * Mark the start of a stage.
+     * @return the value to be passed to stop()
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Mark the end of a stage, adding it to the measurements of the unit
+     * being exported on the current thread.
+     * @param stage Stage that has ended
+     * @param start the value returned by start()
+     * @param bytesIn number of bytes consumed by the stage
+     * @param bytesOut number of bytes produced by the stage
+     */
+    public static void stop(Stage stage, long start, long bytesIn, long bytesOut) {
+        if(enabled == false) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        Unit unit = UNIT.get();
+        if(unit.active) {
+            int i = stage.ordinal();
+            unit.counts[i]++;
+            unit.nanos[i] += nanos;
+            unit.bytesIn[i] += bytesIn;
+            unit.bytesOut[i] += bytesOut;
+        }
+    }
+
+    /**
+     * Count a resource loaded by the unit being exported on the current
+     * thread, whether it was compressed or not.
+     * @param zipSize number of bytes stored in the cache archive
+     * @param size number of bytes once decompressed
+     */
+    public static void countInput(long zipSize, long size) {
+        if(enabled == false) {
+            return;
+        }
+        Unit unit = UNIT.get();
+        if(unit.active) {
+            unit.zipBytes += zipSize;
+            unit.bytes += size;
+        }
+    }
+
+    /**
+     * Meter the writes to the provided OutputStream as the write stage.
+     * @param out OutputStream that writes to the file system
+     * @return the metered OutputStream, or out itself if metrics are
+     *         disabled
+     */
+    public static OutputStream meter(OutputStream out) {
+        return enabled ? new MeteredOutputStream(out) : out;
+    }
+
+    /**
+     * Mark the start of a unit on the current thread.
+     * @return the value to be passed to endUnit()
+     */
+    public static long beginUnit() {
+        if(enabled == false) {
+            return 0;
+        }
+        Unit unit = UNIT.get();
+        unit.reset();
+        unit.active = true;
+        unit.resumed = System.nanoTime();
+        return unit.resumed;
+    }
+
+    /**
+     * Suspend the unit on the current thread, so that its measurements can
+     * be carried to the thread of its next stage. The time the unit spends
+     * suspended (i.e.: waiting in a queue) is not counted as encoding.
+     * @return the measurements of the unit, to be passed to resumeUnit(),
+     *         or null if metrics are disabled
+     */
+    public static Unit suspendUnit() {
+        if(enabled == false) {
+            return null;
+        }
+        Unit unit = UNIT.get();
+        unit.active = false;
+        unit.busy += System.nanoTime() - unit.resumed;
+        UNIT.set(new Unit());
+        return unit;
+    }
+
+    /**
+     * Resume a unit suspended by suspendUnit() on the current thread.
+     * @param unit the value returned by suspendUnit()
+     */
+    public static void resumeUnit(Unit unit) {
+        if((enabled == false) || (unit == null)) {
+            return;
+        }
+        unit.active = true;
+        unit.resumed = System.nanoTime();
+        UNIT.set(unit);
+    }
+
+    /**
+     * Mark the end of the unit on the current thread, and record its
+     * measurements in the provided JobMetrics.
+     * @param job JobMetrics of the job the unit belongs to
+     * @param start the value returned by beginUnit()
+     * @param outputBytes number of bytes in the output of the unit
+     */
+    public static void endUnit(JobMetrics job, long start, long outputBytes) {
+        if(enabled == false) {
+            return;
+        }
+        long end = System.nanoTime();
+        Unit unit = UNIT.get();
+        unit.active = false;
+        long nanos = unit.busy + (end - unit.resumed);
+        long staged = 0;
+        for(Stage stage : MEASURED_STAGES) {
+            int i = stage.ordinal();
+            if(unit.counts[i] > 0) {
+                job.getStage(stage).record(unit.nanos[i], unit.bytesIn[i], unit.bytesOut[i]);
+                staged += unit.nanos[i];
+            }
+        }
+        job.getStage(Stage.ENCODE).record(Math.max(0, nanos - staged), unit.bytes, outputBytes);
+        job.getStage(Stage.EXPORT).record(nanos, unit.zipBytes, outputBytes);
+        job.span(start, end);
+    }
+
+    /**
+     * Write a JSON report of the metrics of every job.
+     * @param file File to which the report is written
+     * @param version version of the exporter
+     * @param threads number of worker threads used
+     * @param wallNanos wall-clock time of the whole run, in nanoseconds
+     * @throws IOException if the report could not be written
+     */
+    public static void writeReport(File file, String version, int threads, long wallNanos) throws IOException {
+        List<JobMetrics> jobs;
+        synchronized(JOBS) {
+            jobs = new ArrayList(JOBS);
+        }
+        try(PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+            out.println("{");
+            out.println("  \"version\": \"" + version + "\",");
+            out.println("  \"threads\": " + threads + ",");
+            out.println("  \"wallSeconds\": " + seconds(wallNanos) + ",");
+            out.println("  \"jobs\": [");
+            for(int j=0; j<jobs.size(); j++) {
+                JobMetrics job = jobs.get(j);
+                long units = job.getStage(Stage.EXPORT).getCount();
+                out.println("    {");
+                out.println("      \"name\": \"" + job.getName() + "\",");
+                out.println("      \"units\": " + units + ",");
+                out.println("      \"wallSeconds\": " + seconds(job.getWallNanos()) + ",");
+                out.println("      \"unitsPerSecond\": " + rate(units, job.getWallNanos()) + ",");
+                out.println("      \"stages\": {");
+                Stage[] stages = Stage.values();
+                for(int s=0; s<stages.length; s++) {
+                    StageMetrics stage = job.getStage(stages[s]);
+                    LatencyHistogram latency = stage.getLatency();
+                    out.println("        \"" + stages[s].getName() + "\": {");
+                    out.println("          \"count\": " + stage.getCount() + ",");
+                    out.println("          \"seconds\": " + seconds(stage.getNanos()) + ",");
+                    out.println("          \"bytesIn\": " + stage.getBytesIn() + ",");
+                    out.println("          \"bytesOut\": " + stage.getBytesOut() + ",");
+                    out.println("          \"resourcesPerSecond\": " + rate(stage.getCount(), stage.getNanos()) + ",");
+                    out.println("          \"p50Millis\": " + millis(latency.percentile(0.50)) + ",");
+                    out.println("          \"p99Millis\": " + millis(latency.percentile(0.99)) + ",");
+                    out.println("          \"maxMillis\": " + millis(latency.getMax()));
+                    out.println("        }" + ((s+1 < stages.length) ? "," : ""));
+                }
+                out.println("      }");
+                out.println("    }" + ((j+1 < jobs.size()) ? "," : ""));
+            }
+            out.println("  ]");
+            out.println("}");
+            if(out.checkError()) {
+                throw new IOException("Unable to write " + file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Format nanoseconds as seconds, for the report.
+     * @param nanos time, in nanoseconds
+     * @return String containing the time, in seconds
+     */
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    /**
+     * Format nanoseconds as milliseconds, for the report.
+     * @param nanos time, in nanoseconds
+     * @return String containing the time, in milliseconds
+     */
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Format a rate per second, for the report.
+     * @param count number of things done
+     * @param nanos time taken to do them, in nanoseconds
+     * @return String containing the rate per second
+     */
+    private static String rate(long count, long nanos) {
+        return String.format(Locale.ROOT, "%.1f", (nanos > 0) ? (count * 1e9 / nanos) : 0.0);
+    }
+
+    /**
+     * Measurements of the unit being exported on one thread.
+     */
+    public static class Unit
+    {
+        void reset() {
+            for(int i=0; i<counts.length; i++) {
+                counts[i] = 0;
+                nanos[i] = 0;
+                bytesIn[i] = 0;
+                bytesOut[i] = 0;
+            }
+            zipBytes = 0;
+            bytes = 0;
+            busy = 0;
+        }
+
+        boolean active;
+        final int[] counts = new int[Stage.values().length];
+        final long[] nanos = new long[Stage.values().length];
+        final long[] bytesIn = new long[Stage.values().length];
+        final long[] bytesOut = new long[Stage.values().length];
+        long zipBytes;
+        long bytes;
+        long resumed;
+        long busy;
+    }
+
+    /**
+     * The stages that measure themselves; the rest of a unit is encoding.
+     */
+    private static final Stage[] MEASURED_STAGES = {
+        Stage.INFLATE, Stage.PARSE, Stage.WRITE
+    };
+
+    /**
+     * The unit being exported on each thread.
+     */
+    private static final ThreadLocal<Unit> UNIT = new ThreadLocal<Unit>() {
+        @Override
+        protected Unit initialValue() {
+            return new Unit();
+        }
+    };
+
+    /**
+     * JobMetrics of every job, in the order they were created.
+     */
+    private static final List<JobMetrics> JOBS = new ArrayList();
+
+    /**
+     * True, if metrics are being collected.
+     */
+    private static volatile boolean enabled;
+}
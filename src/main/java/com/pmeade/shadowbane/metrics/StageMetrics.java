@@ -0,0 +1,109 @@
+/*
+ * StageMetrics.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StageMetrics accumulates the measurements of one stage of an export
+ * job: how many times it ran, how long it took, and how many bytes went
+ * in and came out. It may be updated by many threads at once.
+ * @author pmeade
+ */
+public class StageMetrics
+{
+    /**
+     * Record one run of the stage.
+     * @param nanos time taken, in nanoseconds
+     * @param bytesIn number of bytes consumed
+     * @param bytesOut number of bytes produced
+     */
+    public void record(long nanos, long bytesIn, long bytesOut) {
+        count.incrementAndGet();
+        this.nanos.addAndGet(nanos);
+        this.bytesIn.addAndGet(bytesIn);
+        this.bytesOut.addAndGet(bytesOut);
+        latency.record(nanos);
+    }
+
+    /**
+     * Obtain the number of times the stage ran.
+     * @return number of times the stage ran
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Obtain the total time taken by the stage, summed over every thread.
+     * @return total time taken by the stage, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos.get();
+    }
+
+    /**
+     * Obtain the total number of bytes consumed by the stage.
+     * @return total number of bytes consumed by the stage
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * Obtain the total number of bytes produced by the stage.
+     * @return total number of bytes produced by the stage
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Obtain the histogram of the time taken by each run of the stage.
+     * @return LatencyHistogram of the stage
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Number of times the stage ran.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Total time taken by the stage, in nanoseconds.
+     */
+    private final AtomicLong nanos = new AtomicLong();
+
+    /**
+     * Total number of bytes consumed by the stage.
+     */
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    /**
+     * Total number of bytes produced by the stage.
+     */
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * Histogram of the time taken by each run of the stage.
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+}
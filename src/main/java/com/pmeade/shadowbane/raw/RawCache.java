@@ -0,0 +1,121 @@
+/*
+ * RawCache.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.raw;
+
+import com.pmeade.shadowbane.CacheArchive;
+import com.pmeade.shadowbane.CacheResource;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+/**
+ * RawCache represents any of the cache archives, when its resources are
+ * exported raw: each resource is written to a file exactly as it is once
+ * decompressed, without being converted to another format. Raw resources
+ * are exported to "Raw/(archive)/(archive)_(index)_(id).bin".
+ * @author pmeade
+ */
+public class RawCache extends CacheArchive
+{
+    /**
+     * Names of the cache archives in the Shadowbane cache directory.
+     */
+    public static final String[] NAMES = {
+        "CObjects", "CZone", "Dungeon", "Mesh", "Motion", "Palette",
+        "Render", "Skeleton", "Sound", "TerrainAlpha", "Textures", "Tile",
+        "Visual"
+    };
+
+    /**
+     * Name of the directory, in the output directory, to which raw
+     * resources are exported.
+     */
+    public static final String RAW_DIR = "Raw";
+
+    /**
+     * Construct a RawCache archive.
+     * @param cacheDir the cache directory, where the archive is located
+     * @param name name of the archive (i.e.: "Mesh" for "Mesh.cache")
+     */
+    public RawCache(File cacheDir, String name) {
+        super(new File(cacheDir, name + ".cache"));
+        this.name = name;
+        read();
+    }
+
+    /**
+     * Obtain the name of the archive.
+     * @return name of the archive (i.e.: "Mesh")
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Export the indicated resource to a file, as-is. See exportRaw().
+     * @param index index of the resource to be exported
+     * @param outputDir the output directory
+     * @return true, if the resource was exported; false, if the export
+     *         failed
+     */
+    @Override
+    public boolean export(int index, File outputDir) {
+        File file = getOutputFile(index, outputDir);
+        file.getParentFile().mkdirs();
+        try {
+            exportRaw(index, file);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encode the provided resource as-is.
+     * @param resource CacheResource obtained from acquire()
+     * @param out OutputStream to which the resource data is written
+     * @return true, as the resource data is always written
+     * @throws IOException if the resource data could not be written
+     */
+    @Override
+    public boolean encode(CacheResource resource, OutputStream out) throws IOException {
+        Channels.newChannel(out).write(resource.getBuffer());
+        return true;
+    }
+
+    /**
+     * Determine the file the indicated resource is exported to.
+     * @param index index of the resource
+     * @param outputDir the output directory
+     * @return File the resource is exported to
+     */
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        CacheResource resource = getResource(index);
+        return new File(new File(new File(outputDir, RAW_DIR), name),
+            String.format("%s_%05d_%08d.bin", name, resource.index, resource.id));
+    }
+
+    /**
+     * Name of the archive.
+     */
+    private final String name;
+}
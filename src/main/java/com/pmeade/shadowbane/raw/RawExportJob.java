@@ -0,0 +1,129 @@
+/*
+ * RawExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.raw;
+
+import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.export.ExportUnit;
+import com.pmeade.shadowbane.export.ResourceExportJob;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * RawExportJob exports every resource of a cache archive as-is, one
+ * resource per unit. When the output is written to a zip container, a
+ * compressed resource is not inflated and compressed again; its DEFLATE
+ * data is copied from the cache archive straight into the zip file. When
+ * the output is written to loose files without an OutputWriter, nothing
+ * is loaded or encoded in memory; the write stage passes each resource
+ * through to its file with CacheArchive.exportRaw().
+ * @author pmeade
+ */
+public class RawExportJob extends ResourceExportJob
+{
+    /**
+     * Construct a RawExportJob.
+     * @param rawCache RawCache whose resources are exported
+     */
+    public RawExportJob(RawCache rawCache) {
+        super(RawCache.RAW_DIR + "/" + rawCache.getName(),
+            "raw " + rawCache.getName() + " resources", rawCache);
+        this.rawCache = rawCache;
+    }
+
+    /**
+     * Load the provided unit. A resource whose DEFLATE data will be copied,
+     * or that will be passed through to its file, is not loaded at all.
+     * @param unit ExportUnit to be loaded
+     */
+    @Override
+    public void load(ExportUnit unit) {
+        if((unit.writer != null) && (copiesDeflated(unit) == false)) {
+            super.load(unit);
+        }
+    }
+
+    /**
+     * Encode the provided unit. If its DEFLATE data can be copied, the
+     * output is the raw DEFLATE data of the resource; otherwise, it is the
+     * resource data.
+     * @param unit ExportUnit to be encoded
+     */
+    @Override
+    public void encode(ExportUnit unit) {
+        if(unit.writer == null) {
+            return;
+        }
+        if(copiesDeflated(unit)) {
+            CacheResource resource = rawCache.getResource(unit.index);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int)resource.zipSize);
+            try {
+                long crc = rawCache.copyDeflated(unit.index, out);
+                if(crc >= 0) {
+                    unit.output = out;
+                    unit.deflated = true;
+                    unit.outputSize = resource.size;
+                    unit.outputCrc = crc;
+                    return;
+                }
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+            }
+            // export whatever can be inflated instead
+            super.load(unit);
+        }
+        super.encode(unit);
+    }
+
+    /**
+     * Write the provided unit. Without an OutputWriter, the resource is
+     * passed through to its output file with CacheArchive.exportRaw().
+     * @param unit ExportUnit to be written
+     */
+    @Override
+    public void write(ExportUnit unit) {
+        if(unit.writer != null) {
+            super.write(unit);
+            return;
+        }
+        if(rawCache.export(unit.index, unit.outputDir) == false) {
+            unit.failed = true;
+        }
+        unit.written();
+    }
+
+    /**
+     * Determine if the DEFLATE data of the resource of the provided unit
+     * should be copied to the output: the resource must be compressed, and
+     * the output must be written by an OutputWriter that accepts it.
+     * @param unit ExportUnit being exported
+     * @return true, if the DEFLATE data should be copied
+     */
+    private boolean copiesDeflated(ExportUnit unit) {
+        if((unit.writer == null) || (unit.writer.acceptsDeflated() == false)) {
+            return false;
+        }
+        CacheResource resource = rawCache.getResource(unit.index);
+        return resource.size != resource.zipSize;
+    }
+
+    /**
+     * RawCache whose resources are exported.
+     */
+    private final RawCache rawCache;
+}
@@ -42,27 +42,34 @@ public class RenderCache extends CacheArchive
         read();
     }
 
-    /**
-     * Determine the number of resources present in the render cache.
-     * @return the number of resources present in the render cache
-     */
-    public int size() {
-        return resources.size();
-    }
-
     /**
      * Export the indicated resource to a file.
      * @param index index of the resource to be exported
      * @param outputDir the output directory
+     * @return true, as Render resources are not yet exported to a file
      */
-    public void export(int index, File outputDir) {
+    @Override
+    public boolean export(int index, File outputDir) {
         File resourceDir = new File(outputDir, "Render");
         resourceDir.mkdir();
-        CacheResource resource = resources.get(index);
-        loadResource(resource);
-        RenderResource render = new RenderResource(resource, meshCache);
-        render.exportToJson(resourceDir);
+        try(CacheResource resource = acquire(index);
+            RenderResource render = new RenderResource(resource, meshCache)) {
+            render.exportToJson(resourceDir);
+        }
+        return true;
+    }
+
+    /**
+     * Determine the file the indicated resource is exported to. Render
+     * resources are a work-in-progress, and are not yet exported to a file.
+     * @param index index of the resource
+     * @param outputDir the output directory
+     * @return null, as no file is written
+     */
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return null;
     }
-    
+
     private final MeshCache meshCache;
 }
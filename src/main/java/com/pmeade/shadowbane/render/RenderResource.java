@@ -22,9 +22,9 @@ import com.pmeade.shadowbane.CacheResource;
 import com.pmeade.shadowbane.mesh.MeshCache;
 import com.pmeade.shadowbane.mesh.MeshResource;
 import com.pmeade.shadowbane.type.Vector3;
+import java.io.Closeable;
 import java.io.File;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 import static com.pmeade.shadowbane.type.Vector3.getVector3;
 import static com.pmeade.shadowbane.util.Data.UI;
@@ -35,9 +35,12 @@ import static com.pmeade.shadowbane.util.Data.UI;
  * (rendering) a 3D model in the game. Most of the information here was
  * learned from Steve Hoff's ShadowbaneCacheViewer, and it is still a
  * work-in-progress.
+ * 
+ * A Render resource may hold the Mesh resource it refers to, so it
+ * should be closed once it is no longer needed.
  * @author pmeade
  */
-public class RenderResource
+public class RenderResource implements Closeable
 {
     /**
      * Decorate a CacheResource as a RenderResource.
@@ -49,13 +52,25 @@ public class RenderResource
         this.meshCache = meshCache;
     }
 
+    /**
+     * Release the Mesh resource referred to by the Render resource, if any.
+     * The CacheResource provided to the constructor belongs to the caller,
+     * and is left open.
+     */
+    @Override
+    public void close() {
+        if(mesh != null) {
+            mesh.close();
+            mesh = null;
+        }
+    }
+
     /**
      * Read the header and data of the Render resource. This method is called
      * to populate the fields of the RenderResource.
      */
     public void read() {
-        ByteBuffer buffer = ByteBuffer.wrap(resource.data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer buffer = resource.getBuffer();
 
         hasMesh = buffer.getInt(35);
         if (hasMesh == 1) {
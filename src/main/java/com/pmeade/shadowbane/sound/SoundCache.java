@@ -20,7 +20,11 @@ package com.pmeade.shadowbane.sound;
 
 import com.pmeade.shadowbane.CacheArchive;
 import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.util.ByteBufferInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * SoundCache represents "Sound.cache", the cache archive containing
@@ -39,25 +43,48 @@ public class SoundCache extends CacheArchive
         read();
     }
 
-    /**
-     * Determine the number of resources present in the sound cache.
-     * @return the number of resources present in the sound cache
-     */
-    public int size() {
-        return resources.size();
-    }
-
     /**
      * Export the indicated resource to a file.
      * @param index index of the resource to be exported
      * @param outputDir the output directory
+     * @return true, if the sound was exported; false, if the export failed
      */
-    public void export(int index, File outputDir) {
+    @Override
+    public boolean export(int index, File outputDir) {
         File resourceDir = new File(outputDir, "Sound");
         resourceDir.mkdir();
-        CacheResource resource = resources.get(index);
-        loadResource(resource);
+        SoundResource sound = new SoundResource(getResource(index));
+        try(InputStream stream = openStream(index)) {
+            sound.exportToWave(stream, resourceDir);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encode the provided resource as WAVE data.
+     * @param resource CacheResource obtained from acquire()
+     * @param out OutputStream to which the WAVE data is written
+     * @return true, if the WAVE data was written
+     * @throws IOException if the WAVE data could not be written
+     */
+    @Override
+    public boolean encode(CacheResource resource, OutputStream out) throws IOException {
         SoundResource sound = new SoundResource(resource);
-        sound.exportToWave(resourceDir);
+        return sound.exportToWave(new ByteBufferInputStream(resource.getBuffer()), out);
+    }
+
+    /**
+     * Determine the file the indicated resource is exported to.
+     * @param index index of the resource
+     * @param outputDir the output directory
+     * @return File the resource is exported to
+     */
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        SoundResource sound = new SoundResource(getResource(index));
+        return new File(new File(outputDir, "Sound"), sound.getFileName());
     }
 }
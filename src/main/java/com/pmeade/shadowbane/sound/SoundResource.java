@@ -19,9 +19,14 @@
 package com.pmeade.shadowbane.sound;
 
 import com.pmeade.shadowbane.CacheResource;
-import java.io.ByteArrayInputStream;
+import com.pmeade.shadowbane.metrics.Metrics;
+import com.pmeade.shadowbane.util.ByteBufferInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
@@ -52,31 +57,89 @@ public class SoundResource
      * to populate the fields of the SoundResource.
      */
     public void read() {
-        ByteBuffer buffer = ByteBuffer.wrap(resource.data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        IntBuffer ib = buffer.asIntBuffer();
-        
-        dataLength = ib.get();
-        bitRate = ib.get();
-        numChannels = ib.get();
-        resolution = ib.get();
-        
-        if(dataLength != (resource.data.length-16)) {
-            System.err.println("BAD MOJO: dataLength:" + dataLength + " vs. resource.data.length:" + (resource.data.length-16));
-        }
+        ByteBuffer buffer = resource.getBuffer();
+        readHeader(buffer);
         
-        data = new byte[dataLength];
+        buffer.limit(16 + dataLength);
         buffer.position(16);
-        buffer.get(data);
+        data = buffer.slice();
+    }
+
+    /**
+     * Determine the name of the file this Sound resource is exported to.
+     * @return name of the exported file
+     */
+    public String getFileName() {
+        return String.format("Sound_%04d_%04d.wav",
+            resource.index, resource.id
+        );
     }
 
     /**
      * Export the Sound resource to a WAVE file.
      * @param outputDir directory where resource output goes
+     * @throws IOException if the WAVE file could not be written
+     */
+    public void exportToWave(File outputDir) throws IOException {
+        exportToWave(new ByteBufferInputStream(resource.getBuffer()), outputDir);
+    }
+
+    /**
+     * Export the Sound resource to a WAVE file, reading the resource data
+     * from the provided stream (see CacheArchive.openStream()). The sound
+     * data is copied from the stream to the file as it is read, so it is
+     * never held in memory all at once. If the file can't be written, the
+     * partial file is deleted.
+     * @param stream InputStream over the data of the resource, positioned
+     *               at its header
+     * @param outputDir directory where resource output goes
+     * @throws IOException if the WAVE file could not be written
+     */
+    public void exportToWave(InputStream stream, File outputDir) throws IOException {
+        File file = new File(outputDir, getFileName());
+        try {
+            AudioSystem.write(
+                openAudioStream(stream),
+                AudioFileFormat.Type.WAVE,
+                file);
+        } catch(IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Export the Sound resource as WAVE data to the provided OutputStream,
+     * reading the resource data from the provided stream. The output
+     * stream is not closed.
+     * @param stream InputStream over the data of the resource, positioned
+     *               at its header
+     * @param out OutputStream to which the WAVE data is written
+     * @return true, if the WAVE data was written
+     * @throws IOException if the WAVE data could not be written
+     */
+    public boolean exportToWave(InputStream stream, OutputStream out) throws IOException {
+        AudioSystem.write(
+            openAudioStream(stream),
+            AudioFileFormat.Type.WAVE,
+            out);
+        return true;
+    }
+
+    /**
+     * Read the header of the Sound resource from the provided stream, and
+     * open the sound data that follows it as an AudioInputStream.
+     * @param stream InputStream over the data of the resource, positioned
+     *               at its header
+     * @return AudioInputStream over the sound data
+     * @throws IOException if the header could not be read
      */
-    public void exportToWave(File outputDir) {
-        this.read();
-        ByteArrayInputStream stream = new ByteArrayInputStream(data);
+    private AudioInputStream openAudioStream(InputStream stream) throws IOException {
+        byte[] header = new byte[16];
+        new DataInputStream(stream).readFully(header);
+        long start = Metrics.start();
+        readHeader(ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN));
+        Metrics.stop(Metrics.Stage.PARSE, start, header.length, 0);
         
         AudioFormat audioFormat = new AudioFormat(
             (float)bitRate, // float sampleRate,
@@ -86,20 +149,90 @@ public class SoundResource
             false           // boolean bigEndian
         );        
         
-        AudioInputStream audioStream = new AudioInputStream(stream, audioFormat, dataLength);
+        //
+        // Note: The length of an AudioInputStream is counted in frames,
+        //       not bytes, so this overstates the length in the header of
+        //       the WAVE file when a frame is more than one byte. It has
+        //       always been exported this way; it is kept so that the
+        //       exported files do not change.
+        //
+        return new AudioInputStream(
+            new DataStream(stream, dataLength), audioFormat, dataLength);
+    }
+
+    /**
+     * Read the header of the Sound resource.
+     * @param buffer ByteBuffer positioned at the header of the resource
+     */
+    private void readHeader(ByteBuffer buffer) {
+        IntBuffer ib = buffer.asIntBuffer();
         
-        try {
-            AudioSystem.write(
-                audioStream,
-                AudioFileFormat.Type.WAVE,
-                new File(
-                    outputDir,
-                    String.format("Sound_%04d_%04d.wav",
-                        resource.index, resource.id
-            )));
-        } catch(IOException e) {
-            System.err.println(e.getMessage());
+        dataLength = ib.get();
+        bitRate = ib.get();
+        numChannels = ib.get();
+        resolution = ib.get();
+        
+        if(dataLength != (resource.size-16)) {
+            System.err.println("BAD MOJO: dataLength:" + dataLength + " vs. resource.size:" + (resource.size-16));
+        }
+    }
+
+    /**
+     * DataStream reads no more than dataLength bytes of sound data from
+     * the resource stream, like the data view created by read().
+     */
+    private static class DataStream extends FilterInputStream
+    {
+        DataStream(InputStream in, int dataLength) {
+            super(in);
+            this.remaining = Math.max(0, dataLength);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if(b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) {
+                return 0;
+            }
+            if(remaining == 0) {
+                return -1;
+            }
+            int count = in.read(b, off, (int)Math.min(len, remaining));
+            if(count > 0) {
+                remaining -= count;
+            }
+            return count;
         }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = in.skip(Math.min(n, remaining));
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private long remaining;
     }
     
     /**
@@ -130,7 +263,7 @@ public class SoundResource
     private int resolution;
     
     /**
-     * The actual bytes of sound data.
+     * The actual bytes of sound data; a view of the resource data.
      */
-    private byte[] data;
+    private ByteBuffer data;
 }
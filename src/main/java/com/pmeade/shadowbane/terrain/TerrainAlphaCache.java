@@ -20,10 +20,14 @@ package com.pmeade.shadowbane.terrain;
 
 import com.pmeade.shadowbane.CacheArchive;
 import com.pmeade.shadowbane.CacheResource;
-import java.awt.image.BufferedImage;
+import com.pmeade.shadowbane.metrics.Metrics;
+import com.pmeade.shadowbane.util.PngWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import static com.pmeade.shadowbane.terrain.TerrainMapSpec.COLUMN_MAJOR;
 import static com.pmeade.shadowbane.util.Data.UB;
@@ -159,26 +163,37 @@ public class TerrainAlphaCache extends CacheArchive
         read();
     }
 
-    /**
-     * Determine the number of resources present in the terrain cache.
-     * @return the number of resources present in the terrain cache
-     */
-    public int size() {
-        return resources.size();
-    }
-
     /**
      * Export the indicated resource to a file.
      * @param index index of the resource to be exported
      * @param outputDir the output directory
+     * @return true, if the resource was exported, or its pixel data can't
+     *         be exported; false, if the export failed
      */
-    public void export(int index, File outputDir) {
+    @Override
+    public boolean export(int index, File outputDir) {
         File resourceDir = new File(outputDir, "TerrainAlpha");
         resourceDir.mkdir();
-        CacheResource resource = resources.get(index);
-        loadResource(resource);
-        TerrainAlphaResource terrain = new TerrainAlphaResource(resource);
-        terrain.exportToPng(resourceDir);
+        try(CacheResource resource = acquire(index)) {
+            TerrainAlphaResource terrain = new TerrainAlphaResource(resource);
+            terrain.exportToPng(resourceDir);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determine the file the indicated resource is exported to.
+     * @param index index of the resource
+     * @param outputDir the output directory
+     * @return File the resource is exported to
+     */
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        TerrainAlphaResource terrain = new TerrainAlphaResource(getResource(index));
+        return new File(new File(outputDir, "TerrainAlpha"), terrain.getFileName());
     }
 
     /**
@@ -189,69 +204,163 @@ public class TerrainAlphaCache extends CacheArchive
         File resourceDir = new File(outputDir, "TerrainAlpha");
         resourceDir.mkdir();
         for(TerrainMapSpec map : MAPS) {
-            exportTerrainMap(resourceDir, map);
+            try {
+                exportTerrainMap(resourceDir, map);
+            } catch(IOException e) {
+                System.err.println(e.getMessage());
+            }
         }
     }
 
+    /**
+     * Export the indicated terrain map to a terrain map image.
+     * @param mapIndex index of the TerrainMapSpec in MAPS to be exported
+     * @param outputDir the output directory
+     * @return true, if the terrain map was exported, or its ordering can't
+     *         be exported; false, if the export failed
+     */
+    public boolean exportTerrainMap(int mapIndex, File outputDir) {
+        File resourceDir = new File(outputDir, "TerrainAlpha");
+        resourceDir.mkdir();
+        try {
+            exportTerrainMap(resourceDir, MAPS[mapIndex]);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encode the indicated terrain map as a PNG image to the provided
+     * OutputStream. The stream is not closed.
+     * @param mapIndex index of the TerrainMapSpec in MAPS to be encoded
+     * @param out OutputStream to which the image is written
+     * @return true, if the image was written; false, if the terrain map
+     *         could not be exported
+     * @throws IOException if the image could not be written
+     */
+    public boolean encodeTerrainMap(int mapIndex, OutputStream out) throws IOException {
+        TerrainMapSpec map = MAPS[mapIndex];
+        if(checkOrdering(map) == false) {
+            return false;
+        }
+        PngWriter png = new PngWriter(out,
+            map.width * TerrainAlphaResource.WIDTH,
+            map.height * TerrainAlphaResource.HEIGHT,
+            PngWriter.GRAY);
+        writeBands(map, png);
+        png.finish();
+        return true;
+    }
+
+    /**
+     * Determine the file the indicated terrain map is exported to.
+     * @param mapIndex index of the TerrainMapSpec in MAPS
+     * @param outputDir the output directory
+     * @return File the terrain map is exported to
+     */
+    public File getTerrainMapFile(int mapIndex, File outputDir) {
+        return new File(new File(outputDir, "TerrainAlpha"), getTerrainMapName(MAPS[mapIndex]));
+    }
+
+    /**
+     * Determine the name of the file a terrain map is exported to.
+     * @param map TerrainMapSpec specifying the map
+     * @return name of the exported file
+     */
+    private static String getTerrainMapName(TerrainMapSpec map) {
+        return String.format("TerrainMap_%05d.png", map.startIndex);
+    }
+
     /**
      * Export a PNG map for the provided TerrainMapSpec to the provided output
-     * directory.
+     * directory. The map is streamed to the file one band of TerrainAlpha
+     * blocks at a time, top to bottom, so only a single row of blocks is
+     * loaded at once. If the image can't be written, the partial file is
+     * deleted.
      * @param outputDir File representing the output directory
      * @param map TerrainMapSpec specifying the map to be exported
+     * @throws IOException if the image could not be written
      */
-    private void exportTerrainMap(File outputDir, TerrainMapSpec map) {
+    private void exportTerrainMap(File outputDir, TerrainMapSpec map) throws IOException {
+        if(checkOrdering(map) == false) {
+            return;
+        }
+
         // do some initial calculations on the map
         int mapWidth = map.width * TerrainAlphaResource.WIDTH;
         int mapHeight = map.height * TerrainAlphaResource.HEIGHT;
-        BufferedImage image = new BufferedImage(mapWidth, mapHeight, BufferedImage.TYPE_BYTE_GRAY);
 
-        // if the map has COLUMN_MAJOR ordering (pro tip: they all do)
-        if(map.ordering == COLUMN_MAJOR) {
-            // then for each TerrainAlpha resource that makes up the map
-            for(int i=0; i<map.width; i++) {
-                for(int j=0; j<map.height; j++) {
-                    // load the resource from the cache
-                    CacheResource resource = resources.get(map.startIndex + i*map.height + j);
-                    loadResource(resource);
+        File file = new File(outputDir, getTerrainMapName(map));
+        try(PngWriter png = new PngWriter(
+                new BufferedOutputStream(Metrics.meter(new FileOutputStream(file))),
+                mapWidth, mapHeight, PngWriter.GRAY)) {
+            writeBands(map, png);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Check that the provided terrain map can be exported.
+     * @param map TerrainMapSpec specifying the map
+     * @return true, if the map can be exported
+     */
+    private static boolean checkOrdering(TerrainMapSpec map) {
+        // if the map doesn't have COLUMN_MAJOR ordering, we can't export it
+        if(map.ordering != COLUMN_MAJOR) {
+            System.err.println("BAD MOJO: map.ordering:" + map.ordering + " vs. " + COLUMN_MAJOR);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the rows of the provided terrain map to a PNG image, one band
+     * of TerrainAlpha blocks at a time, top to bottom.
+     * @param map TerrainMapSpec specifying the map
+     * @param png PngWriter to which the rows are written
+     * @throws IOException if the rows could not be written
+     */
+    private void writeBands(TerrainMapSpec map, PngWriter png) throws IOException {
+        byte[] row = new byte[map.width * TerrainAlphaResource.WIDTH];
+        CacheResource[] band = new CacheResource[map.width];
+        ByteBuffer[] bandData = new ByteBuffer[map.width];
 
-                    // then start putting the pixel data onto our big map
-                    int dataIndex = 26;
-                    for(int y=0; y<TerrainAlphaResource.HEIGHT; y++) {
+        // the bottom row of blocks (j=0) is at the bottom of the map,
+        // so the bands are written from the top (j=map.height-1) down
+        for(int j=map.height-1; j>=0; j--) {
+            try {
+                // load each TerrainAlpha resource in this band
+                for(int i=0; i<map.width; i++) {
+                    band[i] = acquire(map.startIndex + i*map.height + j);
+                    bandData[i] = band[i].getBuffer();
+                }
+                // each block is also stored bottom row first, so
+                // the rows of the band are written from y=HEIGHT-1 down
+                for(int y=TerrainAlphaResource.HEIGHT-1; y>=0; y--) {
+                    for(int i=0; i<map.width; i++) {
+                        ByteBuffer data = bandData[i];
+                        int dataIndex = 26 + y*TerrainAlphaResource.WIDTH;
+                        int px = i*TerrainAlphaResource.WIDTH;
                         for(int x=0; x<TerrainAlphaResource.WIDTH; x++) {
-                            int g = UB(resource.data[dataIndex]); dataIndex++;
-                            int argb = (0xff000000) // a
-                                     | (g << 16)    // r
-                                     | (g <<  8)    // g
-                                     | (g <<  0);   // b
-                            int pi = i;
-                            int pj = (map.height-1)-j;
-                            int px = x;
-                            int py = (TerrainAlphaResource.HEIGHT-1)-y;
-                            image.setRGB(
-                                TerrainAlphaResource.WIDTH*pi+px,  // x
-                                TerrainAlphaResource.HEIGHT*pj+py, // y
-                                argb);                             // argb
+                            int g = UB(data.get(dataIndex)); dataIndex++;
+                            row[px+x] = PngWriter.SRGB_TO_LINEAR_GRAY[g];
                         }
                     }
+                    png.writeRow(row, 0);
+                }
+            } finally {
+                for(int i=0; i<map.width; i++) {
+                    if(band[i] != null) {
+                        band[i].close();
+                        band[i] = null;
+                        bandData[i] = null;
+                    }
                 }
             }
-
-            // we've put all the TerrainAlpha blocks into the terrain map
-            // so now it's time to write the image out to a PNG file
-            try {
-                ImageIO.write(
-                    image,
-                    "png",
-                    new File(
-                        outputDir,
-                        String.format("TerrainMap_%05d.png",
-                            map.startIndex
-                )));
-            } catch (IOException e) {
-                System.err.println(e.getMessage());
-            }
-        } else {
-            System.err.println("BAD MOJO: map.ordering:" + map.ordering + " vs. " + COLUMN_MAJOR);
         }
     }
 }
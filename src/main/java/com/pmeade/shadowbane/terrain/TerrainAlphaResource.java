@@ -19,12 +19,14 @@
 package com.pmeade.shadowbane.terrain;
 
 import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.metrics.Metrics;
+import com.pmeade.shadowbane.util.PngWriter;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import javax.imageio.ImageIO;
 
 import static com.pmeade.shadowbane.util.Data.UB;
 
@@ -54,9 +56,42 @@ public class TerrainAlphaResource
      * called to populate the fields of the TerrainResource.
      */
     public void read() {
-        ByteBuffer buffer = ByteBuffer.wrap(resource.data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer buffer = resource.getBuffer();
+        readHeader(buffer);
 
+        buffer.position(26);
+        ByteBuffer data = buffer.slice();
+        data.limit(width*height);
+        buffer.position(26 + data.limit());
+
+        image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+
+        int dataIndex = 0;
+        for(int y=0; y<height; y++) {
+            for(int x=0; x<width; x++) {
+                int g = UB(data.get(dataIndex)); dataIndex++;
+                int rgba = (0xff000000)
+                         | (g << 16)
+                         | (g <<  8)
+                         | (g <<  0);
+                image.setRGB(x, y, rgba);
+            }
+        }
+
+        if(dataIndex != data.limit()) {
+            System.err.println("BAD MOJO: dataIndex:" + dataIndex + " vs. data.limit():" + data.limit());
+        }
+
+        if(buffer.position() != resource.size) {
+            System.err.println("BAD MOJO: buffer.position():" + buffer.position() + " vs. resource.size:" + resource.size);
+        }
+    }
+
+    /**
+     * Read and check the header of the TerrainAlpha resource.
+     * @param buffer ByteBuffer containing the resource data
+     */
+    private void readHeader(ByteBuffer buffer) {
         width = buffer.getInt(0);
         if(width != 0x80) {
             System.err.println("BAD MOJO: width:" + width + " vs. 128");
@@ -96,51 +131,50 @@ public class TerrainAlphaResource
         if(length != 0x4000) {
             System.err.println("BAD MOJO: length:" + length + " vs. 16384");
         }
+    }
 
-        byte[] data = new byte[width*height];
-        buffer.position(26);
-        buffer.get(data);
-
-        image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-
-        int dataIndex = 0;
-        for(int y=0; y<height; y++) {
-            for(int x=0; x<width; x++) {
-                int g = UB(data[dataIndex]); dataIndex++;
-                int rgba = (0xff000000)
-                         | (g << 16)
-                         | (g <<  8)
-                         | (g <<  0);
-                image.setRGB(x, y, rgba);
-            }
-        }
-
-        if(dataIndex != data.length) {
-            System.err.println("BAD MOJO: dataIndex:" + dataIndex + " vs. data.length:" + data.length);
-        }
-
-        if(buffer.position() != resource.data.length) {
-            System.err.println("BAD MOJO: buffer.position():" + buffer.position() + " vs. resource.data.length:" + resource.data.length);
-        }
+    /**
+     * Determine the name of the file this TerrainAlpha resource is exported to.
+     * @return name of the exported file
+     */
+    public String getFileName() {
+        return String.format("TerrainAlpha_%05d_%010d.png",
+            resource.index, resource.id
+        );
     }
 
     /**
-     * Export the TerrainAlpha resource to a PNG file.
+     * Export the TerrainAlpha resource to a PNG file. The rows of the
+     * resource are streamed to the file without building a BufferedImage.
+     * If the image can't be written, the partial file is deleted.
      * @param outputDir directory where resource output goes
+     * @throws IOException if the image could not be written
      */
-    public void exportToPng(File outputDir) {
-        this.read();
-        try {
-            ImageIO.write(
-                image,
-                "png",
-                new File(
-                    outputDir,
-                    String.format("TerrainAlpha_%05d_%010d.png",
-                        resource.index, resource.id
-            )));
+    public void exportToPng(File outputDir) throws IOException {
+        ByteBuffer buffer = resource.getBuffer();
+        long start = Metrics.start();
+        readHeader(buffer);
+        Metrics.stop(Metrics.Stage.PARSE, start, 26, 0);
+
+        if(26 + width*height > buffer.limit()) {
+            System.err.println("BAD MOJO: pixel data:" + (width*height) + " vs. resource.size:" + (buffer.limit() - 26));
+            return;
+        }
+
+        byte[] row = new byte[width];
+        File file = new File(outputDir, getFileName());
+        try(PngWriter png = new PngWriter(
+                new BufferedOutputStream(Metrics.meter(new FileOutputStream(file))),
+                width, height, PngWriter.GRAY)) {
+            for(int y=0; y<height; y++) {
+                for(int x=0; x<width; x++) {
+                    row[x] = PngWriter.SRGB_TO_LINEAR_GRAY[UB(buffer.get(26 + y*width + x))];
+                }
+                png.writeRow(row, 0);
+            }
         } catch (IOException e) {
-            System.err.println(e.getMessage());
+            file.delete();
+            throw e;
         }
     }
 
@@ -0,0 +1,123 @@
+/*
+ * TerrainMapExportJob.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.terrain;
+
+import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.export.ExportJob;
+import com.pmeade.shadowbane.export.ExportUnit;
+import com.pmeade.shadowbane.export.ResourceSelector;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * TerrainMapExportJob exports the TerrainAlpha resources as terrain maps,
+ * one terrain map per unit. Each unit is made up of all the TerrainAlpha
+ * resources in the map.
+ * @author pmeade
+ */
+public class TerrainMapExportJob extends ExportJob
+{
+    /**
+     * Construct a TerrainMapExportJob.
+     * @param terrainAlphaCache TerrainAlphaCache containing the resources
+     */
+    public TerrainMapExportJob(TerrainAlphaCache terrainAlphaCache) {
+        super("TerrainMap", "TerrainAlpha maps", terrainAlphaCache);
+        this.terrainAlphaCache = terrainAlphaCache;
+    }
+
+    @Override
+    public int size() {
+        return TerrainAlphaCache.MAPS.length;
+    }
+
+    @Override
+    public boolean export(int index, File outputDir) {
+        return terrainAlphaCache.exportTerrainMap(index, outputDir);
+    }
+
+    /**
+     * Encode the terrain map of the provided unit in memory. A terrain
+     * map is made of many TerrainAlpha resources, so they are not loaded
+     * ahead of time; each band of the map is loaded while it is encoded,
+     * as it is when the map is exported to a file. If the map can't be
+     * encoded, the unit is marked as failed.
+     * @param unit ExportUnit to be encoded
+     */
+    @Override
+    public void encode(ExportUnit unit) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if(terrainAlphaCache.encodeTerrainMap(unit.index, out)) {
+                unit.output = out;
+            }
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            unit.failed = true;
+        }
+    }
+
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return terrainAlphaCache.getTerrainMapFile(index, outputDir);
+    }
+
+    @Override
+    public String getInputKey(int index) {
+        TerrainMapSpec map = TerrainAlphaCache.MAPS[index];
+        CacheResource first = terrainAlphaCache.getResource(map.startIndex);
+        long size = 0;
+        long zipSize = 0;
+        CRC32 crc = new CRC32();
+        for(int i=0; i<map.width*map.height; i++) {
+            CacheResource resource = terrainAlphaCache.getResource(map.startIndex + i);
+            size += resource.size;
+            zipSize += resource.zipSize;
+            terrainAlphaCache.updateChecksum(map.startIndex + i, crc);
+        }
+        return String.format("%d\t%d\t%d\t%d\t%08x",
+            first.id, first.dataOffset, size, zipSize, crc.getValue());
+    }
+
+    /**
+     * Determine if the indicated terrain map is selected. A terrain map
+     * is selected if any of the TerrainAlpha resources it is made from
+     * is selected.
+     * @param index index of the terrain map
+     * @param selector ResourceSelector choosing the resources to export
+     * @return true, if the terrain map should be exported
+     */
+    @Override
+    public boolean selects(int index, ResourceSelector selector) {
+        TerrainMapSpec map = TerrainAlphaCache.MAPS[index];
+        for(int i=0; i<map.width*map.height; i++) {
+            if(selector.selects(terrainAlphaCache, map.startIndex + i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * TerrainAlphaCache containing the resources of the terrain maps.
+     */
+    private final TerrainAlphaCache terrainAlphaCache;
+}
@@ -21,6 +21,8 @@ package com.pmeade.shadowbane.textures;
 import com.pmeade.shadowbane.CacheArchive;
 import com.pmeade.shadowbane.CacheResource;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * TexturesCache represents "Textures.cache", the cache archive containing
@@ -40,24 +42,51 @@ public class TexturesCache extends CacheArchive
     }
 
     /**
-     * Determine the number of resources present in the textures cache.
-     * @return the number of resources present in the textures cache
-     */
-    public int size() {
-        return resources.size();
-    }
-
-    /**
-     * Export the indicated resource to a file.
+     * Export the indicated resource to a file. The texture is read from
+     * the cache archive once, and written as a PNG image row by row; see
+     * TexturesResource.exportToPng(CacheArchive, File).
      * @param index index of the resource to be exported
      * @param outputDir the output directory
+     * @return true, if the texture was exported, or can't be exported in
+     *         its format; false, if the export failed
      */
-    public void export(int index, File outputDir) {
+    @Override
+    public boolean export(int index, File outputDir) {
         File resourceDir = new File(outputDir, "Textures");
         resourceDir.mkdir();
-        CacheResource resource = resources.get(index);
-        loadResource(resource);
+        TexturesResource texture = new TexturesResource(getResource(index));
+        try {
+            texture.exportToPng(this, resourceDir);
+        } catch(IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encode the provided resource as a PNG image.
+     * @param resource CacheResource obtained from acquire()
+     * @param out OutputStream to which the image is written
+     * @return true, if the image was written; false, if the texture could
+     *         not be exported
+     * @throws IOException if the image could not be written
+     */
+    @Override
+    public boolean encode(CacheResource resource, OutputStream out) throws IOException {
         TexturesResource texture = new TexturesResource(resource);
-        texture.exportToPng(resourceDir);
+        return texture.exportToPng(out);
+    }
+
+    /**
+     * Determine the file the indicated resource is exported to.
+     * @param index index of the resource
+     * @param outputDir the output directory
+     * @return File the resource is exported to
+     */
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        TexturesResource texture = new TexturesResource(getResource(index));
+        return new File(new File(outputDir, "Textures"), texture.getFileName());
     }
 }
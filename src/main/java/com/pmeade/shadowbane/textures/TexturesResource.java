@@ -18,14 +18,21 @@
 
 package com.pmeade.shadowbane.textures;
 
+import com.pmeade.shadowbane.CacheArchive;
 import com.pmeade.shadowbane.CacheResource;
+import com.pmeade.shadowbane.metrics.Metrics;
+import com.pmeade.shadowbane.util.PngWriter;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
-import javax.imageio.ImageIO;
 
 /**
  * TexturesResource represents a texture resource. Texture resources are
@@ -41,6 +48,21 @@ public class TexturesResource
         BufferedImage.TYPE_INT_RGB,     // 3
         BufferedImage.TYPE_INT_ARGB     // 4
     };
+
+    /**
+     * Largest compressed Textures resource that is inflated straight from
+     * its cache archive into a buffer of its own (1 MB). Larger ones are
+     * loaded with CacheArchive.acquire(), into the pool of reusable buffers.
+     */
+    public static final int STREAM_SIZE = 0x100000;
+
+    public static final int[] COLOR_TYPE = {
+        -1,                             // 0
+        PngWriter.GRAY,                 // 1
+        -1,                             // 2
+        PngWriter.RGB,                  // 3
+        PngWriter.RGBA                  // 4
+    };
     
     /**
      * Decorate a CacheResource as a TexturesResource.
@@ -55,17 +77,12 @@ public class TexturesResource
      * called to populate the fields of the TextureResource.
      */
     public void read() {
-        ByteBuffer buffer = ByteBuffer.wrap(resource.data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        IntBuffer ib = buffer.asIntBuffer();
-        
-        width = ib.get();
-        height = ib.get();
-        depth = ib.get();
+        ByteBuffer buffer = resource.getBuffer();
+        readHeader(buffer);
 
-        byte[] data = new byte[width*height*depth];
+        buffer.limit(26 + width*height*depth);
         buffer.position(26);
-        buffer.get(data);
+        ByteBuffer data = buffer.slice();
         
         image = new BufferedImage(width, height, IMAGE_TYPE[depth]);
         
@@ -76,7 +93,7 @@ public class TexturesResource
                 switch(depth)
                 {
                     case 1:
-                        g = data[dataIndex]; dataIndex++;
+                        g = data.get(dataIndex); dataIndex++;
                         rgba = (0xff000000)
                              | ((g & 0xff) << 16)
                              | ((g & 0xff) <<  8)
@@ -84,9 +101,9 @@ public class TexturesResource
                         image.setRGB(x, (height-1)-y, rgba);
                         break; 
                     case 3:
-                        r = data[dataIndex]; dataIndex++;
-                        g = data[dataIndex]; dataIndex++;
-                        b = data[dataIndex]; dataIndex++;
+                        r = data.get(dataIndex); dataIndex++;
+                        g = data.get(dataIndex); dataIndex++;
+                        b = data.get(dataIndex); dataIndex++;
                         rgba = (0xff000000)
                              | ((r & 0xff) << 16)
                              | ((g & 0xff) <<  8)
@@ -94,10 +111,10 @@ public class TexturesResource
                         image.setRGB(x, (height-1)-y, rgba);
                         break;
                     case 4:
-                        r = data[dataIndex]; dataIndex++;
-                        g = data[dataIndex]; dataIndex++;
-                        b = data[dataIndex]; dataIndex++;
-                        a = data[dataIndex]; dataIndex++;
+                        r = data.get(dataIndex); dataIndex++;
+                        g = data.get(dataIndex); dataIndex++;
+                        b = data.get(dataIndex); dataIndex++;
+                        a = data.get(dataIndex); dataIndex++;
                         rgba = ((a & 0xff) << 24)
                              | ((r & 0xff) << 16)
                              | ((g & 0xff) <<  8)
@@ -108,30 +125,143 @@ public class TexturesResource
             }
         }
         
-        if(dataIndex != data.length) {
-            System.err.println("BAD MOJO: dataIndex:" + dataIndex + " vs. data.length:" + data.length);
+        if(dataIndex != data.limit()) {
+            System.err.println("BAD MOJO: dataIndex:" + dataIndex + " vs. data.limit():" + data.limit());
         }
     }
 
     /**
-     * Export the Textures resource to a PNG file.
+     * Determine the name of the file this Textures resource is exported to.
+     * @return name of the exported file
+     */
+    public String getFileName() {
+        return String.format("Texture_%04d_%07d.png",
+            resource.index, resource.id
+        );
+    }
+
+    /**
+     * Export the Textures resource to a PNG file. The data of the texture
+     * is read from the cache archive once, without being decoded into a
+     * BufferedImage. A resource stored without compression is read in
+     * place, from the memory mapped cache archive. A small compressed
+     * resource is inflated in a single pass into a buffer of its own; a
+     * larger one is loaded whole, into the pool of reusable buffers. The
+     * resource needs only its metadata.
+     * @param archive CacheArchive containing the resource
      * @param outputDir directory where resource output goes
+     * @throws IOException if the texture could not be read or written
+     */
+    public void exportToPng(CacheArchive archive, File outputDir) throws IOException {
+        File file = new File(outputDir, getFileName());
+        if((resource.size == resource.zipSize) || (resource.size > STREAM_SIZE)) {
+            try(CacheResource data = archive.acquire(resource.index)) {
+                exportToPng(data.getBuffer(), file);
+            }
+            return;
+        }
+        byte[] data = new byte[(int)resource.size];
+        try(InputStream in = archive.openStream(resource.index)) {
+            new DataInputStream(in).readFully(data);
+        }
+        exportToPng(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN), file);
+    }
+
+    /**
+     * Export the texture in the provided buffer to a PNG file. If the
+     * image can't be written, the partial file is deleted.
+     * @param buffer ByteBuffer containing the resource data
+     * @param file File to which the image is written
+     * @throws IOException if the image could not be written
      */
-    public void exportToPng(File outputDir) {
-        this.read();
-        try {
-            ImageIO.write(
-                image,
-                "png",
-                new File(
-                    outputDir,
-                    String.format("Texture_%04d_%07d.png",
-                        resource.index, resource.id
-            )));
-        } catch (IOException e) {
-            System.err.println(e.getMessage());
+    private void exportToPng(ByteBuffer buffer, File file) throws IOException {
+        if(checkHeader(buffer) == false) {
+            return;
+        }
+        try(PngWriter png = new PngWriter(
+                new BufferedOutputStream(Metrics.meter(new FileOutputStream(file))),
+                width, height, COLOR_TYPE[depth])) {
+            writeRows(buffer, png);
+        } catch(IOException e) {
+            file.delete();
+            throw e;
         }
     }
+
+    /**
+     * Export the Textures resource as a PNG image to the provided
+     * OutputStream. The stream is flushed, but not closed.
+     * @param out OutputStream to which the image is written
+     * @return true, if the image was written; false, if the texture could
+     *         not be exported
+     * @throws IOException if the image could not be written
+     */
+    public boolean exportToPng(OutputStream out) throws IOException {
+        ByteBuffer buffer = resource.getBuffer();
+        if(checkHeader(buffer) == false) {
+            return false;
+        }
+        PngWriter png = new PngWriter(out, width, height, COLOR_TYPE[depth]);
+        writeRows(buffer, png);
+        png.finish();
+        return true;
+    }
+
+    /**
+     * Read the header of the Textures resource, and check that the
+     * texture can be exported.
+     * @param buffer ByteBuffer containing the resource data
+     * @return true, if the texture can be exported
+     */
+    private boolean checkHeader(ByteBuffer buffer) {
+        long start = Metrics.start();
+        readHeader(buffer);
+        Metrics.stop(Metrics.Stage.PARSE, start, 12, 0);
+
+        if((depth < 0) || (depth >= COLOR_TYPE.length) || (COLOR_TYPE[depth] < 0)) {
+            System.err.println("BAD MOJO: Unsupported texture depth:" + depth);
+            return false;
+        }
+        long pixelData = (long)width * height * depth;
+        if(26 + pixelData > resource.size) {
+            System.err.println("BAD MOJO: pixel data:" + pixelData + " vs. resource.size:" + (resource.size - 26));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the rows of the texture to a PNG image, bottom row first.
+     * @param buffer ByteBuffer containing the resource data
+     * @param png PngWriter to which the rows are written
+     * @throws IOException if the rows could not be written
+     */
+    private void writeRows(ByteBuffer buffer, PngWriter png) throws IOException {
+        int rowLength = width * depth;
+        byte[] row = new byte[rowLength];
+        for(int y=height-1; y>=0; y--) {
+            buffer.position(26 + y*rowLength);
+            buffer.get(row);
+            if(depth == 1) {
+                for(int i=0; i<rowLength; i++) {
+                    row[i] = PngWriter.SRGB_TO_LINEAR_GRAY[row[i] & 0xff];
+                }
+            }
+            png.writeRow(row, 0);
+        }
+    }
+
+    /**
+     * Read the width, height, and depth from the header of the Textures
+     * resource.
+     * @param buffer ByteBuffer containing the resource data
+     */
+    private void readHeader(ByteBuffer buffer) {
+        IntBuffer ib = buffer.asIntBuffer();
+        width = ib.get();
+        height = ib.get();
+        depth = ib.get();
+    }
     
     /**
      * CacheResource to be decorated as a TexturesResource.
@@ -0,0 +1,245 @@
+/*
+ * AsciiWriter.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * AsciiWriter writes ASCII text to an OutputStream through a large
+ * reusable buffer. Numbers are written as digits straight into the
+ * buffer, and floats are written by FloatFormat, so writing text does not
+ * create a String for every value; the buffer is written to the stream
+ * whenever it fills up.
+ *
+ * Numbers are written the way PrintStream writes them, except that a
+ * float is written with the shortest digits that read back as the same
+ * float. Lines end with the line separator of the system, as they do
+ * with PrintStream.println().
+ * @author pmeade
+ */
+public class AsciiWriter implements Closeable
+{
+    /**
+     * Length of the buffer used by an AsciiWriter (64 KB).
+     */
+    public static final int BUFFER_SIZE = 0x10000;
+
+    /**
+     * Construct an AsciiWriter.
+     * @param out OutputStream to which the text is written
+     */
+    public AsciiWriter(OutputStream out) {
+        this.out = out;
+        this.buffer = BUFFER_POOL.acquire(BUFFER_SIZE);
+        this.position = 0;
+    }
+
+    /**
+     * Write a String. Each character is written as a single byte, so the
+     * String should contain only ASCII characters.
+     * @param s String to be written
+     * @return this AsciiWriter
+     * @throws IOException if the text could not be written
+     */
+    public AsciiWriter print(String s) throws IOException {
+        int length = s.length();
+        int start = 0;
+        while(start < length) {
+            if(position == buffer.length) {
+                flushBuffer();
+            }
+            int count = Math.min(length - start, buffer.length - position);
+            for(int i=0; i<count; i++) {
+                buffer[position++] = (byte)s.charAt(start++);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write a character, as a single byte.
+     * @param c ASCII character to be written
+     * @return this AsciiWriter
+     * @throws IOException if the text could not be written
+     */
+    public AsciiWriter print(char c) throws IOException {
+        if(position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte)c;
+        return this;
+    }
+
+    /**
+     * Write an int, in decimal.
+     * @param i int to be written
+     * @return this AsciiWriter
+     * @throws IOException if the text could not be written
+     */
+    public AsciiWriter print(int i) throws IOException {
+        ensure(MAX_INT_LENGTH);
+        long value = i;
+        if(value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int end = position;
+        long rest = value;
+        do {
+            end++;
+            rest /= 10;
+        } while(rest > 0);
+        position = end;
+        do {
+            buffer[--end] = (byte)('0' + value % 10);
+            value /= 10;
+        } while(value > 0);
+        return this;
+    }
+
+    /**
+     * Write a float, with the shortest digits that read back as the same
+     * float. See FloatFormat.
+     * @param f float to be written
+     * @return this AsciiWriter
+     * @throws IOException if the text could not be written
+     */
+    public AsciiWriter print(float f) throws IOException {
+        ensure(FloatFormat.MAX_LENGTH);
+        position = FloatFormat.format(f, buffer, position);
+        return this;
+    }
+
+    /**
+     * Write the line separator.
+     * @return this AsciiWriter
+     * @throws IOException if the text could not be written
+     */
+    public AsciiWriter println() throws IOException {
+        return print(LINE_SEPARATOR);
+    }
+
+    /**
+     * Write a String, followed by the line separator.
+     * @param s String to be written
+     * @return this AsciiWriter
+     * @throws IOException if the text could not be written
+     */
+    public AsciiWriter println(String s) throws IOException {
+        return print(s).print(LINE_SEPARATOR);
+    }
+
+    /**
+     * Write the buffered text to the OutputStream, and flush it.
+     * @throws IOException if the text could not be written
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Finish writing, without closing the underlying OutputStream. The
+     * buffered text is written and flushed, and the buffer is returned to
+     * the pool; the AsciiWriter must not be used afterwards. This is for
+     * writing text to a stream that holds other data (or to a buffer);
+     * otherwise, call close() instead.
+     * @throws IOException if the text could not be written
+     */
+    public void finish() throws IOException {
+        if(buffer == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            BUFFER_POOL.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Finish writing, and close the underlying OutputStream.
+     * @throws IOException if the text could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Make room in the buffer for the indicated number of bytes.
+     * @param length number of bytes about to be written
+     * @throws IOException if the buffered text could not be written
+     */
+    private void ensure(int length) throws IOException {
+        if(position + length > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Write the buffered text to the OutputStream, and empty the buffer.
+     * @throws IOException if the text could not be written
+     */
+    private void flushBuffer() throws IOException {
+        if(position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Largest number of bytes written for a single int.
+     */
+    private static final int MAX_INT_LENGTH = 11;
+
+    /**
+     * Line separator of the system, as used by PrintStream.println().
+     */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /**
+     * Buffers shared by all AsciiWriters; each thread writing a script
+     * holds one of them at a time.
+     */
+    private static final BufferPool BUFFER_POOL = new BufferPool(0x400000L);
+
+    /**
+     * OutputStream to which the text is written.
+     */
+    private final OutputStream out;
+
+    /**
+     * Buffer holding text not yet written to the OutputStream, or null
+     * once the AsciiWriter is finished.
+     */
+    private byte[] buffer;
+
+    /**
+     * Number of bytes of text in the buffer.
+     */
+    private int position;
+}
@@ -0,0 +1,126 @@
+/*
+ * BufferPool.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BufferPool holds byte[] buffers for reuse. Buffers are grouped into
+ * size classes; each class holds buffers whose length is a power of two.
+ * A buffer obtained from the pool may be longer than requested, so the
+ * caller must keep track of how many bytes are actually in use.
+ *
+ * The pool is safe to use from many threads at once. The total number of
+ * bytes held by the pool is bounded; buffers released beyond that bound
+ * are simply left for the garbage collector.
+ * @author pmeade
+ */
+public class BufferPool
+{
+    /** Length of the smallest size class (1 KB) as a power of two. */
+    public static final int MIN_SHIFT = 10;
+
+    /** Length of the largest size class (16 MB) as a power of two. */
+    public static final int MAX_SHIFT = 24;
+
+    /**
+     * Construct a BufferPool.
+     * @param maxPooledBytes maximum number of bytes held by the pool
+     */
+    public BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.pooledBytes = new AtomicLong();
+        this.classes = new Queue[MAX_SHIFT - MIN_SHIFT + 1];
+        for(int i=0; i<classes.length; i++) {
+            classes[i] = new ConcurrentLinkedQueue<byte[]>();
+        }
+    }
+
+    /**
+     * Obtain a buffer of at least the requested length.
+     * @param length minimum length of the buffer
+     * @return byte[] at least length bytes long
+     */
+    public byte[] acquire(int length) {
+        int sizeClass = sizeClass(length);
+        if(sizeClass < 0) {
+            return new byte[length];
+        }
+        byte[] buffer = classes[sizeClass].poll();
+        if(buffer != null) {
+            pooledBytes.addAndGet(-buffer.length);
+            return buffer;
+        }
+        return new byte[1 << (sizeClass + MIN_SHIFT)];
+    }
+
+    /**
+     * Return a buffer to the pool, so that it may be reused. The caller
+     * must not use the buffer after it has been released.
+     * @param buffer byte[] to be returned to the pool; may be null
+     */
+    public void release(byte[] buffer) {
+        if(buffer == null) {
+            return;
+        }
+        int sizeClass = sizeClass(buffer.length);
+        if((sizeClass < 0) || (buffer.length != (1 << (sizeClass + MIN_SHIFT)))) {
+            return;
+        }
+        if(pooledBytes.addAndGet(buffer.length) > maxPooledBytes) {
+            pooledBytes.addAndGet(-buffer.length);
+            return;
+        }
+        classes[sizeClass].offer(buffer);
+    }
+
+    /**
+     * Determine the size class of buffers for the provided length.
+     * @param length length of the buffer
+     * @return index of the size class, or -1 if the length is too
+     *         large to be pooled
+     */
+    private static int sizeClass(int length) {
+        if(length <= (1 << MIN_SHIFT)) {
+            return 0;
+        }
+        if(length > (1 << MAX_SHIFT)) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(length - 1);
+        return shift - MIN_SHIFT;
+    }
+
+    /**
+     * Maximum number of bytes held by the pool.
+     */
+    private final long maxPooledBytes;
+
+    /**
+     * Number of bytes currently held by the pool.
+     */
+    private final AtomicLong pooledBytes;
+
+    /**
+     * Queues of buffers available for reuse, one per size class.
+     */
+    private final Queue<byte[]>[] classes;
+}
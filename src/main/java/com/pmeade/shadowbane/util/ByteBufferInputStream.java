@@ -0,0 +1,79 @@
+/*
+ * ByteBufferInputStream.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * ByteBufferInputStream is an InputStream that reads the bytes between
+ * the position and the limit of a ByteBuffer. The bytes are read in
+ * place, so a memory mapped buffer can be streamed without first being
+ * copied into a byte[].
+ * @author pmeade
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    /**
+     * Construct a ByteBufferInputStream. The stream advances the position
+     * of the provided buffer as bytes are read.
+     * @param buffer ByteBuffer from which bytes are read
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        if(buffer.hasRemaining() == false) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if(len == 0) {
+            return 0;
+        }
+        if(buffer.hasRemaining() == false) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    /**
+     * ByteBuffer from which bytes are read.
+     */
+    private final ByteBuffer buffer;
+}
@@ -18,6 +18,8 @@
 
 package com.pmeade.shadowbane.util;
 
+import java.nio.ByteBuffer;
+
 /**
  * Data holds some static methods for working with binary data.
  * @author pmeade
@@ -50,4 +52,35 @@ public class Data
     public static final int UB(byte x) {
         return x & 0x000000ff;
     }
+
+    /**
+     * Read an array of floats from the current position of the provided
+     * ByteBuffer, in the byte order of the buffer, with a single bulk get.
+     * The position of the buffer is advanced past the floats.
+     * @param buffer ByteBuffer from which to read the floats
+     * @param count number of floats to be read; a negative count reads none
+     * @return float[] containing the floats read from the buffer
+     */
+    public static final float[] getFloats(ByteBuffer buffer, int count) {
+        float[] values = new float[Math.max(0, count)];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + values.length*4);
+        return values;
+    }
+
+    /**
+     * Read an array of shorts from the current position of the provided
+     * ByteBuffer, in the byte order of the buffer, with a single bulk get.
+     * The position of the buffer is advanced past the shorts. See US() to
+     * read them as unsigned values.
+     * @param buffer ByteBuffer from which to read the shorts
+     * @param count number of shorts to be read; a negative count reads none
+     * @return short[] containing the shorts read from the buffer
+     */
+    public static final short[] getShorts(ByteBuffer buffer, int count) {
+        short[] values = new short[Math.max(0, count)];
+        buffer.asShortBuffer().get(values);
+        buffer.position(buffer.position() + values.length*2);
+        return values;
+    }
 }
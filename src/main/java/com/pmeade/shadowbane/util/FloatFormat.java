@@ -0,0 +1,405 @@
+/*
+ * FloatFormat.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * FloatFormat writes a float as ASCII text straight into a byte array,
+ * without creating any objects. The digits are the shortest decimal that
+ * reads back as the same float (the "shortest round trip"), found with
+ * the Ryu algorithm by Ulf Adams. They are laid out the way
+ * Float.toString() lays them out: "123.45", "0.001", "1.0E-5" or
+ * "1.2345678E7".
+ * @see https://dl.acm.org/doi/10.1145/3192366.3192369
+ * @author pmeade
+ */
+public class FloatFormat
+{
+    /** Largest number of bytes written for a single float. */
+    public static final int MAX_LENGTH = 15;
+
+    /**
+     * Write the provided float as ASCII text.
+     * @param value float to be written
+     * @param buffer byte[] into which the text is written; it must have
+     *               at least MAX_LENGTH bytes available at the offset
+     * @param offset offset at which the text is written
+     * @return offset after the last byte of the text
+     */
+    public static int format(float value, byte[] buffer, int offset) {
+        int bits = Float.floatToRawIntBits(value);
+        int ieeeMantissa = bits & ((1 << MANTISSA_BITS) - 1);
+        int ieeeExponent = (bits >>> MANTISSA_BITS) & ((1 << EXPONENT_BITS) - 1);
+        if(ieeeExponent == (1 << EXPONENT_BITS) - 1) {
+            String special = (ieeeMantissa != 0) ? "NaN" : ((bits < 0) ? "-Infinity" : "Infinity");
+            return ascii(special, buffer, offset);
+        }
+        int pos = offset;
+        if(bits < 0) {
+            buffer[pos++] = '-';
+        }
+        if((ieeeExponent == 0) && (ieeeMantissa == 0)) {
+            return ascii("0.0", buffer, pos);
+        }
+
+        long[] decimal = DECIMAL.get();
+        shortest(ieeeMantissa, ieeeExponent, decimal);
+        long digits = decimal[0];
+        int exponent = (int)decimal[1];
+        if((ieeeExponent == 0) && (digits < 10)) {
+            // Float.toString() keeps two digits when one would do, choosing
+            // the closest; only the largest gaps, between the smallest
+            // subnormals, can make that something other than "d.0"
+            BigDecimal rounded = new BigDecimal(Math.abs(value)).round(TWO_DIGITS);
+            digits = rounded.unscaledValue().longValue();
+            exponent = -rounded.scale();
+        }
+        return layout(digits, exponent, buffer, pos);
+    }
+
+    /**
+     * Lay out the decimal digits * 10^exponent the way Float.toString()
+     * does. Between 10^-3 and 10^7, the number is written without an
+     * exponent; otherwise, it is written as d.ddd followed by "E" and the
+     * exponent. Either way, there is at least one digit after the point.
+     * @param digits decimal digits of the number
+     * @param exponent decimal exponent of the last digit
+     * @param buffer byte[] into which the text is written
+     * @param offset offset at which the text is written
+     * @return offset after the last byte of the text
+     */
+    private static int layout(long digits, int exponent, byte[] buffer, int offset) {
+        int length = decimalLength(digits);
+        // the digits are written to the end of the text, then moved
+        int pos = offset;
+        int scientific = exponent + length - 1;
+        if((scientific >= -3) && (scientific < 7)) {
+            if(scientific < 0) {
+                buffer[pos++] = '0';
+                buffer[pos++] = '.';
+                for(int i=-1; i>scientific; i--) {
+                    buffer[pos++] = '0';
+                }
+                return writeDigits(digits, length, buffer, pos);
+            }
+            int integerLength = scientific + 1;
+            if(length <= integerLength) {
+                pos = writeDigits(digits, length, buffer, pos);
+                for(int i=length; i<integerLength; i++) {
+                    buffer[pos++] = '0';
+                }
+                buffer[pos++] = '.';
+                buffer[pos++] = '0';
+                return pos;
+            }
+            pos = writeDigits(digits, length, buffer, pos + 1) - 1;
+            System.arraycopy(buffer, offset + 1, buffer, offset, integerLength);
+            buffer[offset + integerLength] = '.';
+            return pos + 1;
+        }
+        pos = writeDigits(digits, length, buffer, pos + 1);
+        buffer[offset] = buffer[offset + 1];
+        buffer[offset + 1] = '.';
+        if(length == 1) {
+            buffer[pos++] = '0';
+        }
+        buffer[pos++] = 'E';
+        if(scientific < 0) {
+            buffer[pos++] = '-';
+            scientific = -scientific;
+        }
+        if(scientific >= 10) {
+            buffer[pos++] = (byte)('0' + scientific / 10);
+        }
+        buffer[pos++] = (byte)('0' + scientific % 10);
+        return pos;
+    }
+
+    /**
+     * Find the shortest decimal that reads back as the provided float,
+     * choosing the closest one if there are several.
+     * @param ieeeMantissa mantissa bits of the float
+     * @param ieeeExponent exponent bits of the float
+     * @param decimal long[2] to receive the digits and decimal exponent
+     */
+    private static void shortest(int ieeeMantissa, int ieeeExponent, long[] decimal) {
+        int e2;
+        long m2;
+        if(ieeeExponent == 0) {
+            e2 = 1 - EXPONENT_BIAS - MANTISSA_BITS - 2;
+            m2 = ieeeMantissa;
+        } else {
+            e2 = ieeeExponent - EXPONENT_BIAS - MANTISSA_BITS - 2;
+            m2 = (1L << MANTISSA_BITS) | ieeeMantissa;
+        }
+        boolean acceptBounds = (m2 & 1) == 0;
+
+        // the float, and the halfway points to its neighbours, times 4
+        long mv = 4 * m2;
+        long mp = 4 * m2 + 2;
+        int mmShift = ((ieeeMantissa != 0) || (ieeeExponent <= 1)) ? 1 : 0;
+        long mm = 4 * m2 - 1 - mmShift;
+
+        // scale them to decimal: vr = mv * 2^e2 / 10^e10
+        long vr;
+        long vp;
+        long vm;
+        int e10;
+        boolean vmIsTrailingZeros = false;
+        boolean vrIsTrailingZeros = false;
+        int lastRemovedDigit = 0;
+        if(e2 >= 0) {
+            int q = log10Pow2(e2);
+            e10 = q;
+            int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+            int i = -e2 + q + k;
+            vr = mulShift(mv, POW5_INV_SPLIT[q], i);
+            vp = mulShift(mp, POW5_INV_SPLIT[q], i);
+            vm = mulShift(mm, POW5_INV_SPLIT[q], i);
+            if((q != 0) && ((vp - 1) / 10 <= vm / 10)) {
+                int l = POW5_INV_BITCOUNT + pow5bits(q - 1) - 1;
+                lastRemovedDigit = (int)(mulShift(mv, POW5_INV_SPLIT[q - 1], -e2 + q - 1 + l) % 10);
+            }
+            if(q <= 9) {
+                if(mv % 5 == 0) {
+                    vrIsTrailingZeros = multipleOfPowerOf5(mv, q);
+                } else if(acceptBounds) {
+                    vmIsTrailingZeros = multipleOfPowerOf5(mm, q);
+                } else if(multipleOfPowerOf5(mp, q)) {
+                    vp--;
+                }
+            }
+        } else {
+            int q = log10Pow5(-e2);
+            e10 = q + e2;
+            int i = -e2 - q;
+            int k = pow5bits(i) - POW5_BITCOUNT;
+            int j = q - k;
+            vr = mulShift(mv, POW5_SPLIT[i], j);
+            vp = mulShift(mp, POW5_SPLIT[i], j);
+            vm = mulShift(mm, POW5_SPLIT[i], j);
+            if((q != 0) && ((vp - 1) / 10 <= vm / 10)) {
+                j = q - 1 - (pow5bits(i + 1) - POW5_BITCOUNT);
+                lastRemovedDigit = (int)(mulShift(mv, POW5_SPLIT[i + 1], j) % 10);
+            }
+            if(q <= 1) {
+                vrIsTrailingZeros = true;
+                if(acceptBounds) {
+                    vmIsTrailingZeros = (mmShift == 1);
+                } else {
+                    vp--;
+                }
+            } else if(q < 31) {
+                vrIsTrailingZeros = (mv & ((1L << (q - 1)) - 1)) == 0;
+            }
+        }
+
+        // remove digits while the bounds still differ
+        int removed = 0;
+        long output;
+        if(vmIsTrailingZeros || vrIsTrailingZeros) {
+            while(vp / 10 > vm / 10) {
+                vmIsTrailingZeros &= (vm % 10 == 0);
+                vrIsTrailingZeros &= (lastRemovedDigit == 0);
+                lastRemovedDigit = (int)(vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            if(vmIsTrailingZeros) {
+                while(vm % 10 == 0) {
+                    vrIsTrailingZeros &= (lastRemovedDigit == 0);
+                    lastRemovedDigit = (int)(vr % 10);
+                    vr /= 10;
+                    vp /= 10;
+                    vm /= 10;
+                    removed++;
+                }
+            }
+            if(vrIsTrailingZeros && (lastRemovedDigit == 5) && (vr % 2 == 0)) {
+                // exactly halfway; round to even
+                lastRemovedDigit = 4;
+            }
+            boolean roundUp = ((vr == vm) && (!acceptBounds || !vmIsTrailingZeros))
+                || (lastRemovedDigit >= 5);
+            output = vr + (roundUp ? 1 : 0);
+        } else {
+            while(vp / 10 > vm / 10) {
+                lastRemovedDigit = (int)(vr % 10);
+                vr /= 10;
+                vp /= 10;
+                vm /= 10;
+                removed++;
+            }
+            boolean roundUp = (vr == vm) || (lastRemovedDigit >= 5);
+            output = vr + (roundUp ? 1 : 0);
+        }
+        decimal[0] = output;
+        decimal[1] = e10 + removed;
+    }
+
+    /**
+     * Write the decimal digits of a number.
+     * @param digits number whose digits are written
+     * @param length number of decimal digits in the number
+     * @param buffer byte[] into which the digits are written
+     * @param offset offset at which the digits are written
+     * @return offset after the last digit
+     */
+    private static int writeDigits(long digits, int length, byte[] buffer, int offset) {
+        for(int i=offset+length-1; i>=offset; i--) {
+            buffer[i] = (byte)('0' + digits % 10);
+            digits /= 10;
+        }
+        return offset + length;
+    }
+
+    /**
+     * Write an ASCII string.
+     * @param s String to be written
+     * @param buffer byte[] into which the string is written
+     * @param offset offset at which the string is written
+     * @return offset after the last byte of the string
+     */
+    private static int ascii(String s, byte[] buffer, int offset) {
+        for(int i=0; i<s.length(); i++) {
+            buffer[offset++] = (byte)s.charAt(i);
+        }
+        return offset;
+    }
+
+    /**
+     * Determine the number of decimal digits in a number.
+     * @param v number, at least 1
+     * @return the number of decimal digits in v
+     */
+    private static int decimalLength(long v) {
+        int length = 1;
+        while(v >= 10) {
+            v /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Multiply m by a 64-bit factor and shift the product right.
+     * @param m 32-bit multiplier
+     * @param factor non-negative 64-bit factor, from one of the tables
+     * @param shift number of bits to shift, more than 32
+     * @return (m * factor) >> shift
+     */
+    private static long mulShift(long m, long factor, int shift) {
+        long bits0 = m * (factor & 0xffffffffL);
+        long bits1 = m * (factor >>> 32);
+        return ((bits0 >>> 32) + bits1) >>> (shift - 32);
+    }
+
+    /**
+     * Determine if value is divisible by 5^p.
+     * @param value number to be checked
+     * @param p power of 5
+     * @return true, if value is divisible by 5^p
+     */
+    private static boolean multipleOfPowerOf5(long value, int p) {
+        int count = 0;
+        while((value > 0) && (value % 5 == 0)) {
+            value /= 5;
+            count++;
+        }
+        return count >= p;
+    }
+
+    /**
+     * Determine the number of bits in 5^e.
+     * @param e power of 5
+     * @return ceil(log2(5^e)), or 1 if e is 0
+     */
+    private static int pow5bits(int e) {
+        return (int)((e * 1217359L) >>> 19) + 1;
+    }
+
+    /**
+     * Determine floor(log10(2^e)).
+     * @param e power of 2
+     * @return floor(log10(2^e))
+     */
+    private static int log10Pow2(int e) {
+        return (int)((e * 78913L) >>> 18);
+    }
+
+    /**
+     * Determine floor(log10(5^e)).
+     * @param e power of 5
+     * @return floor(log10(5^e))
+     */
+    private static int log10Pow5(int e) {
+        return (int)((e * 732923L) >>> 20);
+    }
+
+    /** Number of mantissa bits in a float. */
+    private static final int MANTISSA_BITS = 23;
+
+    /** Number of exponent bits in a float. */
+    private static final int EXPONENT_BITS = 8;
+
+    /** Exponent bias of a float. */
+    private static final int EXPONENT_BIAS = 127;
+
+    /** Number of bits kept of 5^i in POW5_SPLIT. */
+    private static final int POW5_BITCOUNT = 61;
+
+    /** Number of bits kept of 2^k / 5^i in POW5_INV_SPLIT. */
+    private static final int POW5_INV_BITCOUNT = 59;
+
+    /** The leading POW5_BITCOUNT bits of 5^i. */
+    private static final long[] POW5_SPLIT = new long[47];
+
+    /** The leading POW5_INV_BITCOUNT bits of 1 / 5^i, rounded up. */
+    private static final long[] POW5_INV_SPLIT = new long[31];
+
+    /** Rounding to two significant digits, for the smallest subnormals. */
+    private static final MathContext TWO_DIGITS = new MathContext(2, RoundingMode.HALF_EVEN);
+
+    /** Digits and exponent found by shortest(), one pair per thread. */
+    private static final ThreadLocal<long[]> DECIMAL = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    static {
+        BigInteger five = BigInteger.valueOf(5);
+        for(int i=0; i<POW5_SPLIT.length; i++) {
+            BigInteger pow = five.pow(i);
+            int shift = pow.bitLength() - POW5_BITCOUNT;
+            POW5_SPLIT[i] = ((shift >= 0) ? pow.shiftRight(shift) : pow.shiftLeft(-shift)).longValue();
+            if(i < POW5_INV_SPLIT.length) {
+                int j = pow.bitLength() - 1 + POW5_INV_BITCOUNT;
+                POW5_INV_SPLIT[i] = BigInteger.ONE.shiftLeft(j).divide(pow).add(BigInteger.ONE).longValue();
+            }
+        }
+    }
+}
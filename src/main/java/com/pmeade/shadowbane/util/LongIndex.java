@@ -0,0 +1,134 @@
+/*
+ * LongIndex.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.util;
+
+/**
+ * LongIndex maps long keys to the positions where they appear in an array.
+ * A key may appear more than once, so each key maps to a chain of
+ * positions. Keys and positions are kept in primitive arrays (an open
+ * addressing hash table plus a "next position" chain), so no boxing or
+ * per-entry objects are needed. The index is read-only once constructed,
+ * so it is safe to use from many threads at once.
+ * @author pmeade
+ */
+public class LongIndex
+{
+    /** Value returned when a key is not present in the index. */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * Construct a LongIndex over the provided keys.
+     * @param keys long[] of keys; the index maps each key to the
+     *             position(s) where it appears in this array
+     */
+    public LongIndex(long[] keys) {
+        int capacity = 2;
+        while(capacity < keys.length * 2) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.tableKeys = new long[capacity];
+        this.tableHeads = new int[capacity];
+        this.next = new int[keys.length];
+        for(int i=0; i<capacity; i++) {
+            tableHeads[i] = NOT_FOUND;
+        }
+        // insert in reverse, so that each chain is in ascending order
+        for(int i=keys.length-1; i>=0; i--) {
+            int slot = slot(keys[i]);
+            next[i] = tableHeads[slot];
+            tableKeys[slot] = keys[i];
+            tableHeads[slot] = i;
+        }
+    }
+
+    /**
+     * Find the first position of the provided key.
+     * @param key key to be found
+     * @return lowest position where the key appears, or NOT_FOUND
+     */
+    public int first(long key) {
+        return tableHeads[slot(key)];
+    }
+
+    /**
+     * Find the position that follows the provided position, in the
+     * chain of positions for the same key.
+     * @param position a position returned by first() or next()
+     * @return next position with the same key, or NOT_FOUND
+     */
+    public int next(int position) {
+        return next[position];
+    }
+
+    /**
+     * Find all of the positions of the provided key.
+     * @param key key to be found
+     * @return int[] of the positions where the key appears, in ascending
+     *         order; empty if the key does not appear
+     */
+    public int[] all(long key) {
+        int count = 0;
+        for(int i=first(key); i != NOT_FOUND; i=next[i]) {
+            count++;
+        }
+        int[] positions = new int[count];
+        count = 0;
+        for(int i=first(key); i != NOT_FOUND; i=next[i]) {
+            positions[count++] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * Find the slot of the hash table for the provided key. This is either
+     * the slot that holds the key, or the empty slot where it belongs.
+     * @param key key to be found
+     * @return index of the slot in the hash table
+     */
+    private int slot(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        while((tableHeads[slot] != NOT_FOUND) && (tableKeys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Mask to reduce a hash to a slot of the hash table.
+     */
+    private final int mask;
+
+    /**
+     * Key held in each slot of the hash table.
+     */
+    private final long[] tableKeys;
+
+    /**
+     * First position of the key held in each slot of the hash table,
+     * or NOT_FOUND if the slot is empty.
+     */
+    private final int[] tableHeads;
+
+    /**
+     * Next position with the same key, for each position.
+     */
+    private final int[] next;
+}
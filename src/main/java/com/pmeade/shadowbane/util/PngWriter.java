@@ -0,0 +1,339 @@
+/*
+ * PngWriter.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PngWriter writes a PNG image one row at a time, from top to bottom.
+ * Only the previous row and the row being written are kept in memory, so
+ * an image can be streamed to a file without first building a
+ * BufferedImage of the whole thing.
+ *
+ * Each row is filtered with whichever PNG filter (None, Sub, Up, Average
+ * or Paeth) gives the smallest sum of absolute differences, the same
+ * heuristic used by most PNG encoders.
+ * @see https://www.w3.org/TR/PNG/
+ * @author pmeade
+ */
+public class PngWriter implements Closeable
+{
+    /** PNG color type: 8-bit grayscale, 1 byte per pixel. */
+    public static final int GRAY = 0;
+
+    /** PNG color type: 8-bit RGB, 3 bytes per pixel. */
+    public static final int RGB = 2;
+
+    /** PNG color type: 8-bit RGBA, 4 bytes per pixel. */
+    public static final int RGBA = 6;
+
+    /**
+     * Gray levels as produced by BufferedImage.setRGB(g,g,g) on an image
+     * of TYPE_BYTE_GRAY, which converts from sRGB to a linear gray color
+     * space. Grayscale exports used to go through BufferedImage, so mapping
+     * gray bytes through this table keeps their pixels unchanged.
+     */
+    public static final byte[] SRGB_TO_LINEAR_GRAY = linearGrayLevels();
+
+    /**
+     * PNG file signature.
+     */
+    private static final byte[] SIGNATURE = {
+        (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+
+    /**
+     * Maximum size of an IDAT chunk written by PngWriter (32 KB).
+     */
+    private static final int IDAT_SIZE = 0x8000;
+
+    /**
+     * Construct a PngWriter, and write the PNG signature and header.
+     * @param out OutputStream to which the PNG image is written
+     * @param width width of the image, in pixels
+     * @param height height of the image, in pixels
+     * @param colorType PNG color type: GRAY, RGB or RGBA
+     * @throws IOException if the header could not be written
+     */
+    public PngWriter(OutputStream out, int width, int height, int colorType) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.height = height;
+        switch(colorType) {
+            case GRAY: bytesPerPixel = 1; break;
+            case RGB:  bytesPerPixel = 3; break;
+            case RGBA: bytesPerPixel = 4; break;
+            default:
+                throw new IllegalArgumentException("colorType:" + colorType);
+        }
+        this.rowLength = width * bytesPerPixel;
+        this.previous = new byte[rowLength];
+        this.filtered = new byte[5][rowLength + 1];
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        this.idat = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_SIZE);
+
+        this.out.write(SIGNATURE);
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(ihdr);
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(8);            // bit depth
+        header.writeByte(colorType);    // color type
+        header.writeByte(0);            // compression method: deflate
+        header.writeByte(0);            // filter method: adaptive
+        header.writeByte(0);            // interlace method: none
+        writeChunk("IHDR", ihdr.toByteArray(), ihdr.size());
+    }
+
+    /**
+     * Write the next row of the image. Rows are written from the top of
+     * the image to the bottom.
+     * @param row byte[] containing the pixels of the row
+     * @param offset offset of the first byte of the row in the array
+     * @throws IOException if the row could not be written
+     */
+    public void writeRow(byte[] row, int offset) throws IOException {
+        if(rowsWritten >= height) {
+            throw new IllegalStateException("all " + height + " rows have been written");
+        }
+        int best = 0;
+        long bestSum = Long.MAX_VALUE;
+        for(int filter=0; filter<5; filter++) {
+            byte[] f = filtered[filter];
+            f[0] = (byte)filter;
+            long sum = 0;
+            for(int i=0; i<rowLength; i++) {
+                int x = row[offset+i] & 0xff;
+                int a = (i >= bytesPerPixel) ? (row[offset+i-bytesPerPixel] & 0xff) : 0;
+                int b = previous[i] & 0xff;
+                int c = (i >= bytesPerPixel) ? (previous[i-bytesPerPixel] & 0xff) : 0;
+                int predictor;
+                switch(filter) {
+                    case 1:  predictor = a; break;
+                    case 2:  predictor = b; break;
+                    case 3:  predictor = (a + b) >>> 1; break;
+                    case 4:  predictor = paeth(a, b, c); break;
+                    default: predictor = 0; break;
+                }
+                byte value = (byte)(x - predictor);
+                f[i+1] = value;
+                sum += Math.abs(value);
+            }
+            if(sum < bestSum) {
+                bestSum = sum;
+                best = filter;
+            }
+        }
+        idat.write(filtered[best], 0, rowLength + 1);
+        System.arraycopy(row, offset, previous, 0, rowLength);
+        rowsWritten++;
+    }
+
+    /**
+     * Finish the image, writing whatever remains of it, without closing
+     * the underlying OutputStream. This is for writing an image to a
+     * stream that holds other data (or to a buffer); otherwise, call
+     * close() instead.
+     * @throws IOException if the image could not be finished
+     */
+    public void finish() throws IOException {
+        if(finished) {
+            return;
+        }
+        finished = true;
+        try {
+            if(rowsWritten != height) {
+                throw new IOException("rowsWritten:" + rowsWritten + " vs. height:" + height);
+            }
+            idat.finish();
+            idat.flush();
+            writeChunk("IEND", new byte[0], 0);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Finish the image and close the underlying OutputStream.
+     * @throws IOException if the image could not be finished
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a chunk to the PNG image.
+     * @param type four character chunk type (i.e.: "IDAT")
+     * @param data byte[] containing the chunk data
+     * @param length number of bytes of chunk data
+     * @throws IOException if the chunk could not be written
+     */
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int)crc.getValue());
+    }
+
+    /**
+     * Paeth predictor, as defined by the PNG specification.
+     * @param a byte to the left
+     * @param b byte above
+     * @param c byte above and to the left
+     * @return whichever of a, b, or c is closest to a + b - c
+     */
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if((pa <= pb) && (pa <= pc)) {
+            return a;
+        }
+        if(pb <= pc) {
+            return b;
+        }
+        return c;
+    }
+
+    /**
+     * Build the SRGB_TO_LINEAR_GRAY table by asking BufferedImage to
+     * convert each gray level.
+     * @return byte[] of 256 linear gray levels
+     */
+    private static byte[] linearGrayLevels() {
+        BufferedImage image = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] levels = new byte[256];
+        for(int g=0; g<256; g++) {
+            image.setRGB(g, 0, (0xff000000) | (g << 16) | (g << 8) | g);
+            levels[g] = (byte)image.getRaster().getSample(g, 0, 0);
+        }
+        return levels;
+    }
+
+    /**
+     * IdatOutputStream collects compressed image data and writes it to the
+     * PNG image as IDAT chunks.
+     */
+    private class IdatOutputStream extends OutputStream
+    {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                int count = Math.min(len, chunk.length - chunkLength);
+                System.arraycopy(b, off, chunk, chunkLength, count);
+                chunkLength += count;
+                off += count;
+                len -= count;
+                if(chunkLength == chunk.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(chunkLength > 0) {
+                writeChunk("IDAT", chunk, chunkLength);
+                chunkLength = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        private final byte[] chunk = new byte[IDAT_SIZE];
+        private int chunkLength;
+    }
+
+    /**
+     * OutputStream to which the PNG image is written.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * Height of the image, in rows.
+     */
+    private final int height;
+
+    /**
+     * Number of bytes in each pixel.
+     */
+    private final int bytesPerPixel;
+
+    /**
+     * Number of bytes in each row, not counting the filter type byte.
+     */
+    private final int rowLength;
+
+    /**
+     * The previous row of the image, before filtering; zeros for the first.
+     */
+    private final byte[] previous;
+
+    /**
+     * The current row filtered by each of the five filters, each
+     * starting with its filter type byte.
+     */
+    private final byte[][] filtered;
+
+    /**
+     * Deflater used to compress the filtered rows.
+     */
+    private final Deflater deflater;
+
+    /**
+     * Stream that compresses the filtered rows into IDAT chunks.
+     */
+    private final DeflaterOutputStream idat;
+
+    /**
+     * Number of rows written so far.
+     */
+    private int rowsWritten;
+
+    /**
+     * True, once the image has been finished.
+     */
+    private boolean finished;
+}
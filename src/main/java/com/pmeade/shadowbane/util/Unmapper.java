@@ -0,0 +1,71 @@
+/*
+ * Unmapper.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Unmapper releases the memory mapping behind a MappedByteBuffer right
+ * away, instead of waiting for the garbage collector to do it. Java has no
+ * public API for this, so the JDK internals are called by reflection:
+ * Unsafe.invokeCleaner() on Java 9 and later, or the buffer's Cleaner on
+ * Java 7 and 8.
+ *
+ * After a buffer is unmapped, touching it (or any view of it) will crash
+ * the JVM. The caller must be certain that nobody uses it again.
+ * @author pmeade
+ */
+public class Unmapper
+{
+    /**
+     * Unmap the provided buffer. The buffer must be the one returned by
+     * FileChannel.map(), not a duplicate, slice or read-only view of it.
+     * @param buffer MappedByteBuffer to be unmapped
+     * @return true, if the buffer was unmapped, otherwise false
+     */
+    public static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return true;
+        } catch(NoSuchMethodException e) {
+            // Java 7 and 8; fall through to the Cleaner below
+        } catch(Exception e) {
+            return false;
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if(cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            return true;
+        } catch(Exception e) {
+            return false;
+        }
+    }
+}
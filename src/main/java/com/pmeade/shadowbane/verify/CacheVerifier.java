@@ -0,0 +1,215 @@
+/*
+ * CacheVerifier.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.verify;
+
+import com.pmeade.shadowbane.export.ResourceSelector;
+import com.pmeade.shadowbane.raw.RawCache;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * CacheVerifier checks every cache archive in a cache directory for
+ * damage, without exporting anything. The archives are checked at the
+ * same time, on a shared work-stealing thread pool; the resources of each
+ * archive are split into ranges that idle workers can steal. Once every
+ * check has run, a summary of each archive is printed.
+ * @author pmeade
+ */
+public class CacheVerifier
+{
+    /** Number of resources checked by a single task. */
+    public static final int RANGE_SIZE = 256;
+
+    /** Largest number of problems printed for a single archive. */
+    public static final int MAX_REPORTED = 20;
+
+    /**
+     * Construct a CacheVerifier.
+     * @param cacheDir the cache directory, containing the .cache files
+     * @param threads number of worker threads in the pool
+     */
+    public CacheVerifier(File cacheDir, int threads) {
+        this.cacheDir = cacheDir;
+        this.threads = threads;
+    }
+
+    /**
+     * Check the cache archives chosen by the provided ResourceSelector,
+     * and print a summary of the problems found.
+     * @param selector ResourceSelector choosing the archives to check
+     * @return true, if no problems were found
+     */
+    public boolean verify(ResourceSelector selector) {
+        long start = System.nanoTime();
+        List<VerifiedCache> archives = new ArrayList();
+        for(String name : RawCache.NAMES) {
+            if(selector.selectsArchive(name) && new File(cacheDir, name + ".cache").isFile()) {
+                archives.add(new VerifiedCache(cacheDir, name));
+            }
+        }
+        List<ArchiveAction> actions = new ArrayList();
+        for(VerifiedCache archive : archives) {
+            actions.add(new ArchiveAction(archive));
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new AllAction(actions));
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long resources = 0;
+        long bytes = 0;
+        int problems = 0;
+        for(VerifiedCache archive : archives) {
+            List<String> found = archive.getProblems();
+            System.out.println(String.format(
+                "ShadowbaneCacheExporter verified %d resources in %s.cache: %s.",
+                archive.getChecked(), archive.getName(),
+                found.isEmpty() ? "OK" : found.size() + " problem(s)"
+            ));
+            for(int i=0; i<Math.min(found.size(), MAX_REPORTED); i++) {
+                System.out.println("    " + found.get(i));
+            }
+            if(found.size() > MAX_REPORTED) {
+                System.out.println(String.format("    ... and %d more", found.size() - MAX_REPORTED));
+            }
+            resources += archive.getChecked();
+            bytes += archive.getCheckedBytes();
+            problems += found.size();
+            archive.close();
+        }
+        System.out.println(String.format(
+            "ShadowbaneCacheExporter verified %d archives, %d resources (%.1f MB) in %.2f seconds: %d problem(s).",
+            archives.size(), resources, bytes / 1048576.0, seconds, problems
+        ));
+        return problems == 0;
+    }
+
+    /**
+     * AllAction starts the ArchiveActions of every archive at the same
+     * time, so that idle workers can steal ranges from any archive.
+     */
+    private static class AllAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        public AllAction(List<ArchiveAction> actions) {
+            this.actions = actions;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(actions);
+        }
+
+        private final List<ArchiveAction> actions;
+    }
+
+    /**
+     * ArchiveAction checks the header of an archive, then checks its
+     * resources for overlaps while checking ranges of them in parallel.
+     */
+    private static class ArchiveAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        public ArchiveAction(VerifiedCache archive) {
+            this.archive = archive;
+        }
+
+        @Override
+        protected void compute() {
+            if(archive.verifyHeader() == false) {
+                return;
+            }
+            invokeAll(
+                new OverlapAction(archive),
+                new RangeAction(archive, 0, archive.size())
+            );
+        }
+
+        private final VerifiedCache archive;
+    }
+
+    /**
+     * OverlapAction checks the resources of an archive for overlaps.
+     */
+    private static class OverlapAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        public OverlapAction(VerifiedCache archive) {
+            this.archive = archive;
+        }
+
+        @Override
+        protected void compute() {
+            archive.verifyOverlaps();
+        }
+
+        private final VerifiedCache archive;
+    }
+
+    /**
+     * RangeAction checks a range of resources of an archive. The range is
+     * split in half until it is no larger than RANGE_SIZE.
+     */
+    private static class RangeAction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        public RangeAction(VerifiedCache archive, int start, int end) {
+            this.archive = archive;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start <= RANGE_SIZE) {
+                archive.verifyResources(start, end);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(
+                new RangeAction(archive, start, middle),
+                new RangeAction(archive, middle, end)
+            );
+        }
+
+        private final VerifiedCache archive;
+        private final int start;
+        private final int end;
+    }
+
+    /**
+     * The cache directory, containing the .cache files.
+     */
+    private final File cacheDir;
+
+    /**
+     * Number of worker threads in the pool.
+     */
+    private final int threads;
+}
@@ -0,0 +1,328 @@
+/*
+ * VerifiedCache.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.verify;
+
+import com.pmeade.shadowbane.CacheArchive;
+import com.pmeade.shadowbane.CacheResource;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+
+import static com.pmeade.shadowbane.util.Data.UI;
+
+/**
+ * VerifiedCache represents any of the cache archives, when it is checked
+ * for damage rather than exported. The header is checked before the
+ * directory is read, then every resource is checked: its data must lie
+ * within the data of the file without overlapping another resource, and
+ * it must inflate to exactly its size. Nothing is written; the problems
+ * found are collected, to be reported once every check has run.
+ *
+ * The resources may be checked by many threads at once.
+ * @author pmeade
+ */
+public class VerifiedCache extends CacheArchive
+{
+    /** Size of the cache archive header, in bytes. */
+    public static final int HEADER_SIZE = 16;
+
+    /** Size of a directory record, in bytes. */
+    public static final int RECORD_SIZE = 20;
+
+    /**
+     * Construct a VerifiedCache. The cache archive is not read until
+     * verifyHeader() is called.
+     * @param cacheDir the cache directory, where the archive is located
+     * @param name name of the archive (i.e.: "Mesh" for "Mesh.cache")
+     */
+    public VerifiedCache(File cacheDir, String name) {
+        super(new File(cacheDir, name + ".cache"));
+        this.name = name;
+        this.problems = new ArrayList();
+        this.checked = new AtomicLong();
+        this.checkedBytes = new AtomicLong();
+    }
+
+    /**
+     * Obtain the name of the archive.
+     * @return name of the archive (i.e.: "Mesh")
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Check the header of the cache archive, and read the directory if it
+     * lies within the file. The fileSize in the header must match the
+     * length of the file, and the data must begin after the directory.
+     * @return true, if the directory was read, so the resources can be
+     *         checked; false, if it could not be
+     */
+    public boolean verifyHeader() {
+        fileLength = cacheFile.length();
+        if(fileLength < HEADER_SIZE) {
+            problem(-1, String.format("file is %d bytes, shorter than the header", fileLength));
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        try(FileChannel headerChannel = new FileInputStream(cacheFile).getChannel()) {
+            while(header.hasRemaining()) {
+                if(headerChannel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+        } catch(IOException e) {
+            problem(-1, "header can't be read: " + e.getMessage());
+            return false;
+        }
+        header.flip();
+        long headerResources = UI(header.getInt());
+        long headerDataOffset = UI(header.getInt());
+        long headerFileSize = UI(header.getInt());
+        if(headerFileSize != fileLength) {
+            problem(-1, String.format("fileSize is %d, but the file is %d bytes",
+                headerFileSize, fileLength));
+        }
+        long directoryEnd = HEADER_SIZE + headerResources * RECORD_SIZE;
+        if(directoryEnd > fileLength) {
+            problem(-1, String.format("directory of %d resources ends at %d, past the end of the file",
+                headerResources, directoryEnd));
+            return false;
+        }
+        if((headerDataOffset < directoryEnd) || (headerDataOffset > fileLength)) {
+            problem(-1, String.format("dataOffset is %d, outside %d-%d",
+                headerDataOffset, directoryEnd, fileLength));
+        }
+        read();
+        return true;
+    }
+
+    /**
+     * Check that the data of each resource lies within the data of the
+     * file, and inflates to the size of the resource. The data of a
+     * resource that lies outside the file is never read.
+     * @param start index of the first resource to be checked
+     * @param end index after the last resource to be checked
+     */
+    public void verifyResources(int start, int end) {
+        for(int i=start; i<end; i++) {
+            CacheResource resource = getResource(i);
+            if(isInBounds(resource) == false) {
+                problem(i, String.format("data at %d-%d lies outside %d-%d",
+                    resource.dataOffset, resource.dataOffset + resource.zipSize,
+                    dataOffset, fileLength));
+                continue;
+            }
+            try {
+                long inflated = inflatedSize(i);
+                if(inflated != resource.size) {
+                    problem(i, String.format("inflates to %d bytes, but its size is %d",
+                        inflated, resource.size));
+                }
+            } catch(DataFormatException e) {
+                problem(i, "can't be inflated: " + e.getMessage());
+            }
+            checked.incrementAndGet();
+            checkedBytes.addAndGet(resource.zipSize);
+        }
+    }
+
+    /**
+     * Check that the data of no two resources overlap. Resources whose
+     * directory records point at exactly the same data share it, which is
+     * not a problem.
+     */
+    public void verifyOverlaps() {
+        int n = size();
+        long[] keys = new long[n];
+        int count = 0;
+        for(int i=0; i<n; i++) {
+            CacheResource resource = getResource(i);
+            if(isInBounds(resource) && (resource.zipSize > 0)) {
+                // sort by offset; the index rides along in the low 31 bits
+                keys[count] = (resource.dataOffset << 31) | i;
+                count++;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        CacheResource previous = null;
+        for(int i=0; i<count; i++) {
+            CacheResource resource = getResource((int)(keys[i] & Integer.MAX_VALUE));
+            if(previous != null) {
+                long previousEnd = previous.dataOffset + previous.zipSize;
+                boolean shared = (resource.dataOffset == previous.dataOffset)
+                    && (resource.zipSize == previous.zipSize);
+                if((shared == false) && (resource.dataOffset < previousEnd)) {
+                    problem(resource.index, String.format("data at %d-%d overlaps resource %d at %d-%d",
+                        resource.dataOffset, resource.dataOffset + resource.zipSize,
+                        previous.index, previous.dataOffset, previousEnd));
+                }
+                if(resource.dataOffset + resource.zipSize <= previousEnd) {
+                    // keep the resource reaching furthest into the file
+                    continue;
+                }
+            }
+            previous = resource;
+        }
+    }
+
+    /**
+     * Check the indicated resource, rather than exporting it; nothing is
+     * written to the output directory.
+     * @param index index of the resource to be checked
+     * @param outputDir the output directory, which is not used
+     * @return true, as there is nothing to export; problems are reported
+     *         on their own
+     */
+    @Override
+    public boolean export(int index, File outputDir) {
+        verifyResources(index, index+1);
+        return true;
+    }
+
+    /**
+     * Determine the file the indicated resource is exported to.
+     * @param index index of the resource
+     * @param outputDir the output directory
+     * @return null, as no file is written
+     */
+    @Override
+    public File getOutputFile(int index, File outputDir) {
+        return null;
+    }
+
+    /**
+     * Obtain the number of resources whose data was checked.
+     * @return the number of resources checked
+     */
+    public long getChecked() {
+        return checked.get();
+    }
+
+    /**
+     * Obtain the number of stored bytes that were checked.
+     * @return the number of bytes of resource data checked
+     */
+    public long getCheckedBytes() {
+        return checkedBytes.get();
+    }
+
+    /**
+     * Obtain the problems found, in order: those with the header first,
+     * then those with each resource.
+     * @return list of descriptions of the problems found
+     */
+    public List<String> getProblems() {
+        List<Problem> sorted;
+        synchronized(problems) {
+            sorted = new ArrayList(problems);
+        }
+        Collections.sort(sorted);
+        List<String> descriptions = new ArrayList();
+        for(Problem problem : sorted) {
+            descriptions.add(problem.toString());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Determine if the data of a resource lies within the data of the file.
+     * @param resource CacheResource to be checked
+     * @return true, if the data lies within the file
+     */
+    private boolean isInBounds(CacheResource resource) {
+        return (resource.dataOffset >= dataOffset)
+            && (resource.dataOffset + resource.zipSize <= fileLength);
+    }
+
+    /**
+     * Record a problem found in the cache archive.
+     * @param index index of the resource with the problem, or -1 for a
+     *              problem with the header
+     * @param description description of the problem
+     */
+    private void problem(int index, String description) {
+        String where = "header";
+        if(index >= 0) {
+            where = String.format("resource %d (id %d)", index, UI(ids[index]));
+        }
+        synchronized(problems) {
+            problems.add(new Problem(index, where + ": " + description));
+        }
+    }
+
+    /**
+     * Name of the archive.
+     */
+    private final String name;
+
+    /**
+     * Length of the cache archive file.
+     */
+    private long fileLength;
+
+    /**
+     * Problems found so far.
+     */
+    private final List<Problem> problems;
+
+    /**
+     * Number of resources whose data was checked.
+     */
+    private final AtomicLong checked;
+
+    /**
+     * Number of stored bytes checked.
+     */
+    private final AtomicLong checkedBytes;
+
+    /**
+     * Problem is a problem found with the header or a resource.
+     */
+    private static class Problem implements Comparable<Problem>
+    {
+        Problem(int index, String description) {
+            this.index = index;
+            this.description = description;
+        }
+
+        @Override
+        public int compareTo(Problem other) {
+            return Integer.compare(index, other.index);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+
+        private final int index;
+        private final String description;
+    }
+}
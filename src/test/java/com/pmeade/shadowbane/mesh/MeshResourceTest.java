@@ -0,0 +1,122 @@
+/*
+ * MeshResourceTest.java
+ * Copyright 2016 Patrick Meade.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.pmeade.shadowbane.mesh;
+
+import com.pmeade.shadowbane.CacheResource;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MeshResourceTest checks that the sections of a MeshResource can be
+ * obtained from a fresh instance, without calling read() first.
+ * @author pmeade
+ */
+public class MeshResourceTest
+{
+    /**
+     * Vertices of the test mesh: a single triangle.
+     */
+    private static final float[] VERTICES = {
+        0.0f, 0.0f, 0.0f,
+        1.0f, 0.0f, 0.0f,
+        0.0f, 2.5f, -1.0f,
+    };
+
+    /**
+     * Triangle indices of the test mesh.
+     */
+    private static final short[] TRI_FACES = { 0, 1, 2 };
+
+    @Test
+    public void getVerticesOnFreshInstance() {
+        MeshResource mesh = new MeshResource(createResource());
+        assertArrayEquals(VERTICES, mesh.getVertices(), 0.0f);
+    }
+
+    @Test
+    public void getTriFacesOnFreshInstance() {
+        MeshResource mesh = new MeshResource(createResource());
+        assertArrayEquals(TRI_FACES, mesh.getTriFaces());
+    }
+
+    @Test
+    public void getVertexBytesOnFreshInstance() {
+        MeshResource mesh = new MeshResource(createResource());
+        ByteBuffer bytes = mesh.getVertexBytes();
+        assertEquals(VERTICES.length * 4, bytes.remaining());
+        for(float vertex : VERTICES) {
+            assertEquals(vertex, bytes.getFloat(), 0.0f);
+        }
+    }
+
+    @Test
+    public void getIndexBytesOnFreshInstance() {
+        MeshResource mesh = new MeshResource(createResource());
+        ByteBuffer bytes = mesh.getIndexBytes();
+        assertEquals(TRI_FACES.length * 2, bytes.remaining());
+        for(short index : TRI_FACES) {
+            assertEquals(index, bytes.getShort());
+        }
+    }
+
+    /**
+     * Build a CacheResource holding a Mesh resource for a single triangle,
+     * laid out as it is in Mesh.cache.
+     * @return CacheResource containing the test mesh
+     */
+    private static CacheResource createResource() {
+        int numVertices = VERTICES.length / 3;
+        ByteBuffer buffer = ByteBuffer.allocate(0x100);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        // header: null1, timestamps and unknowns, min, max, flag1, flag2
+        buffer.putInt(0).putInt(0).putInt(0).putInt(0).putInt(0);
+        buffer.putFloat(0.0f).putFloat(0.0f).putFloat(-1.0f);
+        buffer.putFloat(1.0f).putFloat(2.5f).putFloat(0.0f);
+        buffer.put((byte)0).put((byte)0);
+        buffer.putInt(numVertices);
+        for(float vertex : VERTICES) {
+            buffer.putFloat(vertex);
+        }
+        buffer.putInt(numVertices);
+        for(int i=0; i<numVertices; i++) {
+            buffer.putFloat(0.0f).putFloat(0.0f).putFloat(1.0f);
+        }
+        buffer.putInt(numVertices);
+        for(int i=0; i<numVertices; i++) {
+            buffer.putFloat(0.0f).putFloat(0.0f);
+        }
+        buffer.putInt(TRI_FACES.length);
+        for(short index : TRI_FACES) {
+            buffer.putShort(index);
+        }
+        buffer.putInt(0);
+
+        CacheResource resource = new CacheResource();
+        resource.index = 1;
+        resource.id = 1001;
+        resource.data = buffer.array();
+        resource.size = buffer.position();
+        resource.zipSize = resource.size;
+        return resource;
+    }
+}